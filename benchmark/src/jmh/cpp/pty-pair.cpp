@@ -0,0 +1,106 @@
+//
+// Pseudo-terminal pairs for the benchmarks: the slave end is opened as a SerialPort,
+// the master end stands in for the device.
+//
+
+#include <jni.h>
+#include <stdlib.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <errno.h>
+#include <string.h>
+#include <sys/ioctl.h>
+/* struct termios2 for TCGETS2, <termios.h> is not included so the two definitions do not clash */
+#include <asm/termbits.h>
+
+static void throwIOException(JNIEnv *env, const char *msg) {
+    jclass cls = env->FindClass("java/io/IOException");
+    if (cls != NULL) {
+        env->ThrowNew(cls, msg);
+    }
+    env->DeleteLocalRef(cls);
+}
+
+/* "fd" on OpenJDK, "descriptor" on Android */
+static jfieldID getDescriptorField(JNIEnv *env) {
+    jclass FileDescriptorClass = env->FindClass("java/io/FileDescriptor");
+    jfieldID descriptorID = env->GetFieldID(FileDescriptorClass, "fd", "I");
+    if (descriptorID == NULL) {
+        env->ExceptionClear();
+        descriptorID = env->GetFieldID(FileDescriptorClass, "descriptor", "I");
+    }
+    env->DeleteLocalRef(FileDescriptorClass);
+    return descriptorID;
+}
+
+/*
+ * Class:     android_serialport_api_benchmark_PtyPair
+ * Method:    openMaster
+ * Signature: ()Ljava/io/FileDescriptor;
+ */
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_android_1serialport_1api_benchmark_PtyPair_openMaster(JNIEnv *env, jclass clazz) {
+    int fd = posix_openpt(O_RDWR | O_NOCTTY);
+    if (fd == -1 || grantpt(fd) == -1 || unlockpt(fd) == -1) {
+        throwIOException(env, strerror(errno));
+        if (fd != -1) {
+            close(fd);
+        }
+        return NULL;
+    }
+    jclass FileDescriptorClass = env->FindClass("java/io/FileDescriptor");
+    jmethodID init = env->GetMethodID(FileDescriptorClass, "<init>", "()V");
+    jobject fileDescriptor = env->NewObject(FileDescriptorClass, init);
+    env->SetIntField(fileDescriptor, getDescriptorField(env), fd);
+    return fileDescriptor;
+}
+
+/*
+ * Class:     android_serialport_api_benchmark_PtyPair
+ * Method:    slaveName
+ * Signature: (Ljava/io/FileDescriptor;)Ljava/lang/String;
+ */
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_android_1serialport_1api_benchmark_PtyPair_slaveName(JNIEnv *env, jclass clazz, jobject master) {
+    char name[128];
+    int fd = env->GetIntField(master, getDescriptorField(env));
+    if (ptsname_r(fd, name, sizeof(name)) != 0) {
+        throwIOException(env, strerror(errno));
+        return NULL;
+    }
+    return env->NewStringUTF(name);
+}
+
+/*
+ * Class:     android_serialport_api_benchmark_PtyPair
+ * Method:    closeMaster
+ * Signature: (Ljava/io/FileDescriptor;)V
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_android_1serialport_1api_benchmark_PtyPair_closeMaster(JNIEnv *env, jclass clazz, jobject master) {
+    jfieldID descriptorID = getDescriptorField(env);
+    int fd = env->GetIntField(master, descriptorID);
+    if (fd != -1) {
+        close(fd);
+        env->SetIntField(master, descriptorID, -1);
+    }
+}
+
+/*
+ * Class:     android_serialport_api_benchmark_PtyPair
+ * Method:    hasTermios2
+ * Signature: (Ljava/io/FileDescriptor;)Z
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_android_1serialport_1api_benchmark_PtyPair_hasTermios2(JNIEnv *env, jclass clazz, jobject master) {
+#ifdef TCGETS2
+    struct termios2 tio;
+    return (jboolean) (ioctl(env->GetIntField(master, getDescriptorField(env)), TCGETS2, &tio) == 0);
+#else
+    return JNI_FALSE;
+#endif
+}
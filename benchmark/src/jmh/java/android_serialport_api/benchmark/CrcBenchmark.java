@@ -0,0 +1,68 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.Crc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRC-16/MODBUS per frame: the byte-at-a-time loop protocols usually carry, against {@link Crc}
+ * on a heap array and on a direct buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CrcBenchmark {
+
+    @Param({"8", "64", "256", "4096"})
+    public int frameSize;
+
+    private byte[] mFrame;
+    private ByteBuffer mDirect;
+    private Crc mCrc;
+
+    @Setup
+    public void setUp() {
+        mFrame = new byte[frameSize];
+        new Random(1).nextBytes(mFrame);
+        mDirect = ByteBuffer.allocateDirect(frameSize);
+        mDirect.put(mFrame).flip();
+        mCrc = new Crc(Crc.CRC16_MODBUS);
+    }
+
+    @Benchmark
+    public int bytewise() {
+        int crc = 0xffff;
+        for (byte b : mFrame) {
+            crc ^= b & 0xff;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xa001 : crc >>> 1;
+            }
+        }
+        return crc;
+    }
+
+    @Benchmark
+    public int heapArray() {
+        mCrc.reset();
+        mCrc.update(mFrame, 0, mFrame.length);
+        return mCrc.getValue();
+    }
+
+    @Benchmark
+    public int directBuffer() {
+        mCrc.reset();
+        mCrc.update(mDirect, 0, mDirect.limit());
+        return mCrc.getValue();
+    }
+}
@@ -0,0 +1,91 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.DelimiterFrameDecoder;
+import android_serialport_api.FixedLengthFrameDecoder;
+import android_serialport_api.FrameDecoder;
+import android_serialport_api.LengthFieldFrameDecoder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding throughput over a 64 KiB stream of 32-byte frames fed in chunks of the given size,
+ * as reads would deliver them. One operation decodes the whole stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameDecoderBenchmark {
+
+    private static final int STREAM_SIZE = 64 * 1024;
+    private static final int FRAME_SIZE = 32;
+
+    @Param({"delimiter", "fixedLength", "lengthField"})
+    public String decoder;
+
+    @Param({"16", "256"})
+    public int chunkSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Frames {
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            frames = 0;
+        }
+    }
+
+    private FrameDecoder mDecoder;
+    private byte[] mStream;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mStream = new byte[STREAM_SIZE];
+        Random random = new Random(42);
+        for (int offset = 0; offset < STREAM_SIZE; offset += FRAME_SIZE) {
+            /* [0xAA][len][payload without 0x0D 0x0A][0x0D 0x0A] */
+            mStream[offset] = (byte) 0xAA;
+            mStream[offset + 1] = (byte) (FRAME_SIZE - 2);
+            for (int i = 2; i < FRAME_SIZE - 2; i++) {
+                mStream[offset + i] = (byte) (0x20 + random.nextInt(0x5f));
+            }
+            mStream[offset + FRAME_SIZE - 2] = 0x0D;
+            mStream[offset + FRAME_SIZE - 1] = 0x0A;
+        }
+        if ("delimiter".equals(decoder)) {
+            mDecoder = new DelimiterFrameDecoder(new byte[]{0x0D, 0x0A}, 256, false);
+        } else if ("fixedLength".equals(decoder)) {
+            mDecoder = new FixedLengthFrameDecoder(FRAME_SIZE);
+        } else {
+            mDecoder = new LengthFieldFrameDecoder(1, 1, true, 0, 256);
+        }
+    }
+
+    @Benchmark
+    public void decode(final Frames counter, final Blackhole blackhole) {
+        FrameDecoder.FrameListener listener = new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                counter.frames++;
+                blackhole.consume(frame[offset + length - 1]);
+            }
+        };
+        for (int offset = 0; offset < STREAM_SIZE; offset += chunkSize) {
+            mDecoder.decode(mStream, offset, Math.min(chunkSize, STREAM_SIZE - offset), listener);
+        }
+    }
+}
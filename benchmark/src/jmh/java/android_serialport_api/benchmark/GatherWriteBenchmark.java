@@ -0,0 +1,93 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of a frame kept as header, payload and checksum segments: one writev() through
+ * {@link SerialPort#write(ByteBuffer...)}, against joining the segments for one write() and
+ * against one stream write() per segment, three syscalls a frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GatherWriteBenchmark {
+
+    private static final int HEADER = 6;
+    private static final int CHECKSUM = 2;
+
+    @Param({"16", "256"})
+    public int payload;
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private OutputStream mStream;
+    private ByteBuffer[] mSegments;
+    private ByteBuffer mJoined;
+    private byte[] mHeader;
+    private byte[] mPayload;
+    private byte[] mChecksum;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPty.startSink();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+        mStream = mPort.getOutputStream();
+        mSegments = new ByteBuffer[]{
+                ByteBuffer.allocateDirect(HEADER),
+                ByteBuffer.allocateDirect(payload),
+                ByteBuffer.allocateDirect(CHECKSUM)};
+        mJoined = ByteBuffer.allocateDirect(HEADER + payload + CHECKSUM);
+        mHeader = new byte[HEADER];
+        mPayload = new byte[payload];
+        mChecksum = new byte[CHECKSUM];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Benchmark
+    public long gathered() throws IOException {
+        for (ByteBuffer segment : mSegments) {
+            segment.clear();
+        }
+        return mPort.write(mSegments);
+    }
+
+    @Benchmark
+    public int joined() throws IOException {
+        mJoined.clear();
+        for (ByteBuffer segment : mSegments) {
+            segment.clear();
+            mJoined.put(segment);
+        }
+        mJoined.flip();
+        return mPort.write(mJoined);
+    }
+
+    @Benchmark
+    public void threeWrites() throws IOException {
+        mStream.write(mHeader);
+        mStream.write(mPayload);
+        mStream.write(mChecksum);
+    }
+}
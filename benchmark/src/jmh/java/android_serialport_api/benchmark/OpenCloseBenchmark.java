@@ -0,0 +1,58 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open/close cycles per second, as in reconnect loops and auto-baud probing; each thread cycles
+ * its own pty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OpenCloseBenchmark {
+
+    private PtyPair mPty;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPty.close();
+    }
+
+    @Benchmark
+    public void openClose() throws IOException {
+        new SerialPort(mPty.getSlave(), 115200).close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void openClose4Threads() throws IOException {
+        new SerialPort(mPty.getSlave(), 115200).close();
+    }
+
+    /* The second close returns without a syscall */
+    @Benchmark
+    public void openCloseTwice() throws IOException {
+        SerialPort port = new SerialPort(mPty.getSlave(), 115200);
+        port.close();
+        port.close();
+    }
+}
@@ -0,0 +1,59 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting a port to a given line configuration: a full open/configure/close cycle
+ * against {@link SerialPort#reconfigure(int, int)} on the open descriptor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OpenConfigureBenchmark {
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private boolean mToggle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Benchmark
+    public void openClose() throws IOException {
+        new SerialPort(mPty.getSlave(), 115200).close();
+    }
+
+    @Benchmark
+    public void reconfigure() throws IOException {
+        mToggle = !mToggle;
+        mPort.reconfigure(mToggle ? 230400 : 115200, SerialPort.Apply.NOW);
+    }
+
+    @Benchmark
+    public void reconfigureCustomRate() throws IOException {
+        mToggle = !mToggle;
+        mPort.reconfigure(mToggle ? 250000 : 1843200, SerialPort.Apply.NOW);
+    }
+}
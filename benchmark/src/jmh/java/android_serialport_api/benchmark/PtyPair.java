@@ -0,0 +1,110 @@
+package android_serialport_api.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Linux pseudo-terminal pair: open {@link #getSlave()} as the serial port, and play the device
+ * on the master streams.
+ */
+public final class PtyPair implements Closeable {
+
+    private final FileDescriptor mMaster;
+    private final File mSlave;
+    private final FileInputStream mInputStream;
+    private final FileOutputStream mOutputStream;
+
+    public PtyPair() throws IOException {
+        mMaster = openMaster();
+        mSlave = new File(slaveName(mMaster));
+        mInputStream = new FileInputStream(mMaster);
+        mOutputStream = new FileOutputStream(mMaster);
+    }
+
+    public File getSlave() {
+        return mSlave;
+    }
+
+    /* What the port wrote */
+    public InputStream getMasterInput() {
+        return mInputStream;
+    }
+
+    /* Received by the port */
+    public OutputStream getMasterOutput() {
+        return mOutputStream;
+    }
+
+    /**
+     * Consume whatever the port writes on a daemon thread, so writes never block on a full pty buffer.
+     */
+    public Thread startSink() {
+        Thread sink = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    while (mInputStream.read(buffer) >= 0) {
+                        /* discard */
+                    }
+                } catch (IOException e) {
+                    /* master closed */
+                }
+            }
+        }, "PtySink");
+        sink.setDaemon(true);
+        sink.start();
+        return sink;
+    }
+
+    /**
+     * Write block to the port over and over on a daemon thread, until the pair is closed.
+     */
+    public Thread startFeeder(final byte[] block) {
+        Thread feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        mOutputStream.write(block);
+                    }
+                } catch (IOException e) {
+                    /* master closed */
+                }
+            }
+        }, "PtyFeeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        return feeder;
+    }
+
+    /**
+     * Whether the kernel takes termios2 requests on this pty, needed for baud rates without a Bxxx constant.
+     */
+    public boolean supportsTermios2() {
+        return hasTermios2(mMaster);
+    }
+
+    @Override
+    public void close() {
+        closeMaster(mMaster);
+    }
+
+    private native static FileDescriptor openMaster() throws IOException;
+
+    private native static String slaveName(FileDescriptor master) throws IOException;
+
+    private native static void closeMaster(FileDescriptor master);
+
+    private native static boolean hasTermios2(FileDescriptor master);
+
+    static {
+        System.loadLibrary("serial-port-bench");
+    }
+}
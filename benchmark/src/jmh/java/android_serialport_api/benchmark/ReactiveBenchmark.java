@@ -0,0 +1,132 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+import android_serialport_api.SerialPublisher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to receive 1 MB from a master side writing continuously, through a {@link SerialPublisher}
+ * by request batch (0 requests everything up front), against reading the port directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReactiveBenchmark {
+
+    private static final int MEGABYTE = 1 << 20;
+    private static final int BUFFER_SIZE = 4096;
+
+    private static SerialPort open(PtyPair pty) throws IOException {
+        /* block until data arrives, at most 100 ms */
+        SerialPort port = new SerialPort(pty.getSlave(), 115200, SerialPort.Parity.NONE, SerialPort.DataBit.B8,
+                SerialPort.StopBit.B1, 0, 0, 100);
+        pty.startFeeder(new byte[BUFFER_SIZE]);
+        return port;
+    }
+
+    @State(Scope.Thread)
+    public static class Subscribed implements Subscriber<ByteBuffer> {
+        @Param({"1", "16", "0"})
+        int batch;
+
+        PtyPair pty;
+        SerialPort port;
+        SerialPublisher publisher;
+        Subscription subscription;
+        int untilRequest;
+        volatile long received;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = open(pty);
+            publisher = new SerialPublisher(port, BUFFER_SIZE, null);
+            publisher.subscribe(this);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            subscription.cancel();
+            port.close();
+            pty.close();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            untilRequest = batch;
+            s.request(batch == 0 ? Long.MAX_VALUE : batch);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            received += item.remaining();
+            if (batch != 0 && --untilRequest == 0) {
+                untilRequest = batch;
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Direct {
+        PtyPair pty;
+        SerialPort port;
+        ByteBuffer buffer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = open(pty);
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            port.close();
+            pty.close();
+        }
+    }
+
+    @Benchmark
+    public long publisher(Subscribed state) {
+        long expected = state.received + MEGABYTE;
+        while (state.received < expected) {
+            Thread.yield();
+        }
+        return expected;
+    }
+
+    @Benchmark
+    public long directRead(Direct state) throws IOException {
+        long received = 0;
+        while (received < MEGABYTE) {
+            state.buffer.clear();
+            received += state.port.read(state.buffer);
+        }
+        return received;
+    }
+}
@@ -0,0 +1,146 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialDataListener;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+import android_serialport_api.SerialPortManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a byte entering the pty to the application seeing it: a blocking read on the calling
+ * thread, the epoll engine listener, and a {@link SerialPortManager} listener on an executor.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadCallbackLatencyBenchmark {
+
+    /* Counts received bytes, the benchmark thread spins until its byte is seen */
+    static class CountingListener implements SerialDataListener {
+        volatile long received;
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            received += size;
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+        }
+    }
+
+    private static void awaitNext(CountingListener listener, long expected) {
+        while (listener.received < expected) {
+            /* spin: parking would add the wake-up latency being measured */
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BlockingRead {
+        PtyPair pty;
+        SerialPort port;
+        InputStream in;
+        OutputStream device;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200, SerialPort.Parity.NONE, SerialPort.DataBit.B8,
+                    SerialPort.StopBit.B1, 0, 1, 0);
+            in = port.getInputStream();
+            device = pty.getMasterOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            port.close();
+            pty.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Engine {
+        PtyPair pty;
+        SerialPort port;
+        SerialIoEngine engine;
+        CountingListener listener = new CountingListener();
+        OutputStream device;
+        long sent;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200);
+            engine = new SerialIoEngine();
+            engine.register(port, listener);
+            engine.start();
+            device = pty.getMasterOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.shutdown();
+            port.close();
+            pty.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Manager {
+        PtyPair pty;
+        SerialPortManager manager;
+        ExecutorService executor;
+        CountingListener listener = new CountingListener();
+        OutputStream device;
+        long sent;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            manager = new SerialPortManager(1);
+            executor = Executors.newSingleThreadExecutor();
+            manager.open(pty.getSlave(), 115200, listener, executor);
+            device = pty.getMasterOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            manager.shutdown();
+            executor.shutdown();
+            pty.close();
+        }
+    }
+
+    @Benchmark
+    public int blockingRead(BlockingRead state) throws IOException {
+        state.device.write(0x55);
+        return state.in.read();
+    }
+
+    @Benchmark
+    public void engineListener(Engine state) throws IOException {
+        state.device.write(0x55);
+        awaitNext(state.listener, ++state.sent);
+    }
+
+    @Benchmark
+    public void managerExecutor(Manager state) throws IOException {
+        state.device.write(0x55);
+        awaitNext(state.listener, ++state.sent);
+    }
+}
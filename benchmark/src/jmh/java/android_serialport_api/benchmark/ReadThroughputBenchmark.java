@@ -0,0 +1,85 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained receive throughput while the master side writes continuously, by read buffer size.
+ * The bytes counter gives bytes per second; ops per second is read() calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadThroughputBenchmark {
+
+    @Param({"64", "512", "4096"})
+    public int bufferSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private InputStream mStream;
+    private byte[] mArray;
+    private ByteBuffer mDirect;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        /* block until data arrives, at most 100 ms */
+        mPort = new SerialPort(mPty.getSlave(), 115200, SerialPort.Parity.NONE, SerialPort.DataBit.B8,
+                SerialPort.StopBit.B1, 0, 0, 100);
+        mStream = mPort.getInputStream();
+        mArray = new byte[bufferSize];
+        mDirect = ByteBuffer.allocateDirect(bufferSize);
+        mPty.startFeeder(new byte[4096]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Benchmark
+    public int stream(Bytes counter) throws IOException {
+        int n = mStream.read(mArray);
+        if (n > 0) {
+            counter.bytes += n;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int directBuffer(Bytes counter) throws IOException {
+        mDirect.clear();
+        int n = mPort.read(mDirect);
+        counter.bytes += n;
+        return n;
+    }
+}
@@ -0,0 +1,151 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.Histogram;
+import android_serialport_api.ReceiveStamp;
+import android_serialport_api.SerialDataListener;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+import android_serialport_api.StampedDataListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link ReceiveStamp}s, and the receive latency they split: a byte written to the master
+ * side until read() returns in native code (kernel and wake-up), then until the engine listener
+ * runs (JNI return and dispatch). The split is printed as percentiles at the end of each trial.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReceiveStampBenchmark {
+
+    @State(Scope.Thread)
+    public static class Engine implements StampedDataListener {
+        @Param({"false", "true"})
+        boolean stamped;
+
+        PtyPair pty;
+        SerialPort port;
+        SerialIoEngine engine;
+        OutputStream device;
+        volatile long received;
+        long sent;
+        /* System.nanoTime() just before the write of the byte in flight */
+        volatile long sentNanos;
+        final Histogram kernel = new Histogram();
+        final Histogram dispatch = new Histogram();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200);
+            engine = new SerialIoEngine();
+            if (stamped) {
+                engine.register(port, this);
+            } else {
+                /* plain listener, the engine does not stamp its chunks */
+                engine.register(port, new SerialDataListener() {
+                    @Override
+                    public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+                        received += size;
+                    }
+
+                    @Override
+                    public void onError(SerialPort port, IOException e) {
+                    }
+                });
+            }
+            engine.start();
+            device = pty.getMasterOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.shutdown();
+            port.close();
+            pty.close();
+            if (stamped) {
+                System.out.println("write to read(): p50 " + kernel.getPercentile(50) / 1000 + " us, p99 "
+                        + kernel.getPercentile(99) / 1000 + " us; read() to listener: p50 "
+                        + dispatch.getPercentile(50) / 1000 + " us, p99 " + dispatch.getPercentile(99) / 1000 + " us");
+            }
+        }
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size, ReceiveStamp stamp) {
+            long now = System.nanoTime();
+            kernel.record(stamp.getTimestampNanos() - sentNanos);
+            dispatch.record(now - stamp.getTimestampNanos());
+            received += size;
+        }
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            received += size;
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DirectRead {
+        PtyPair pty;
+        SerialPort port;
+        OutputStream device;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        ReceiveStamp stamp = new ReceiveStamp();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200, SerialPort.Parity.NONE, SerialPort.DataBit.B8,
+                    SerialPort.StopBit.B1, 0, 1, 0);
+            device = pty.getMasterOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            port.close();
+            pty.close();
+        }
+    }
+
+    @Benchmark
+    public void engineListener(Engine state) throws IOException {
+        long expected = ++state.sent;
+        state.sentNanos = System.nanoTime();
+        state.device.write(0x55);
+        while (state.received < expected) {
+            /* spin: parking would add the wake-up latency being measured */
+        }
+    }
+
+    @Benchmark
+    public int directRead(DirectRead state) throws IOException {
+        state.device.write(0x55);
+        state.buffer.clear();
+        return state.port.read(state.buffer);
+    }
+
+    @Benchmark
+    public int directReadStamped(DirectRead state) throws IOException {
+        state.device.write(0x55);
+        state.buffer.clear();
+        return state.port.read(state.buffer, state.stamp);
+    }
+}
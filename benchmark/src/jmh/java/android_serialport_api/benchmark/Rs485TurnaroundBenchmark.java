@@ -0,0 +1,78 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.Rs485Config;
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from the start of a write until the RS-485 transmitter could be released: write and drain
+ * with plain line control, which is the earliest an application could toggle RTS itself, against
+ * a write with {@link SerialPort#enableRs485(Rs485Config)} (in kernel or through the fallback).
+ * <p>
+ * Needs a real UART, ptys have no RTS, and is only run when one is given:
+ * <code>./gradlew :benchmark:jmh -Prs485.device=/dev/ttyS1 -Prs485.baud=115200</code>.
+ * The device sends what is written, connect it to nothing or to a bus that tolerates it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Rs485TurnaroundBenchmark {
+
+    @Param({"false", "true"})
+    public boolean rs485;
+
+    @Param({"1", "16"})
+    public int size;
+
+    private SerialPort mPort;
+    private OutputStream mStream;
+    private byte[] mMessage;
+    private boolean mInKernel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String device = System.getProperty("rs485.device");
+        if (device == null) {
+            throw new IllegalStateException("set -Drs485.device to a UART, see the class comment");
+        }
+        mPort = new SerialPort(new File(device), Integer.getInteger("rs485.baud", 115200));
+        if (rs485) {
+            mInKernel = mPort.enableRs485(new Rs485Config());
+            System.out.println("RS-485 " + (mInKernel ? "in kernel" : "through RTS toggling"));
+        }
+        mStream = mPort.getOutputStream();
+        mMessage = new byte[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (rs485) {
+            mPort.disableRs485();
+        }
+        mPort.close();
+    }
+
+    @Benchmark
+    public void writeUntilReleased() throws IOException {
+        mStream.write(mMessage);
+        /* the fallback returns with RTS already dropped, the kernel mode drops it after the drain */
+        if (!rs485 || mInKernel) {
+            mPort.drain();
+        }
+    }
+}
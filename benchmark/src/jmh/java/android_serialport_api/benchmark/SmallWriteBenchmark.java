@@ -0,0 +1,74 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.CoalescingOutputStream;
+import android_serialport_api.SerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-write cost of small messages, where the syscall dominates: one write() per message through
+ * the stream or a direct buffer, against writes batched by {@link CoalescingOutputStream}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SmallWriteBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int size;
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private OutputStream mStream;
+    private CoalescingOutputStream mCoalescing;
+    private byte[] mMessage;
+    private ByteBuffer mDirect;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPty.startSink();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+        mStream = mPort.getOutputStream();
+        mCoalescing = new CoalescingOutputStream(mPort, 4096, 0);
+        mMessage = new byte[size];
+        mDirect = ByteBuffer.allocateDirect(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mCoalescing.close();
+        mPort.close();
+        mPty.close();
+    }
+
+    @Benchmark
+    public void stream() throws IOException {
+        mStream.write(mMessage);
+    }
+
+    @Benchmark
+    public void directBuffer() throws IOException {
+        mDirect.clear();
+        mPort.write(mDirect);
+    }
+
+    @Benchmark
+    public void coalesced() throws IOException {
+        mCoalescing.write(mMessage);
+    }
+}
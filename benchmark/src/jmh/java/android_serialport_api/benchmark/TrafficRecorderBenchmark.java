@@ -0,0 +1,150 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialDataListener;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+import android_serialport_api.TrafficRecorder;
+import android_serialport_api.TrafficReplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording: small writes with and without a {@link TrafficRecorder} on the port, and
+ * the time to replay a recorded session at full speed into a port read by the epoll engine.
+ */
+public class TrafficRecorderBenchmark {
+
+    @State(Scope.Thread)
+    public static class Writes {
+        @Param({"false", "true"})
+        boolean recording;
+
+        @Param({"16", "256"})
+        int size;
+
+        PtyPair pty;
+        SerialPort port;
+        OutputStream stream;
+        TrafficRecorder recorder;
+        File log;
+        byte[] message;
+        ByteBuffer direct;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            pty.startSink();
+            port = new SerialPort(pty.getSlave(), 115200);
+            stream = port.getOutputStream();
+            if (recording) {
+                log = File.createTempFile("traffic", ".log");
+                recorder = new TrafficRecorder(log, 4 << 20);
+                port.setRecorder(recorder);
+            }
+            message = new byte[size];
+            direct = ByteBuffer.allocateDirect(size);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            port.close();
+            pty.close();
+            if (recorder != null) {
+                recorder.close();
+                log.delete();
+            }
+        }
+    }
+
+    /* A recorded session of 20000 chunks of 1 to 64 bytes received by the port */
+    @State(Scope.Benchmark)
+    public static class Replay {
+        PtyPair pty;
+        SerialPort port;
+        SerialIoEngine engine;
+        volatile long received;
+        TrafficReplayer replayer;
+        File log;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            log = File.createTempFile("traffic", ".log");
+            TrafficRecorder recorder = new TrafficRecorder(log, 4 << 20);
+            Random random = new Random(1);
+            byte[] chunk = new byte[64];
+            for (int i = 0; i < 20000; i++) {
+                random.nextBytes(chunk);
+                recorder.record(TrafficRecorder.RX, chunk, 0, 1 + random.nextInt(64));
+            }
+            recorder.close();
+            replayer = new TrafficReplayer(TrafficRecorder.read(log), TrafficRecorder.RX);
+            replayer.setSpeed(0);
+
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200);
+            engine = new SerialIoEngine();
+            engine.register(port, new SerialDataListener() {
+                @Override
+                public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+                    received += size;
+                }
+
+                @Override
+                public void onError(SerialPort port, IOException e) {
+                }
+            });
+            engine.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.shutdown();
+            port.close();
+            pty.close();
+            log.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void streamWrite(Writes state) throws IOException {
+        state.stream.write(state.message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void directWrite(Writes state) throws IOException {
+        state.direct.clear();
+        state.port.write(state.direct);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long replayFullSpeed(Replay state) throws IOException {
+        long expected = state.received + state.replayer.getLength();
+        state.replayer.replay(state.pty.getMasterOutput());
+        while (state.received < expected) {
+            Thread.yield();
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,212 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.FixedLengthFrameDecoder;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+import android_serialport_api.TimerWheel;
+import android_serialport_api.TransactionEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transactions per second against a device stand-in on the pty master, which answers each 8-byte
+ * request with the same 8 bytes deviceDelayUs after it arrived: stop-and-wait with blocking reads
+ * as in the sample app, then the {@link TransactionEngine} with 1, 4 and 16 requests in flight.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionBenchmark {
+
+    private static final int FRAME = 8;
+
+    /* The first byte of a frame is its sequence number */
+    private static final TransactionEngine.Correlator BY_SEQUENCE = new TransactionEngine.Correlator() {
+        @Override
+        public Object requestKey(byte[] request) {
+            return request[0];
+        }
+
+        @Override
+        public Object responseKey(byte[] buffer, int offset, int length) {
+            return buffer[offset];
+        }
+    };
+
+    /*
+     * Echoes every request frame once delayNanos has elapsed since it arrived. Replies are delayed
+     * independently, as over a link with that round-trip time, so requests in flight overlap.
+     */
+    private static void startResponder(final PtyPair pty, final long delayNanos) {
+        final LinkedBlockingQueue<long[]> due = new LinkedBlockingQueue<long[]>();
+        final OutputStream out = pty.getMasterOutput();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = pty.getMasterInput();
+                byte[] frame = new byte[FRAME];
+                try {
+                    for (; ; ) {
+                        for (int n = 0; n < FRAME; ) {
+                            int r = in.read(frame, n, FRAME - n);
+                            if (r < 0) {
+                                return;
+                            }
+                            n += r;
+                        }
+                        if (delayNanos == 0) {
+                            out.write(frame);
+                        } else {
+                            /* the frame's 8 bytes travel in the second long */
+                            due.add(new long[]{System.nanoTime() + delayNanos, ByteBuffer.wrap(frame).getLong()});
+                        }
+                    }
+                } catch (IOException e) {
+                    /* master closed */
+                }
+            }
+        }, "PtyResponder");
+        reader.setDaemon(true);
+        reader.start();
+        if (delayNanos == 0) {
+            return;
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer frame = ByteBuffer.allocate(FRAME);
+                try {
+                    for (; ; ) {
+                        long[] reply = due.take();
+                        long wait;
+                        while ((wait = reply[0] - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        frame.clear();
+                        frame.putLong(reply[1]);
+                        out.write(frame.array());
+                    }
+                } catch (InterruptedException e) {
+                    /* not interrupted, daemon */
+                } catch (IOException e) {
+                    /* master closed */
+                }
+            }
+        }, "PtyResponderWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @State(Scope.Thread)
+    public static class StopAndWait {
+        @Param({"0", "1000"})
+        int deviceDelayUs;
+
+        PtyPair pty;
+        SerialPort port;
+        InputStream in;
+        OutputStream out;
+        byte[] request = new byte[FRAME];
+        byte[] response = new byte[FRAME];
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200, SerialPort.Parity.NONE, SerialPort.DataBit.B8,
+                    SerialPort.StopBit.B1, 0, FRAME, 0);
+            in = port.getInputStream();
+            out = port.getOutputStream();
+            startResponder(pty, TimeUnit.MICROSECONDS.toNanos(deviceDelayUs));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            port.close();
+            pty.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pipelined {
+        @Param({"0", "1000"})
+        int deviceDelayUs;
+
+        @Param({"1", "4", "16"})
+        int inFlight;
+
+        PtyPair pty;
+        SerialPort port;
+        SerialIoEngine ioEngine;
+        TimerWheel wheel;
+        TransactionEngine engine;
+        /* The transaction submitted inFlight operations ago is awaited before its slot is reused */
+        TransactionEngine.Transaction[] window;
+        int next;
+        byte sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pty = new PtyPair();
+            port = new SerialPort(pty.getSlave(), 115200);
+            wheel = new TimerWheel(10, 256);
+            engine = new TransactionEngine(port, new FixedLengthFrameDecoder(FRAME), BY_SEQUENCE, inFlight, wheel);
+            ioEngine = new SerialIoEngine();
+            ioEngine.register(port, engine);
+            ioEngine.start();
+            window = new TransactionEngine.Transaction[inFlight];
+            startResponder(pty, TimeUnit.MICROSECONDS.toNanos(deviceDelayUs));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            for (TransactionEngine.Transaction transaction : window) {
+                if (transaction != null) {
+                    transaction.get();
+                }
+            }
+            engine.close();
+            ioEngine.shutdown();
+            wheel.stop();
+            port.close();
+            pty.close();
+        }
+    }
+
+    @Benchmark
+    public int stopAndWait(StopAndWait state) throws IOException {
+        state.out.write(state.request);
+        int n = 0;
+        while (n < FRAME) {
+            n += state.in.read(state.response, n, FRAME - n);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public Object pipelined(Pipelined state) throws InterruptedException, ExecutionException {
+        TransactionEngine.Transaction previous = state.window[state.next];
+        byte[] response = previous != null ? previous.get() : null;
+        byte[] request = new byte[FRAME];
+        request[0] = state.sequence++;
+        state.window[state.next] = state.engine.submit(request, 1000);
+        state.next = (state.next + 1) % state.inFlight;
+        return response;
+    }
+}
@@ -0,0 +1,145 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.AutoBaudDetector;
+import android_serialport_api.SerialPort;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AutoBaudDetector} against a local stand-in for a device talking at a known rate.
+ * <p>
+ * A pty carries bytes unchanged whatever the speed, so the stand-in plays the line too: what it
+ * sends is readable text only while the port is set to the device rate, and line noise otherwise.
+ */
+public class AutoBaudDetectorPtyTest {
+
+    private static final int DEVICE_RATE = 38400;
+    private static final byte[] TEXT = "T=21.5C RH=40% P=1013hPa\r\n".getBytes();
+
+    /* Sends at DEVICE_RATE, in 5 ms chunks, until stopped */
+    private class Talker extends Thread {
+        volatile boolean mStop;
+
+        @Override
+        public void run() {
+            OutputStream out = mPty.getMasterOutput();
+            byte[] chunk = new byte[DEVICE_RATE / 10 / 200];
+            int position = 0;
+            try {
+                while (!mStop) {
+                    boolean matched = mPort.getBaudRate() == DEVICE_RATE;
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = matched ? TEXT[position++ % TEXT.length] : (byte) (0x80 + (position++ % 0x70));
+                    }
+                    out.write(chunk);
+                    Thread.sleep(5);
+                }
+            } catch (IOException e) {
+                /* master closed */
+            } catch (InterruptedException e) {
+                /* stopped */
+            }
+        }
+    }
+
+    /* Answers "ID?" with its name, readable only at DEVICE_RATE */
+    private class Responder extends Thread {
+        @Override
+        public void run() {
+            InputStream in = mPty.getMasterInput();
+            OutputStream out = mPty.getMasterOutput();
+            byte[] buffer = new byte[64];
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    if (new String(buffer, 0, n).contains("ID?")) {
+                        out.write(mPort.getBaudRate() == DEVICE_RATE ? "DEV1\r\n".getBytes() : new byte[]{(byte) 0xf0, 0x13});
+                    }
+                }
+            } catch (IOException e) {
+                /* master closed */
+            }
+        }
+    }
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 9600);
+    }
+
+    @After
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Test
+    public void textScoring_findsTheDeviceRate() throws Exception {
+        Talker talker = new Talker();
+        talker.start();
+        try {
+            AutoBaudDetector detector = new AutoBaudDetector(mPort);
+            detector.setCandidates(115200, 9600, DEVICE_RATE, 57600);
+            detector.setListenTime(500);
+            /* more than a chunk sent just before a switch */
+            detector.setMinSampleBytes(64);
+            AutoBaudDetector.Result result = detector.detect();
+            assertTrue(result.toString(), result.isConfident());
+            assertEquals(DEVICE_RATE, result.getBaudRate());
+            assertEquals(DEVICE_RATE, mPort.getBaudRate());
+            /* stops at the match, 57600 is never tried */
+            assertTrue(result.getElapsedMs() < 2000);
+        } finally {
+            talker.mStop = true;
+            talker.join();
+        }
+    }
+
+    @Test
+    public void probe_findsTheDeviceRate() throws Exception {
+        new Responder().start();
+        AutoBaudDetector detector = new AutoBaudDetector(mPort);
+        detector.setCandidates(9600, 19200, DEVICE_RATE, 115200);
+        detector.setProbe(new AutoBaudDetector.Probe() {
+            @Override
+            public byte[] request(int baudRate) {
+                return "ID?\r".getBytes();
+            }
+
+            @Override
+            public boolean matches(byte[] response, int length) {
+                return new String(response, 0, length).contains("DEV1");
+            }
+        });
+        AutoBaudDetector.Result result = detector.detect();
+        assertTrue(result.toString(), result.isConfident());
+        assertEquals(DEVICE_RATE, result.getBaudRate());
+        assertEquals(DEVICE_RATE, mPort.getBaudRate());
+    }
+
+    @Test
+    public void silentDevice_keepsTheOriginalSettingsWithinBudget() throws IOException {
+        mPort.setReadTimeout(1, 0);
+        AutoBaudDetector detector = new AutoBaudDetector(mPort);
+        detector.setTimeBudget(600);
+        AutoBaudDetector.Result result = detector.detect();
+        assertFalse(result.isConfident());
+        /* the budget plus one read timeout */
+        assertTrue("took " + result.getElapsedMs() + " ms", result.getElapsedMs() < 600 + 100 + 200);
+        assertEquals(9600, mPort.getBaudRate());
+        assertEquals(1, mPort.getMinBytes());
+        assertEquals(0, mPort.getReadTimeoutMs());
+    }
+}
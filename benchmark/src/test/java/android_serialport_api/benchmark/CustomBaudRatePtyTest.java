@@ -0,0 +1,80 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Baud rates without a Bxxx constant, set through termios2/BOTHER on a pseudo-terminal.
+ */
+public class CustomBaudRatePtyTest {
+
+    private static final int[] CUSTOM_RATES = {250000, 1843200, 3686400};
+
+    private PtyPair mPty;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        Assume.assumeTrue("no termios2 on this kernel", mPty.supportsTermios2());
+    }
+
+    @After
+    public void tearDown() {
+        mPty.close();
+    }
+
+    @Test
+    public void open_appliesTheCustomRate() throws IOException {
+        for (int rate : CUSTOM_RATES) {
+            SerialPort port = new SerialPort(mPty.getSlave(), rate);
+            try {
+                assertEquals(rate, port.getBaudRate());
+                assertEquals(rate, port.getAppliedBaudRate());
+            } finally {
+                port.close();
+            }
+        }
+    }
+
+    @Test
+    public void reconfigure_movesBetweenCustomAndStandardRates() throws IOException {
+        SerialPort port = new SerialPort(mPty.getSlave(), 115200);
+        try {
+            assertEquals(115200, port.getAppliedBaudRate());
+            for (int rate : CUSTOM_RATES) {
+                port.reconfigure(rate, SerialPort.Apply.NOW);
+                assertEquals(rate, port.getAppliedBaudRate());
+            }
+            /* back to a Bxxx constant, BOTHER cleared */
+            port.reconfigure(9600, SerialPort.Apply.NOW);
+            assertEquals(9600, port.getAppliedBaudRate());
+        } finally {
+            port.close();
+        }
+    }
+
+    @Test
+    public void customRate_carriesData() throws IOException {
+        SerialPort port = new SerialPort(mPty.getSlave(), 250000);
+        try {
+            port.setReadTimeout(0, 1000);
+            mPty.getMasterOutput().write(new byte[]{1, 2, 3});
+            byte[] buffer = new byte[8];
+            assertEquals(3, port.getInputStream().read(buffer));
+            port.getOutputStream().write(new byte[]{4, 5});
+            assertEquals(2, mPty.getMasterInput().read(buffer));
+            assertEquals(4, buffer[0]);
+            assertEquals(5, buffer[1]);
+        } finally {
+            port.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.AsyncWriter;
+import android_serialport_api.CoalescingOutputStream;
+import android_serialport_api.SerialPort;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writers on a port opened with O_NONBLOCK, into a pty nobody reads for a while: writes return 0
+ * until the device side catches up, and the writer has to wait for room rather than spin.
+ */
+public class NonBlockingWritePtyTest {
+
+    /* fcntl.h, not exposed by the JDK */
+    private static final int O_NONBLOCK = 04000;
+    /* Several times what the pty buffers */
+    private static final int DATA = 256 * 1024;
+    private static final long STALL_MS = 300;
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() throws IOException {
+        mThreads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mThreads.isCurrentThreadCpuTimeSupported());
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200, O_NONBLOCK);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPort != null) {
+            mPort.close();
+            mPty.close();
+        }
+    }
+
+    @Test
+    public void coalescingStream_waitsForRoomInsteadOfSpinning() throws Exception {
+        byte[] sent = new byte[DATA];
+        new Random(7).nextBytes(sent);
+        Reader reader = new Reader(sent.length);
+        reader.start();
+        CoalescingOutputStream out = new CoalescingOutputStream(mPort, 4096, 0);
+        long start = System.nanoTime();
+        long cpu = mThreads.getCurrentThreadCpuTime();
+        for (int i = 0; i < sent.length; i += 1000) {
+            out.write(sent, i, Math.min(1000, sent.length - i));
+        }
+        out.flush();
+        cpu = mThreads.getCurrentThreadCpuTime() - cpu;
+        long wall = System.nanoTime() - start;
+        out.close();
+        reader.join();
+        assertNull(reader.mError);
+        assertArrayEquals(sent, reader.mBytes.toByteArray());
+        assertEquals(sent.length, out.getBytesWritten());
+        /* a writer retrying zero writes in a loop is busy for the whole stall */
+        assertTrue("busy " + cpu / 1000000 + " of " + wall / 1000000 + " ms", cpu < wall / 4);
+    }
+
+    @Test
+    public void asyncWriter_waitsForRoomInsteadOfSpinning() throws Exception {
+        byte[] sent = new byte[DATA];
+        new Random(11).nextBytes(sent);
+        Reader reader = new Reader(sent.length);
+        final AtomicLong cpu = new AtomicLong(-1);
+        AsyncWriter writer = new AsyncWriter(mPort, 8, AsyncWriter.OverflowPolicy.BLOCK);
+        /* one batch, so the only drain comes after all the zero writes */
+        writer.setMaxBatch(AsyncWriter.MAX_BATCH);
+        long start = System.nanoTime();
+        reader.start();
+        AsyncWriter.WriteFuture last = null;
+        int chunk = sent.length / AsyncWriter.MAX_BATCH;
+        for (int i = 0; i < sent.length; i += chunk) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(chunk);
+            buffer.put(sent, i, chunk).flip();
+            last = writer.submit(buffer, i + chunk < sent.length ? null : new AsyncWriter.Listener() {
+                @Override
+                public void onComplete(AsyncWriter.WriteFuture future) {
+                    /* on the writer thread, which has done nothing but this test's writes */
+                    cpu.set(mThreads.getCurrentThreadCpuTime());
+                }
+            });
+        }
+        assertEquals(chunk, last.get(5, TimeUnit.SECONDS).intValue());
+        long wall = System.nanoTime() - start;
+        /* joins the writer thread, the listener has run */
+        writer.close();
+        reader.join();
+        assertNull(reader.mError);
+        assertArrayEquals(sent, reader.mBytes.toByteArray());
+        assertTrue(cpu.get() >= 0);
+        assertTrue("busy " + cpu.get() / 1000000 + " of " + wall / 1000000 + " ms", cpu.get() < wall / 4);
+    }
+
+    /* Plays a device that starts reading late, then keeps up */
+    private class Reader extends Thread {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final int mLength;
+        volatile IOException mError;
+
+        Reader(int length) {
+            mLength = length;
+        }
+
+        @Override
+        public void run() {
+            InputStream in = mPty.getMasterInput();
+            byte[] chunk = new byte[4096];
+            try {
+                Thread.sleep(STALL_MS);
+                while (mBytes.size() < mLength) {
+                    int n = in.read(chunk);
+                    if (n < 0) {
+                        break;
+                    }
+                    mBytes.write(chunk, 0, n);
+                }
+            } catch (IOException e) {
+                mError = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read timeouts on a pseudo-terminal: an idle reader sleeps in the kernel instead of spinning.
+ */
+public class ReadTimeoutPtyTest {
+
+    private static final long IDLE_MS = 1000;
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+    }
+
+    @After
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Test
+    public void blockingRead_idleReaderUsesAlmostNoCpu() throws Exception {
+        mPort.setReadTimeout(1, 0);
+        assertIdleCpuBelow(0.05);
+    }
+
+    @Test
+    public void readTimeout_idleReaderUsesAlmostNoCpu() throws Exception {
+        mPort.setReadTimeout(0, 100);
+        assertIdleCpuBelow(0.05);
+    }
+
+    @Test
+    public void readTimeout_returnsEmptyAfterTimeout() throws IOException {
+        mPort.setReadTimeout(0, 200);
+        long start = System.nanoTime();
+        /* FileInputStream reports the empty read as -1 */
+        assertTrue(mPort.getInputStream().read(new byte[16]) <= 0);
+        long elapsedMs = (System.nanoTime() - start) / 1000000L;
+        assertTrue("returned after " + elapsedMs + " ms", elapsedMs >= 150 && elapsedMs < 1000);
+    }
+
+    @Test
+    public void minBytes_waitsForThem() throws Exception {
+        mPort.setReadTimeout(4, 0);
+        mPty.getMasterOutput().write(new byte[]{1, 2});
+        final byte[] buffer = new byte[16];
+        final AtomicInteger read = new AtomicInteger(-2);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read.set(mPort.getInputStream().read(buffer));
+                } catch (IOException e) {
+                    read.set(-3);
+                }
+            }
+        });
+        reader.start();
+        reader.join(300);
+        assertTrue("returned with fewer bytes than VMIN", reader.isAlive());
+        mPty.getMasterOutput().write(new byte[]{3, 4});
+        reader.join(1000);
+        assertEquals(4, read.get());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, Arrays.copyOf(buffer, 4));
+    }
+
+    /* Reads on another thread while the line stays idle, then checks its CPU time */
+    private void assertIdleCpuBelow(double share) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadCpuTimeSupported());
+        final InputStream in = mPort.getInputStream();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[64];
+                try {
+                    while (!stop.get()) {
+                        int n = in.read(buffer);
+                        reads.incrementAndGet();
+                        if (n > 0) {
+                            received.addAndGet(n);
+                        }
+                    }
+                } catch (IOException e) {
+                    /* port closed */
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(IDLE_MS);
+        long cpuNanos = threads.getThreadCpuTime(reader.getId());
+        stop.set(true);
+        /* wake a blocking read up */
+        mPty.getMasterOutput().write('x');
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        double used = (double) cpuNanos / (IDLE_MS * 1000000L);
+        assertTrue("reader used " + Math.round(used * 100) + "% CPU in " + reads.get() + " reads", used < share);
+        assertTrue(received.get() <= 1);
+    }
+}
@@ -0,0 +1,150 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.BufferPool;
+import android_serialport_api.PooledBuffer;
+import android_serialport_api.ReceivePipeline;
+import android_serialport_api.SerialPort;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ReceivePipeline} under a sustained 1 MB/s stream on a pseudo-terminal: once warmed up
+ * its reader thread allocates nothing.
+ */
+public class ReceivePipelinePtyTest {
+
+    private static final int BYTES_PER_SECOND = 1024 * 1024;
+    /* 1 KB every millisecond */
+    private static final int BLOCK = BYTES_PER_SECOND / 1000;
+    private static final long WARMUP_MS = 1000;
+    private static final long MEASURE_MS = 2000;
+
+    /* Checks the running byte pattern and gives every chunk back, allocation free */
+    private static class Checker implements ReceivePipeline.Consumer {
+        volatile Thread mThread;
+        volatile long mReceived;
+        volatile boolean mCorrupt;
+        volatile IOException mError;
+
+        @Override
+        public void onReceived(SerialPort port, PooledBuffer chunk) {
+            mThread = Thread.currentThread();
+            ByteBuffer buffer = chunk.buffer();
+            long received = mReceived;
+            while (buffer.hasRemaining()) {
+                if (buffer.get() != (byte) received++) {
+                    mCorrupt = true;
+                }
+            }
+            mReceived = received;
+            chunk.release();
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+            mError = e;
+        }
+    }
+
+    /* Writes the byte pattern at BYTES_PER_SECOND until stopped */
+    private class Feeder extends Thread {
+        volatile boolean mStop;
+        volatile long mSent;
+
+        @Override
+        public void run() {
+            OutputStream out = mPty.getMasterOutput();
+            byte[] block = new byte[BLOCK];
+            long sent = 0;
+            long next = System.nanoTime();
+            try {
+                while (!mStop) {
+                    for (int i = 0; i < BLOCK; i++) {
+                        block[i] = (byte) (sent + i);
+                    }
+                    out.write(block);
+                    sent += BLOCK;
+                    mSent = sent;
+                    next += TimeUnit.MILLISECONDS.toNanos(1);
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    }
+                }
+            } catch (IOException e) {
+                /* master closed */
+            } catch (InterruptedException e) {
+                /* stopped */
+            }
+        }
+    }
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+        /* lets stop() be noticed on an idle line */
+        mPort.setReadTimeout(0, 100);
+    }
+
+    @After
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Test
+    public void sustainedStream_allocatesNothingAfterWarmup() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        Checker checker = new Checker();
+        ReceivePipeline pipeline = new ReceivePipeline(mPort, new BufferPool(8, 4096), checker);
+        Feeder feeder = new Feeder();
+        pipeline.start();
+        feeder.start();
+        try {
+            Thread.sleep(WARMUP_MS);
+            Thread reader = checker.mThread;
+            assertNotNull("nothing received", reader);
+            long before = threads.getThreadAllocatedBytes(reader.getId());
+            long receivedBefore = checker.mReceived;
+            Thread.sleep(MEASURE_MS);
+            long allocated = threads.getThreadAllocatedBytes(reader.getId()) - before;
+            long received = checker.mReceived - receivedBefore;
+
+            /* the stream kept flowing at about the fed rate */
+            assertTrue("received " + received + " bytes", received > BYTES_PER_SECOND * MEASURE_MS / 1000 / 2);
+            /* a single small object per chunk would be tens of kilobytes */
+            assertTrue("reader allocated " + allocated + " bytes", allocated < 4096);
+        } finally {
+            feeder.mStop = true;
+            feeder.join();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (checker.mReceived < feeder.mSent && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        pipeline.stop();
+        assertNull(checker.mError);
+        assertFalse("bytes out of order", checker.mCorrupt);
+        assertEquals(feeder.mSent, checker.mReceived);
+    }
+}
@@ -0,0 +1,140 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.ReceiveStamp;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+import android_serialport_api.SerialPortManager;
+import android_serialport_api.StampedDataListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ReceiveStamp}s taken by the native read paths, on a pseudo-terminal.
+ */
+public class ReceiveStampPtyTest {
+
+    /* Keeps a copy of every stamp with the System.nanoTime() its callback ran at */
+    private static class StampQueue implements StampedDataListener {
+        final BlockingQueue<ReceiveStamp> mStamps = new ArrayBlockingQueue<ReceiveStamp>(64);
+        final BlockingQueue<Long> mCallbackNanos = new ArrayBlockingQueue<Long>(64);
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size, ReceiveStamp stamp) {
+            mCallbackNanos.add(System.nanoTime());
+            mStamps.add(new ReceiveStamp(stamp));
+        }
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            fail("unstamped delivery to a stamped listener");
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+        }
+    }
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+    }
+
+    @After
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Test
+    public void directRead_stampsTheReadWithCountAndQueue() throws IOException {
+        mPort.setReadTimeout(1, 0);
+        long before = System.nanoTime();
+        mPty.getMasterOutput().write(new byte[10]);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        ReceiveStamp stamp = new ReceiveStamp();
+        assertEquals(4, mPort.read(buffer, stamp));
+        long after = System.nanoTime();
+        /* CLOCK_MONOTONIC, the time base of System.nanoTime() */
+        assertTrue(stamp.toString(), stamp.getTimestampNanos() >= before && stamp.getTimestampNanos() <= after);
+        assertEquals(4, stamp.getByteCount());
+        /* the rest of the write is still in the kernel queue */
+        assertEquals(6, stamp.getQueuedBytes());
+        assertEquals(6, mPort.getInputQueueSize());
+    }
+
+    @Test
+    public void directRead_emptyReadLeavesTheStamp() throws IOException {
+        mPort.setReadTimeout(0, 0);
+        ReceiveStamp stamp = new ReceiveStamp();
+        assertEquals(0, mPort.read(ByteBuffer.allocateDirect(4), stamp));
+        assertEquals(0, stamp.getTimestampNanos());
+        assertEquals(0, stamp.getByteCount());
+    }
+
+    @Test
+    public void engine_stampsEachChunkBeforeItsCallback() throws Exception {
+        StampQueue listener = new StampQueue();
+        SerialIoEngine engine = new SerialIoEngine();
+        engine.register(mPort, listener);
+        engine.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                long before = System.nanoTime();
+                mPty.getMasterOutput().write(new byte[]{1, 2, 3});
+                ReceiveStamp stamp = listener.mStamps.poll(5, TimeUnit.SECONDS);
+                assertNotNull(stamp);
+                long callback = listener.mCallbackNanos.take();
+                assertTrue(stamp.toString(), stamp.getTimestampNanos() >= before);
+                assertTrue(stamp.getTimestampNanos() <= callback);
+                assertTrue(stamp.getByteCount() >= 1 && stamp.getByteCount() <= 3);
+                assertTrue(stamp.getQueuedBytes() >= 0);
+                /* a chunk split by the pty, wait for the rest */
+                int received = stamp.getByteCount();
+                while (received < 3) {
+                    received += listener.mStamps.take().getByteCount();
+                    listener.mCallbackNanos.take();
+                }
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void manager_copiesTheStampForTheExecutor() throws Exception {
+        StampQueue listener = new StampQueue();
+        SerialPortManager manager = new SerialPortManager(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        /* the manager opens its own port on the slave */
+        mPort.close();
+        try {
+            manager.open(mPty.getSlave(), 115200, listener, executor);
+            long before = System.nanoTime();
+            mPty.getMasterOutput().write(new byte[]{1});
+            ReceiveStamp stamp = listener.mStamps.poll(5, TimeUnit.SECONDS);
+            assertNotNull(stamp);
+            assertEquals(1, stamp.getByteCount());
+            assertTrue(stamp.getTimestampNanos() >= before);
+            assertTrue(stamp.getTimestampNanos() <= listener.mCallbackNanos.take());
+        } finally {
+            manager.shutdown();
+            executor.shutdown();
+        }
+    }
+}
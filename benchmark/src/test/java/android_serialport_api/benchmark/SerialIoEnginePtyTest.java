@@ -0,0 +1,166 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialDataListener;
+import android_serialport_api.SerialIoEngine;
+import android_serialport_api.SerialPort;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SerialIoEngine} reading several pseudo-terminals on its single thread.
+ */
+public class SerialIoEnginePtyTest {
+
+    private static final int PORTS = 6;
+
+    /* Collects what one port received */
+    private static class Collector implements SerialDataListener {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        volatile Thread mThread;
+        volatile IOException mError;
+        CountDownLatch mDone;
+        int mExpected;
+
+        synchronized void expect(int bytes) {
+            mDone = new CountDownLatch(1);
+            mExpected = mBytes.size() + bytes;
+        }
+
+        @Override
+        public synchronized void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            mThread = Thread.currentThread();
+            mBytes.write(buffer, 0, size);
+            if (mDone != null && mBytes.size() >= mExpected) {
+                mDone.countDown();
+            }
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+            mError = e;
+        }
+
+        boolean await() throws InterruptedException {
+            CountDownLatch done;
+            synchronized (this) {
+                done = mDone;
+            }
+            return done.await(5, TimeUnit.SECONDS);
+        }
+
+        synchronized byte[] bytes() {
+            return mBytes.toByteArray();
+        }
+    }
+
+    private final PtyPair[] mPtys = new PtyPair[PORTS];
+    private final SerialPort[] mPorts = new SerialPort[PORTS];
+    private final Collector[] mCollectors = new Collector[PORTS];
+    private SerialIoEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mEngine = new SerialIoEngine();
+        for (int i = 0; i < PORTS; i++) {
+            mPtys[i] = new PtyPair();
+            mPorts[i] = new SerialPort(mPtys[i].getSlave(), 115200);
+            mCollectors[i] = new Collector();
+            mEngine.register(mPorts[i], mCollectors[i]);
+        }
+        mEngine.start();
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+        for (int i = 0; i < PORTS; i++) {
+            mPorts[i].close();
+            mPtys[i].close();
+        }
+    }
+
+    @Test
+    public void everyPort_receivesItsOwnBytesInOrder() throws Exception {
+        byte[][] sent = new byte[PORTS][];
+        for (int i = 0; i < PORTS; i++) {
+            sent[i] = pattern(i, 20000);
+            mCollectors[i].expect(sent[i].length);
+        }
+        /* interleaved, so the engine has several ports ready at once */
+        for (int offset = 0; offset < 20000; offset += 500) {
+            for (int i = 0; i < PORTS; i++) {
+                mPtys[i].getMasterOutput().write(sent[i], offset, 500);
+            }
+        }
+        Thread engineThread = null;
+        for (int i = 0; i < PORTS; i++) {
+            assertTrue("port " + i + " incomplete", mCollectors[i].await());
+            assertArrayEquals(sent[i], mCollectors[i].bytes());
+            if (engineThread == null) {
+                engineThread = mCollectors[i].mThread;
+            }
+            /* one thread for all ports */
+            assertSame(engineThread, mCollectors[i].mThread);
+        }
+        assertNotSame(Thread.currentThread(), engineThread);
+    }
+
+    @Test
+    public void unregister_leavesTheOtherPortsRunning() throws Exception {
+        assertTrue(mEngine.unregister(mPorts[0]));
+        assertFalse(mEngine.unregister(mPorts[0]));
+        mPtys[0].getMasterOutput().write(new byte[]{1, 2, 3});
+        for (int i = 1; i < PORTS; i++) {
+            mCollectors[i].expect(3);
+            mPtys[i].getMasterOutput().write(new byte[]{4, 5, 6});
+        }
+        for (int i = 1; i < PORTS; i++) {
+            assertTrue(mCollectors[i].await());
+        }
+        assertEquals(0, mCollectors[0].bytes().length);
+    }
+
+    @Test
+    public void hangUp_isReportedAsError() throws Exception {
+        mPtys[2].close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mCollectors[2].mError == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(mCollectors[2].mError);
+        /* the failed port is dropped, the others keep working */
+        mCollectors[3].expect(1);
+        mPtys[3].getMasterOutput().write(7);
+        assertTrue(mCollectors[3].await());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockingReadMode_isRejected() throws IOException {
+        PtyPair pty = new PtyPair();
+        SerialPort port = new SerialPort(pty.getSlave(), 115200);
+        try {
+            port.setReadTimeout(8, 0);
+            mEngine.register(port, new Collector());
+        } finally {
+            port.close();
+            pty.close();
+        }
+    }
+
+    private static byte[] pattern(int port, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (port * 31 + i);
+        }
+        return bytes;
+    }
+}
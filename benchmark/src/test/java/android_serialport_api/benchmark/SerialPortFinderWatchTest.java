@@ -0,0 +1,167 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPortFinder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SerialPortFinder} watching a scratch device directory with inotify.
+ */
+public class SerialPortFinderWatchTest {
+
+    /* More events than the default inotify queue of 16384 holds */
+    private static final int FLOOD = 20000;
+
+    /* Events as "+name" and "-name" */
+    private static class Events implements SerialPortFinder.DeviceListener {
+        final LinkedBlockingQueue<String> mEvents = new LinkedBlockingQueue<String>();
+        volatile CountDownLatch mHold;
+
+        @Override
+        public void onDeviceAdded(SerialPortFinder.Driver driver, File device) {
+            hold();
+            mEvents.add("+" + device.getName());
+        }
+
+        @Override
+        public void onDeviceRemoved(SerialPortFinder.Driver driver, File device) {
+            hold();
+            mEvents.add("-" + device.getName());
+        }
+
+        private void hold() {
+            CountDownLatch hold = mHold;
+            if (hold != null) {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        String next() throws InterruptedException {
+            return mEvents.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private File mRoot;
+    private File mDev;
+    private File mDrivers;
+    private SerialPortFinder mFinder;
+    private Events mEvents;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("finder", "");
+        assertTrue(mRoot.delete());
+        mDev = new File(mRoot, "dev");
+        assertTrue(mDev.mkdirs());
+        mDrivers = new File(mRoot, "drivers");
+        FileWriter writer = new FileWriter(mDrivers);
+        writer.write("serial               /dev/ttyS       4 64-111 serial\n"
+                + "usbserial            /dev/ttyUSB   188 0-511 serial\n");
+        writer.close();
+        create("ttyS0", "ttyUSB0");
+        mFinder = new SerialPortFinder(mDev, mDrivers);
+        mEvents = new Events();
+    }
+
+    @After
+    public void tearDown() {
+        mFinder.stopWatching();
+        delete(mDev);
+        mDrivers.delete();
+        mRoot.delete();
+    }
+
+    @Test
+    public void nodes_areReportedAsTheyComeAndGo() throws Exception {
+        mFinder.startWatching(mEvents);
+        create("ttyUSB1", "null");
+        assertEquals("+ttyUSB1", mEvents.next());
+        assertTrue(new File(mDev, "ttyS0").delete());
+        assertEquals("-ttyS0", mEvents.next());
+        assertDevices("ttyUSB0", "ttyUSB1");
+    }
+
+    @Test
+    public void replacedDirectory_isRescanned() throws Exception {
+        mFinder.startWatching(mEvents);
+        delete(mDev);
+        assertTrue(mDev.mkdir());
+        create("ttyUSB3");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Arrays.asList(devices()).equals(Arrays.asList("ttyUSB3")) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertDevices("ttyUSB3");
+        /* the new directory is watched too */
+        mEvents.mEvents.clear();
+        create("ttyS2");
+        String event;
+        while ((event = mEvents.next()) != null && !event.equals("+ttyS2")) {
+        }
+        assertEquals("+ttyS2", event);
+    }
+
+    @Test
+    public void queueOverflow_isRescanned() throws Exception {
+        mEvents.mHold = new CountDownLatch(1);
+        mFinder.startWatching(mEvents);
+        /* the first event holds the watcher thread while the kernel queue overflows */
+        create("ttyUSB1");
+        for (int i = 0; i < FLOOD; i++) {
+            create("x" + i);
+        }
+        /* its event is dropped by the kernel, only a rescan finds it */
+        create("ttyUSB7");
+        mEvents.mHold.countDown();
+        String event;
+        while ((event = mEvents.next()) != null && !event.equals("+ttyUSB7")) {
+        }
+        assertEquals("+ttyUSB7", event);
+        assertDevices("ttyS0", "ttyUSB0", "ttyUSB1", "ttyUSB7");
+    }
+
+    private void assertDevices(String... names) {
+        assertEquals(Arrays.asList(names), Arrays.asList(devices()));
+    }
+
+    private String[] devices() {
+        String[] paths = mFinder.getAllDevicesPath();
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = new File(paths[i]).getName();
+        }
+        Arrays.sort(paths);
+        return paths;
+    }
+
+    private void create(String... names) throws IOException {
+        for (String name : names) {
+            assertTrue(name, new File(mDev, name).createNewFile());
+        }
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,218 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialDataListener;
+import android_serialport_api.SerialPort;
+import android_serialport_api.SerialPortManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SerialPortManager} running many pseudo-terminals on two I/O threads.
+ */
+public class SerialPortManagerPtyTest {
+
+    private static final int PORTS = 16;
+    private static final int BYTES = 16 * 1024;
+
+    /* Collects a port's bytes, and notes overlapping callbacks and the threads they ran on */
+    private static class Collector implements SerialDataListener {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        final Set<Thread> mThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final AtomicInteger mInFlight = new AtomicInteger();
+        volatile boolean mOverlapped;
+        volatile IOException mError;
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            if (mInFlight.incrementAndGet() > 1) {
+                mOverlapped = true;
+            }
+            mThreads.add(Thread.currentThread());
+            synchronized (mBytes) {
+                mBytes.write(buffer, 0, size);
+            }
+            mInFlight.decrementAndGet();
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+            mError = e;
+        }
+
+        int size() {
+            synchronized (mBytes) {
+                return mBytes.size();
+            }
+        }
+
+        byte[] bytes() {
+            synchronized (mBytes) {
+                return mBytes.toByteArray();
+            }
+        }
+    }
+
+    private final PtyPair[] mPtys = new PtyPair[PORTS];
+    private final Collector[] mCollectors = new Collector[PORTS];
+    private SerialPortManager mManager;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mManager = new SerialPortManager(2);
+        mExecutor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < PORTS; i++) {
+            mPtys[i] = new PtyPair();
+            mCollectors[i] = new Collector();
+        }
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mManager.shutdown();
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        for (PtyPair pty : mPtys) {
+            pty.close();
+        }
+    }
+
+    @Test
+    public void executorDelivery_isCompleteAndInOrderPerPort() throws Exception {
+        for (int i = 0; i < PORTS; i++) {
+            mManager.open(mPtys[i].getSlave(), 115200, mCollectors[i], mExecutor);
+        }
+        byte[][] sent = feedAll();
+        awaitAll(sent);
+        SerialPortManager.Stats stats = mManager.getStats();
+        assertEquals(PORTS, stats.getPorts());
+        assertEquals((long) PORTS * BYTES, stats.getBytesReceived());
+        assertEquals(0, stats.getErrors());
+        for (int i = 0; i < PORTS; i++) {
+            assertArrayEquals("port " + i, sent[i], mCollectors[i].bytes());
+            /* one callback at a time even on a four thread executor */
+            assertFalse("port " + i, mCollectors[i].mOverlapped);
+            assertEquals(BYTES, mManager.getStats(mPtys[i].getSlave().getAbsolutePath()).getBytesReceived());
+        }
+    }
+
+    @Test
+    public void directDelivery_sharesTheTwoIoThreads() throws Exception {
+        for (int i = 0; i < PORTS; i++) {
+            mManager.open(mPtys[i].getSlave(), 115200, mCollectors[i], null);
+        }
+        byte[][] sent = feedAll();
+        awaitAll(sent);
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Collector collector : mCollectors) {
+            threads.addAll(collector.mThreads);
+        }
+        assertEquals(2, threads.size());
+        assertEquals(0, mManager.getStats().getQueueDepth());
+    }
+
+    @Test
+    public void openAndClose_trackPortsByPath() throws Exception {
+        String path = mPtys[0].getSlave().getAbsolutePath();
+        SerialPort port = mManager.open(mPtys[0].getSlave(), 115200, mCollectors[0], null);
+        assertSame(port, mManager.getPort(path));
+        try {
+            mManager.open(mPtys[0].getSlave(), 115200, mCollectors[0], null);
+            fail("opened twice");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Collections.singletonList(path), mManager.getPaths());
+        assertTrue(mManager.close(path));
+        assertFalse(mManager.close(path));
+        assertNull(mManager.getPort(path));
+        /* the path can be opened again once closed */
+        mManager.open(mPtys[0].getSlave(), 115200, mCollectors[0], null);
+        mManager.shutdown();
+        assertTrue(mManager.getPaths().isEmpty());
+        try {
+            mManager.open(mPtys[1].getSlave(), 115200, mCollectors[1], null);
+            fail("opened after shutdown");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void failedPort_isClosedAndForgotten() throws Exception {
+        SerialPort failing = mManager.open(mPtys[0].getSlave(), 115200, mCollectors[0], null);
+        mManager.open(mPtys[1].getSlave(), 115200, mCollectors[1], null);
+        Thread failedThread = ioThread(0);
+        assertNotSame(failedThread, ioThread(1));
+
+        mPtys[0].close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mCollectors[0].mError == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull(mCollectors[0].mError);
+        assertNull(mManager.getPort(mPtys[0].getSlave().getAbsolutePath()));
+        assertEquals(Collections.singletonList(mPtys[1].getSlave().getAbsolutePath()), mManager.getPaths());
+        SerialPortManager.Stats stats = mManager.getStats();
+        assertEquals(1, stats.getPorts());
+        assertEquals(1, stats.getErrors());
+        try {
+            failing.getOutputStream().write(1);
+            fail("port left open");
+        } catch (IOException expected) {
+        }
+        /* its I/O thread is the least loaded one again */
+        mManager.open(mPtys[2].getSlave(), 115200, mCollectors[2], null);
+        assertSame(failedThread, ioThread(2));
+    }
+
+    /* The I/O thread port i is read on, from the callback of a byte sent to it */
+    private Thread ioThread(int i) throws Exception {
+        int size = mCollectors[i].size();
+        mPtys[i].getMasterOutput().write(i);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mCollectors[i].size() == size && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, mCollectors[i].mThreads.size());
+        return mCollectors[i].mThreads.iterator().next();
+    }
+
+    /* Writes BYTES to every port, interleaved in small blocks */
+    private byte[][] feedAll() throws IOException {
+        byte[][] sent = new byte[PORTS][BYTES];
+        for (int i = 0; i < PORTS; i++) {
+            for (int j = 0; j < BYTES; j++) {
+                sent[i][j] = (byte) (i * 7 + j);
+            }
+        }
+        for (int offset = 0; offset < BYTES; offset += 256) {
+            for (int i = 0; i < PORTS; i++) {
+                mPtys[i].getMasterOutput().write(sent[i], offset, 256);
+            }
+        }
+        return sent;
+    }
+
+    private void awaitAll(byte[][] sent) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < PORTS; i++) {
+            while (mCollectors[i].size() < sent[i].length && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals("port " + i, sent[i].length, mCollectors[i].size());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package android_serialport_api.benchmark;
+
+import android_serialport_api.SerialPort;
+import android_serialport_api.SpscRingBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SpscRingBuffer#fill(SerialPort)} fed from a pseudo-terminal faster than a stalled, then
+ * slow, consumer drains it.
+ */
+public class SpscRingBufferPtyTest {
+
+    private static final int RING = 16 * 1024;
+    /* About 1 MB/s for two seconds */
+    private static final int BLOCK = 1024;
+    private static final int BLOCKS = 2000;
+    /* Bytes that identify a position in the random stream */
+    private static final int WINDOW = 16;
+
+    private PtyPair mPty;
+    private SerialPort mPort;
+    private SpscRingBuffer mRing;
+    private volatile boolean mStop;
+    private volatile IOException mError;
+
+    @Before
+    public void setUp() throws IOException {
+        mPty = new PtyPair();
+        mPort = new SerialPort(mPty.getSlave(), 115200);
+        /* lets the producer notice mStop on an idle line */
+        mPort.setReadTimeout(0, 100);
+        mRing = new SpscRingBuffer(RING);
+    }
+
+    @After
+    public void tearDown() {
+        mPort.close();
+        mPty.close();
+    }
+
+    @Test
+    public void slowConsumer_dropsWholeReadsAndKeepsTheRestInOrder() throws Exception {
+        byte[] sent = new byte[BLOCK * BLOCKS];
+        new Random(42).nextBytes(sent);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!mStop) {
+                        mRing.fill(mPort);
+                    }
+                } catch (IOException e) {
+                    mError = e;
+                }
+            }
+        });
+        producer.start();
+        ByteArrayOutputStream delivered = new ByteArrayOutputStream();
+        byte[] chunk = new byte[256];
+        long stalledOverruns = 0;
+        try {
+            long next = System.nanoTime();
+            for (int i = 0; i < BLOCKS; i++) {
+                mPty.getMasterOutput().write(sent, i * BLOCK, BLOCK);
+                next += TimeUnit.MILLISECONDS.toNanos(1);
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                }
+                if (i < BLOCKS / 4) {
+                    /* stalled for the first half second */
+                    continue;
+                }
+                if (i == BLOCKS / 4) {
+                    stalledOverruns = mRing.getOverrunCount();
+                    assertTrue("no overrun while stalled", stalledOverruns > 0);
+                }
+                /* then slower than the line, 256 bytes a millisecond */
+                int n = mRing.poll(chunk, 0, chunk.length);
+                delivered.write(chunk, 0, n);
+            }
+            /* and still more while merely slow */
+            assertTrue(mRing.getOverrunCount() > stalledOverruns);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (delivered.size() + mRing.getOverrunBytes() < sent.length && System.nanoTime() < deadline) {
+                int n = mRing.poll(chunk, 0, chunk.length);
+                if (n == 0) {
+                    Thread.sleep(1);
+                }
+                delivered.write(chunk, 0, n);
+            }
+        } finally {
+            mStop = true;
+            producer.join();
+        }
+        assertNull(mError);
+        assertEquals(0, mRing.available());
+        /* every byte read from the port was either delivered or counted as dropped */
+        assertEquals(sent.length, delivered.size() + mRing.getOverrunBytes());
+        assertTrue(mRing.getOverrunBytes() > 0);
+        assertOrderedSubsequence(sent, delivered.toByteArray());
+    }
+
+    /*
+     * received has to be runs of sent, in order: each break in the run has to pick up again at a
+     * later position of sent, found from the WINDOW bytes that follow it.
+     */
+    private static void assertOrderedSubsequence(byte[] sent, byte[] received) {
+        int position = 0;
+        int runs = 1;
+        for (int i = 0; i < received.length; i++) {
+            if (position < sent.length && received[i] == sent[position]) {
+                position++;
+                continue;
+            }
+            int window = Math.min(WINDOW, received.length - i);
+            int found = -1;
+            for (int candidate = position + 1; candidate + window <= sent.length && found < 0; candidate++) {
+                if (regionMatches(sent, candidate, received, i, window)) {
+                    found = candidate;
+                }
+            }
+            assertTrue("byte " + i + " of " + received.length + " is not from a later position", found >= 0);
+            position = found + 1;
+            runs++;
+        }
+        assertTrue(runs > 1);
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+//
+// Host stand-in for the NDK <android/log.h>, implemented by host-log.cpp.
+//
+
+#ifndef SERIAL_PORT_HOST_LOG_H
+#define SERIAL_PORT_HOST_LOG_H
+
+typedef enum android_LogPriority {
+    ANDROID_LOG_UNKNOWN = 0,
+    ANDROID_LOG_DEFAULT,
+    ANDROID_LOG_VERBOSE,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+    ANDROID_LOG_SILENT,
+} android_LogPriority;
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+        __attribute__((format(printf, 3, 4)));
+
+/* Receives every message at or above the log level, already formatted */
+typedef void (*serial_port_log_handler)(int prio, const char *tag, const char *msg);
+
+/* Replaces the default handler, which prints to stderr; NULL restores it */
+void serial_port_set_log_handler(serial_port_log_handler handler);
+
+/* Lowest priority passed to the handler, ANDROID_LOG_WARN unless SERIAL_PORT_LOG_LEVEL says otherwise */
+void serial_port_set_log_level(int prio);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif //SERIAL_PORT_HOST_LOG_H
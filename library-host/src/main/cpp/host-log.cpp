@@ -0,0 +1,60 @@
+//
+// Logging of the native code on a desktop JVM, see android/log.h.
+//
+
+#include <stdarg.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <ctype.h>
+
+#include "android/log.h"
+
+static void stderrHandler(int prio, const char *tag, const char *msg) {
+    fprintf(stderr, "%c/%s: %s\n", "??VDIWEF"[prio < ANDROID_LOG_FATAL ? prio : ANDROID_LOG_FATAL], tag, msg);
+}
+
+/* SERIAL_PORT_LOG_LEVEL is V, D, I, W, E or a priority number */
+static int levelFromEnv() {
+    const char *level = getenv("SERIAL_PORT_LOG_LEVEL");
+    if (level == NULL || *level == '\0') {
+        return ANDROID_LOG_WARN;
+    }
+    switch (toupper(*level)) {
+        case 'V':
+            return ANDROID_LOG_VERBOSE;
+        case 'D':
+            return ANDROID_LOG_DEBUG;
+        case 'I':
+            return ANDROID_LOG_INFO;
+        case 'W':
+            return ANDROID_LOG_WARN;
+        case 'E':
+            return ANDROID_LOG_ERROR;
+        default:
+            return isdigit(*level) ? atoi(level) : ANDROID_LOG_WARN;
+    }
+}
+
+static volatile serial_port_log_handler handler = stderrHandler;
+static volatile int minLevel = levelFromEnv();
+
+extern "C" int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+    if (prio < minLevel) {
+        return 0;
+    }
+    char msg[1024];
+    va_list args;
+    va_start(args, fmt);
+    int n = vsnprintf(msg, sizeof(msg), fmt, args);
+    va_end(args);
+    handler(prio, tag, msg);
+    return n;
+}
+
+extern "C" void serial_port_set_log_handler(serial_port_log_handler h) {
+    handler = h != NULL ? h : stderrHandler;
+}
+
+extern "C" void serial_port_set_log_level(int prio) {
+    minLevel = prio;
+}
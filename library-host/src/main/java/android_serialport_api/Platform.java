@@ -0,0 +1,105 @@
+package android_serialport_api;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Desktop JVM side of the parts that differ from the Android build.
+ * <p>
+ * Logs at or above the level of the {@code serialport.log.level} system property (V, D, I, W or E,
+ * W by default) are printed to stderr. The native library is looked up in java.library.path first,
+ * then extracted from the jar.
+ */
+final class Platform {
+
+    private static final String LIBRARY = "serial-port";
+
+    /* Every class with natives loads the library, extract it once */
+    private static boolean sLoaded;
+
+    private Platform() {
+    }
+
+    static SerialLog.Sink defaultLogSink() {
+        final int threshold = parseLevel(System.getProperty("serialport.log.level", "W"));
+        return new SerialLog.Sink() {
+            @Override
+            public void println(int priority, String tag, String msg, Throwable tr) {
+                if (priority < threshold) {
+                    return;
+                }
+                System.err.println("VVDIWE".charAt(Math.min(priority, SerialLog.ERROR) - 1) + "/" + tag + ": " + msg);
+                if (tr != null) {
+                    tr.printStackTrace();
+                }
+            }
+        };
+    }
+
+    private static int parseLevel(String level) {
+        switch (level.isEmpty() ? 'W' : Character.toUpperCase(level.charAt(0))) {
+            case 'V':
+                return SerialLog.VERBOSE;
+            case 'D':
+                return SerialLog.DEBUG;
+            case 'I':
+                return SerialLog.INFO;
+            case 'E':
+                return SerialLog.ERROR;
+            default:
+                return SerialLog.WARN;
+        }
+    }
+
+    static synchronized void loadLibrary() {
+        if (sLoaded) {
+            return;
+        }
+        try {
+            System.loadLibrary(LIBRARY);
+        } catch (UnsatisfiedLinkError e) {
+            String resource = "/native/linux-" + arch() + "/" + System.mapLibraryName(LIBRARY);
+            InputStream in = Platform.class.getResourceAsStream(resource);
+            if (in == null) {
+                throw e;
+            }
+            System.load(extract(in).getAbsolutePath());
+        }
+        sLoaded = true;
+    }
+
+    static String arch() {
+        String arch = System.getProperty("os.arch");
+        if ("amd64".equals(arch) || "x86_64".equals(arch)) {
+            return "x86_64";
+        }
+        if ("aarch64".equals(arch) || "arm64".equals(arch)) {
+            return "aarch64";
+        }
+        return arch;
+    }
+
+    private static File extract(InputStream in) {
+        try {
+            File file = File.createTempFile("lib" + LIBRARY, ".so");
+            file.deleteOnExit();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UnsatisfiedLinkError("cannot extract " + LIBRARY + ": " + e);
+        }
+    }
+}
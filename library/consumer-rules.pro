@@ -0,0 +1,40 @@
+# Rules applied to apps that shrink with this library (consumerProguardFiles).
+#
+# libserial-port binds its natives with RegisterNatives() in JNI_OnLoad and looks classes,
+# callbacks and fields up by name, so none of them may be renamed or removed.
+
+# Classes found with FindClass(), and their native methods
+-keepclasseswithmembernames,includedescriptorclasses class android_serialport_api.SerialPort {
+    native <methods>;
+}
+-keepclasseswithmembernames,includedescriptorclasses class android_serialport_api.SerialIoEngine {
+    native <methods>;
+}
+-keepclasseswithmembernames,includedescriptorclasses class android_serialport_api.DeviceWatcher {
+    native <methods>;
+}
+-keepclasseswithmembernames,includedescriptorclasses class android_serialport_api.Crc {
+    native <methods>;
+}
+
+# Called back from native code
+-keepclassmembers class android_serialport_api.SerialIoEngine {
+    void dispatch(int, int, long, int);
+}
+-keepclassmembers class android_serialport_api.DeviceWatcher {
+    void onEvent(java.lang.String, boolean);
+}
+
+# Written by the stamped read paths
+-keep class android_serialport_api.ReceiveStamp {
+    long mTimestampNanos;
+    int mByteCount;
+    int mQueuedBytes;
+}
+
+# Platform classes, listed for completeness: "descriptor" on Android, "fd" on OpenJDK
+-keepclassmembers class java.io.FileDescriptor {
+    <init>();
+    int descriptor;
+    int fd;
+}
@@ -0,0 +1,25 @@
+package android_serialport_api;
+
+import android.util.Log;
+
+/**
+ * Android side of the parts that differ from the desktop JVM build.
+ */
+final class Platform {
+
+    private Platform() {
+    }
+
+    static SerialLog.Sink defaultLogSink() {
+        return new SerialLog.Sink() {
+            @Override
+            public void println(int priority, String tag, String msg, Throwable tr) {
+                Log.println(priority, tag, tr == null ? msg : msg + '\n' + Log.getStackTraceString(tr));
+            }
+        };
+    }
+
+    static void loadLibrary() {
+        System.loadLibrary("serial-port");
+    }
+}
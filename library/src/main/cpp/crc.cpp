@@ -0,0 +1,85 @@
+//
+// Slicing-by-8 CRC over direct buffers, the native side of Crc for long runs.
+//
+
+#include <jni.h>
+#include <stdint.h>
+#include <string.h>
+#include "serial-port.h"
+
+/*
+ * tables holds the 8 x 256 slicing tables of Crc.Algorithm, table k at k * 256. Blocks are
+ * loaded with memcpy and assume a little-endian CPU, as every Android ABI is.
+ */
+static uint32_t updateReflected(const uint32_t *t, uint32_t crc, const uint8_t *p, size_t length) {
+    for (; length >= 8; p += 8, length -= 8) {
+        uint64_t v;
+        memcpy(&v, p, sizeof(v));
+        v ^= crc;
+        crc = t[7 * 256 + (v & 0xff)] ^ t[6 * 256 + ((v >> 8) & 0xff)]
+              ^ t[5 * 256 + ((v >> 16) & 0xff)] ^ t[4 * 256 + ((v >> 24) & 0xff)]
+              ^ t[3 * 256 + ((v >> 32) & 0xff)] ^ t[2 * 256 + ((v >> 40) & 0xff)]
+              ^ t[1 * 256 + ((v >> 48) & 0xff)] ^ t[v >> 56];
+    }
+    for (; length > 0; p++, length--) {
+        crc = t[(crc ^ *p) & 0xff] ^ (crc >> 8);
+    }
+    return crc;
+}
+
+static uint32_t updateNormal(const uint32_t *t, int width, uint32_t crc, const uint8_t *p, size_t length) {
+    uint32_t mask = width == 32 ? 0xffffffffu : (1u << width) - 1;
+    for (; length >= 8; p += 8, length -= 8) {
+        uint64_t v;
+        memcpy(&v, p, sizeof(v));
+        v = __builtin_bswap64(v) ^ ((uint64_t) crc << (64 - width));
+        crc = t[7 * 256 + (v >> 56)] ^ t[6 * 256 + ((v >> 48) & 0xff)]
+              ^ t[5 * 256 + ((v >> 40) & 0xff)] ^ t[4 * 256 + ((v >> 32) & 0xff)]
+              ^ t[3 * 256 + ((v >> 24) & 0xff)] ^ t[2 * 256 + ((v >> 16) & 0xff)]
+              ^ t[1 * 256 + ((v >> 8) & 0xff)] ^ t[v & 0xff];
+    }
+    for (; length > 0; p++, length--) {
+        crc = (t[((crc >> (width - 8)) ^ *p) & 0xff] ^ (crc << 8)) & mask;
+    }
+    return crc;
+}
+
+/*
+ * Class:     android_serialport_api_Crc
+ * Method:    updateDirect
+ * Signature: ([IIZILjava/nio/ByteBuffer;II)I
+ */
+static jint Crc_updateDirect(
+        JNIEnv *env, jclass clazz, jintArray tables, jint width, jboolean reflected, jint crc,
+        jobject buffer, jint index, jint length
+) {
+    /* bounds are checked on the Java side */
+    const uint8_t *address = (const uint8_t *) env->GetDirectBufferAddress(buffer);
+    if (address == NULL) {
+        throwException(env, "java/lang/IllegalArgumentException", "Not a direct buffer");
+        return crc;
+    }
+    const uint32_t *t = (const uint32_t *) env->GetPrimitiveArrayCritical(tables, NULL);
+    if (t == NULL) {
+        return crc;
+    }
+    uint32_t result = reflected
+                      ? updateReflected(t, (uint32_t) crc, address + index, (size_t) length)
+                      : updateNormal(t, width, (uint32_t) crc, address + index, (size_t) length);
+    env->ReleasePrimitiveArrayCritical(tables, (void *) t, JNI_ABORT);
+    return (jint) result;
+}
+
+static const JNINativeMethod CRC_METHODS[] = {
+        {"updateDirect", "([IIZILjava/nio/ByteBuffer;II)I", (void *) Crc_updateDirect},
+};
+
+bool registerCrcNatives(JNIEnv *env) {
+    jclass clazz = env->FindClass("android_serialport_api/Crc");
+    if (clazz == NULL) {
+        return false;
+    }
+    bool registered = registerNatives(env, clazz, CRC_METHODS, sizeof(CRC_METHODS) / sizeof(CRC_METHODS[0]));
+    env->DeleteLocalRef(clazz);
+    return registered;
+}
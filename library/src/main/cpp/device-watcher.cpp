@@ -0,0 +1,225 @@
+//
+// inotify watch on /dev used by SerialPortFinder for hot-plug detection. The watcher
+// thread blocks in poll() on the inotify descriptor and an eventfd used to stop it.
+//
+
+#include <jni.h>
+#include <errno.h>
+#include <poll.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/eventfd.h>
+#include <sys/inotify.h>
+#include "serial-port.h"
+
+#define WATCH_MASK (IN_CREATE | IN_DELETE | IN_MOVED_FROM | IN_MOVED_TO)
+/* The watched directory itself going away, the watch has to be added again */
+#define SELF_MASK (IN_DELETE_SELF | IN_MOVE_SELF | IN_IGNORED)
+/* Retry period while the directory is missing */
+#define REWATCH_MS 1000
+
+/* DeviceWatcher.onEvent(String, boolean), looked up at registration */
+static jmethodID onEventID;
+
+struct Watcher {
+    int ifd;
+    int evfd;
+    /* current watch, -1 while the directory is missing */
+    int wd;
+    char *path;
+};
+
+static inline Watcher *toWatcher(jlong handle) {
+    return reinterpret_cast<Watcher *>(handle);
+}
+
+static int addWatch(Watcher *watcher) {
+    watcher->wd = inotify_add_watch(watcher->ifd, watcher->path, WATCH_MASK | IN_DELETE_SELF | IN_MOVE_SELF);
+    if (watcher->wd == -1 && errno != ENOENT) {
+        LOGE("inotify_add_watch(%s) failed: %s", watcher->path, strerror(errno));
+    }
+    return watcher->wd;
+}
+
+/*
+ * Class:     android_serialport_api_DeviceWatcher
+ * Method:    nativeOpen
+ * Signature: (Ljava/lang/String;)J
+ */
+static jlong DeviceWatcher_nativeOpen(JNIEnv *env, jclass clazz, jstring path) {
+    int ifd = inotify_init();
+    if (ifd == -1) {
+        LOGE("inotify_init() failed: %s", strerror(errno));
+        throwException(env, "java/io/IOException", "inotify_init() failed");
+        return 0;
+    }
+    int evfd = eventfd(0, 0);
+    if (evfd == -1) {
+        close(ifd);
+        throwException(env, "java/io/IOException", "eventfd() failed");
+        return 0;
+    }
+    Watcher *watcher = new Watcher;
+    watcher->ifd = ifd;
+    watcher->evfd = evfd;
+    const char *path_utf = env->GetStringUTFChars(path, NULL);
+    watcher->path = strdup(path_utf);
+    env->ReleaseStringUTFChars(path, path_utf);
+    if (addWatch(watcher) == -1) {
+        close(evfd);
+        close(ifd);
+        free(watcher->path);
+        delete watcher;
+        throwException(env, "java/io/IOException", "inotify_add_watch() failed");
+        return 0;
+    }
+    return reinterpret_cast<jlong>(watcher);
+}
+
+/* Calls DeviceWatcher.onEvent(), a null name asks for a rescan. False when it threw. */
+static bool report(JNIEnv *env, jobject thiz, const char *name, bool added) {
+    jstring jname = NULL;
+    if (name != NULL) {
+        jname = env->NewStringUTF(name);
+        if (jname == NULL) {
+            return false;
+        }
+    }
+    env->CallVoidMethod(thiz, onEventID, jname, (jboolean) added);
+    if (jname != NULL) {
+        env->DeleteLocalRef(jname);
+    }
+    return !env->ExceptionCheck();
+}
+
+/*
+ * Reports every create/delete event of the watched directory through
+ * DeviceWatcher.onEvent(name, added), until nativeWakeup() is called. Events that lose
+ * track of the directory, a queue overflow or the directory itself deleted or moved, are
+ * reported as onEvent(null, false) once the watch is back, so the caller rescans.
+ *
+ * Class:     android_serialport_api_DeviceWatcher
+ * Method:    nativeWatch
+ * Signature: (J)V
+ */
+static void DeviceWatcher_nativeWatch(JNIEnv *env, jobject thiz, jlong handle) {
+    Watcher *watcher = toWatcher(handle);
+    /* aligned for struct inotify_event, large enough for several events */
+    char buffer[4096] __attribute__ ((aligned(__alignof__(struct inotify_event))));
+    struct pollfd fds[2];
+    fds[0].fd = watcher->ifd;
+    fds[0].events = POLLIN;
+    fds[1].fd = watcher->evfd;
+    fds[1].events = POLLIN;
+    bool rescan = false;
+
+    for (;;) {
+        if (watcher->wd == -1 && addWatch(watcher) != -1) {
+            rescan = true;
+        }
+        if (rescan) {
+            rescan = false;
+            if (!report(env, thiz, NULL, false)) {
+                return;
+            }
+        }
+        fds[0].revents = 0;
+        fds[1].revents = 0;
+        int ready = poll(fds, 2, watcher->wd == -1 ? REWATCH_MS : -1);
+        if (ready == -1) {
+            if (errno == EINTR) {
+                continue;
+            }
+            throwException(env, "java/io/IOException", "poll() failed");
+            return;
+        }
+        if (fds[1].revents) {
+            return;
+        }
+        if (ready == 0) {
+            continue;
+        }
+        ssize_t n = read(watcher->ifd, buffer, sizeof(buffer));
+        if (n == -1) {
+            if (errno == EINTR) {
+                continue;
+            }
+            throwException(env, "java/io/IOException", "inotify read() failed");
+            return;
+        }
+        for (char *p = buffer; p < buffer + n;) {
+            struct inotify_event *event = (struct inotify_event *) p;
+            p += sizeof(struct inotify_event) + event->len;
+            if (event->mask & IN_Q_OVERFLOW) {
+                rescan = true;
+                continue;
+            }
+            if (event->wd != watcher->wd) {
+                /* left over from a watch already replaced */
+                continue;
+            }
+            if (event->mask & SELF_MASK) {
+                if (event->mask & IN_MOVE_SELF) {
+                    /* the watch follows the moved directory, not the path */
+                    inotify_rm_watch(watcher->ifd, watcher->wd);
+                }
+                watcher->wd = -1;
+                rescan = true;
+                continue;
+            }
+            if (event->len == 0 || !(event->mask & WATCH_MASK)) {
+                continue;
+            }
+            if (!report(env, thiz, event->name, (event->mask & (IN_CREATE | IN_MOVED_TO)) != 0)) {
+                return;
+            }
+        }
+    }
+}
+
+/*
+ * Class:     android_serialport_api_DeviceWatcher
+ * Method:    nativeWakeup
+ * Signature: (J)V
+ */
+static void DeviceWatcher_nativeWakeup(JNIEnv *env, jclass clazz, jlong handle) {
+    uint64_t one = 1;
+    if (write(toWatcher(handle)->evfd, &one, sizeof(one)) != sizeof(one)) {
+        LOGE("eventfd write failed: %s", strerror(errno));
+    }
+}
+
+/*
+ * Class:     android_serialport_api_DeviceWatcher
+ * Method:    nativeClose
+ * Signature: (J)V
+ */
+static void DeviceWatcher_nativeClose(JNIEnv *env, jclass clazz, jlong handle) {
+    Watcher *watcher = toWatcher(handle);
+    close(watcher->evfd);
+    close(watcher->ifd);
+    free(watcher->path);
+    delete watcher;
+}
+
+static const JNINativeMethod DEVICE_WATCHER_METHODS[] = {
+        {"nativeOpen",   "(Ljava/lang/String;)J", (void *) DeviceWatcher_nativeOpen},
+        {"nativeWatch",  "(J)V",                  (void *) DeviceWatcher_nativeWatch},
+        {"nativeWakeup", "(J)V",                  (void *) DeviceWatcher_nativeWakeup},
+        {"nativeClose",  "(J)V",                  (void *) DeviceWatcher_nativeClose},
+};
+
+bool registerDeviceWatcherNatives(JNIEnv *env) {
+    jclass clazz = env->FindClass("android_serialport_api/DeviceWatcher");
+    if (clazz == NULL) {
+        return false;
+    }
+    onEventID = env->GetMethodID(clazz, "onEvent", "(Ljava/lang/String;Z)V");
+    bool registered = onEventID != NULL
+                      && registerNatives(env, clazz, DEVICE_WATCHER_METHODS,
+                                         sizeof(DEVICE_WATCHER_METHODS) / sizeof(DEVICE_WATCHER_METHODS[0]));
+    env->DeleteLocalRef(clazz);
+    return registered;
+}
@@ -0,0 +1,272 @@
+//
+// Event driven reader shared by many serial ports: one epoll set per engine, one
+// thread blocked in epoll_wait() for all registered descriptors, and an eventfd to
+// wake that thread up on shutdown.
+//
+
+#include <jni.h>
+#include <errno.h>
+#include <pthread.h>
+#include <stdint.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include "serial-port.h"
+
+#define MAX_EVENTS 16
+
+/* Token reported for the wake-up eventfd, never handed out to a port */
+#define WAKEUP_TOKEN (-1)
+
+/* SerialIoEngine.dispatch(int, int, long, int), looked up at registration */
+static jmethodID dispatchID;
+
+struct Engine {
+    int epfd;
+    int evfd;
+    /*
+     * Held around each read of a ready port and each removal, and counting the removals: once
+     * nativeRemove() returns, the loop no longer reads that descriptor, even for an event it
+     * already took from epoll, so the caller may close it and the number be reused.
+     */
+    pthread_mutex_t lock;
+    unsigned long removals;
+};
+
+static inline Engine *toEngine(jlong handle) {
+    return reinterpret_cast<Engine *>(handle);
+}
+
+/* Set in the descriptor word of ports whose chunks are timestamped, descriptors are never negative */
+#define STAMPED_FLAG 0x80000000u
+
+/* epoll user data: the Java side token in the high word, the descriptor in the low word */
+static inline uint64_t pack(jint token, int fd, bool stamped) {
+    return ((uint64_t) (uint32_t) token << 32) | (uint32_t) fd | (stamped ? STAMPED_FLAG : 0);
+}
+
+static inline jint tokenOf(uint64_t data) {
+    return (jint) (uint32_t) (data >> 32);
+}
+
+static inline int fdOf(uint64_t data) {
+    return (int) ((uint32_t) data & ~STAMPED_FLAG);
+}
+
+static inline bool isStamped(uint64_t data) {
+    return ((uint32_t) data & STAMPED_FLAG) != 0;
+}
+
+/*
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeCreate
+ * Signature: ()J
+ */
+static jlong SerialIoEngine_nativeCreate(JNIEnv *env, jclass clazz) {
+    int epfd = epoll_create(MAX_EVENTS);
+    if (epfd == -1) {
+        LOGE("epoll_create() failed: %s", strerror(errno));
+        throwException(env, "java/io/IOException", "epoll_create() failed");
+        return 0;
+    }
+    int evfd = eventfd(0, 0);
+    if (evfd == -1) {
+        LOGE("eventfd() failed: %s", strerror(errno));
+        close(epfd);
+        throwException(env, "java/io/IOException", "eventfd() failed");
+        return 0;
+    }
+    struct epoll_event ev;
+    memset(&ev, 0, sizeof(ev));
+    ev.events = EPOLLIN;
+    ev.data.u64 = pack(WAKEUP_TOKEN, evfd, false);
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, evfd, &ev)) {
+        LOGE("epoll_ctl(eventfd) failed: %s", strerror(errno));
+        close(evfd);
+        close(epfd);
+        throwException(env, "java/io/IOException", "epoll_ctl() failed");
+        return 0;
+    }
+    Engine *engine = new Engine;
+    engine->epfd = epfd;
+    engine->evfd = evfd;
+    pthread_mutex_init(&engine->lock, NULL);
+    engine->removals = 0;
+    LOGD("SerialIoEngine created (epfd = %d, evfd = %d)", epfd, evfd);
+    return reinterpret_cast<jlong>(engine);
+}
+
+/*
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeAdd
+ * Signature: (JLjava/io/FileDescriptor;IZ)V
+ */
+static void SerialIoEngine_nativeAdd(
+        JNIEnv *env, jclass clazz, jlong handle, jobject fileDescriptor, jint token, jboolean stamped
+) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct epoll_event ev;
+    memset(&ev, 0, sizeof(ev));
+    ev.events = EPOLLIN;
+    ev.data.u64 = pack(token, fd, stamped == JNI_TRUE);
+    if (epoll_ctl(toEngine(handle)->epfd, EPOLL_CTL_ADD, fd, &ev)) {
+        LOGE("epoll_ctl(ADD, fd = %d) failed: %s", fd, strerror(errno));
+        throwException(env, "java/io/IOException", "epoll_ctl() failed");
+    }
+}
+
+/*
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeRemove
+ * Signature: (JLjava/io/FileDescriptor;)V
+ */
+static void SerialIoEngine_nativeRemove(
+        JNIEnv *env, jclass clazz, jlong handle, jobject fileDescriptor
+) {
+    Engine *engine = toEngine(handle);
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct epoll_event ev;
+    memset(&ev, 0, sizeof(ev));
+    pthread_mutex_lock(&engine->lock);
+    /* the descriptor may already be gone if the port was closed first, nothing left to do then */
+    if (epoll_ctl(engine->epfd, EPOLL_CTL_DEL, fd, &ev) && errno != EBADF && errno != ENOENT) {
+        LOGE("epoll_ctl(DEL, fd = %d) failed: %s", fd, strerror(errno));
+    }
+    engine->removals++;
+    pthread_mutex_unlock(&engine->lock);
+}
+
+/*
+ * Blocks in epoll_wait() and reads every ready descriptor into buffer, reporting each
+ * chunk through SerialIoEngine.dispatch(token, size, nanos, queued). A size of -1 means the
+ * descriptor failed or hung up; it is removed from the epoll set before being reported.
+ * For stamped ports nanos is the CLOCK_MONOTONIC time read() returned at and queued what was
+ * left in the input queue, for the others both are 0.
+ * Once a port was removed, the rest of the events taken from epoll are skipped rather than read
+ * from a descriptor that may have been closed and reused; epoll is level triggered, so those
+ * still registered are reported again by the next epoll_wait().
+ * Returns once nativeWakeup() has been called.
+ *
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeLoop
+ * Signature: (J[B)V
+ */
+static void SerialIoEngine_nativeLoop(
+        JNIEnv *env, jobject thiz, jlong handle, jbyteArray buffer
+) {
+    Engine *engine = toEngine(handle);
+    jsize capacity = env->GetArrayLength(buffer);
+    jbyte *scratch = new jbyte[capacity];
+    struct epoll_event events[MAX_EVENTS];
+
+    LOGD("SerialIoEngine loop started (epfd = %d)", engine->epfd);
+    bool running = true;
+    while (running) {
+        pthread_mutex_lock(&engine->lock);
+        unsigned long removals = engine->removals;
+        pthread_mutex_unlock(&engine->lock);
+        int n = epoll_wait(engine->epfd, events, MAX_EVENTS, -1);
+        if (n == -1) {
+            if (errno == EINTR) {
+                continue;
+            }
+            LOGE("epoll_wait() failed: %s", strerror(errno));
+            throwException(env, "java/io/IOException", "epoll_wait() failed");
+            break;
+        }
+        for (int i = 0; i < n && running; i++) {
+            jint token = tokenOf(events[i].data.u64);
+            int fd = fdOf(events[i].data.u64);
+            if (token == WAKEUP_TOKEN) {
+                running = false;
+                continue;
+            }
+            jint size = -1;
+            jlong nanos = 0;
+            jint queued = 0;
+            pthread_mutex_lock(&engine->lock);
+            if (engine->removals != removals) {
+                pthread_mutex_unlock(&engine->lock);
+                break;
+            }
+            ssize_t r;
+            do {
+                r = read(fd, scratch, (size_t) capacity);
+            } while (r == -1 && errno == EINTR);
+            if (r > 0) {
+                if (isStamped(events[i].data.u64)) {
+                    nanos = monotonicNanos();
+                    queued = queuedInput(fd);
+                }
+            } else if ((r == 0 || errno == EAGAIN) && !(events[i].events & (EPOLLERR | EPOLLHUP))) {
+                /* a VMIN = 0 / VTIME = 0 tty reporting no data, spurious wake-up */
+                pthread_mutex_unlock(&engine->lock);
+                continue;
+            } else {
+                struct epoll_event ev;
+                memset(&ev, 0, sizeof(ev));
+                epoll_ctl(engine->epfd, EPOLL_CTL_DEL, fd, &ev);
+            }
+            pthread_mutex_unlock(&engine->lock);
+            if (r > 0) {
+                size = (jint) r;
+                env->SetByteArrayRegion(buffer, 0, size, scratch);
+            }
+            env->CallVoidMethod(thiz, dispatchID, token, size, nanos, queued);
+            if (env->ExceptionCheck()) {
+                running = false;
+            }
+        }
+    }
+    delete[] scratch;
+    LOGD("SerialIoEngine loop stopped (epfd = %d)", engine->epfd);
+}
+
+/*
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeWakeup
+ * Signature: (J)V
+ */
+static void SerialIoEngine_nativeWakeup(JNIEnv *env, jclass clazz, jlong handle) {
+    uint64_t one = 1;
+    if (write(toEngine(handle)->evfd, &one, sizeof(one)) != sizeof(one)) {
+        LOGE("eventfd write failed: %s", strerror(errno));
+    }
+}
+
+/*
+ * Class:     android_serialport_api_SerialIoEngine
+ * Method:    nativeDestroy
+ * Signature: (J)V
+ */
+static void SerialIoEngine_nativeDestroy(JNIEnv *env, jclass clazz, jlong handle) {
+    Engine *engine = toEngine(handle);
+    LOGD("SerialIoEngine destroyed (epfd = %d, evfd = %d)", engine->epfd, engine->evfd);
+    close(engine->evfd);
+    close(engine->epfd);
+    pthread_mutex_destroy(&engine->lock);
+    delete engine;
+}
+
+static const JNINativeMethod SERIAL_IO_ENGINE_METHODS[] = {
+        {"nativeCreate",  "()J",                            (void *) SerialIoEngine_nativeCreate},
+        {"nativeAdd",     "(JLjava/io/FileDescriptor;IZ)V", (void *) SerialIoEngine_nativeAdd},
+        {"nativeRemove",  "(JLjava/io/FileDescriptor;)V",   (void *) SerialIoEngine_nativeRemove},
+        {"nativeLoop",    "(J[B)V",                         (void *) SerialIoEngine_nativeLoop},
+        {"nativeWakeup",  "(J)V",                           (void *) SerialIoEngine_nativeWakeup},
+        {"nativeDestroy", "(J)V",                           (void *) SerialIoEngine_nativeDestroy},
+};
+
+bool registerSerialIoEngineNatives(JNIEnv *env) {
+    jclass clazz = env->FindClass("android_serialport_api/SerialIoEngine");
+    if (clazz == NULL) {
+        return false;
+    }
+    dispatchID = env->GetMethodID(clazz, "dispatch", "(IIJI)V");
+    bool registered = dispatchID != NULL
+                      && registerNatives(env, clazz, SERIAL_IO_ENGINE_METHODS,
+                                         sizeof(SERIAL_IO_ENGINE_METHODS) / sizeof(SERIAL_IO_ENGINE_METHODS[0]));
+    env->DeleteLocalRef(clazz);
+    return registered;
+}
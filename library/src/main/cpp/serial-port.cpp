@@ -9,84 +9,161 @@
 #include <sys/types.h>
 #include <sys/stat.h>
 #include <fcntl.h>
-#include "android/log.h"
+#include <limits.h>
+#include <sys/uio.h>
+#include <sys/ioctl.h>
+#include <poll.h>
+#include <errno.h>
+#include <string.h>
+#include <time.h>
+#include <linux/serial.h>
+#include "serial-port.h"
 
-static const char *TAG = "serial_port";
-#define LOGI(fmt, args...) __android_log_print(ANDROID_LOG_INFO,  TAG, fmt, ##args)
-#define LOGD(fmt, args...) __android_log_print(ANDROID_LOG_DEBUG, TAG, fmt, ##args)
-#define LOGE(fmt, args...) __android_log_print(ANDROID_LOG_ERROR, TAG, fmt, ##args)
 
+static const struct {
+    jint baudrate;
+    speed_t speed;
+} BAUDRATES[] = {
+        {0, B0},
+        {50, B50},
+        {75, B75},
+        {110, B110},
+        {134, B134},
+        {150, B150},
+        {200, B200},
+        {300, B300},
+        {600, B600},
+        {1200, B1200},
+        {1800, B1800},
+        {2400, B2400},
+        {4800, B4800},
+        {9600, B9600},
+        {19200, B19200},
+        {38400, B38400},
+        {57600, B57600},
+        {115200, B115200},
+        {230400, B230400},
+        {460800, B460800},
+        {500000, B500000},
+        {576000, B576000},
+        {921600, B921600},
+        {1000000, B1000000},
+        {1152000, B1152000},
+        {1500000, B1500000},
+        {2000000, B2000000},
+        {2500000, B2500000},
+        {3000000, B3000000},
+        {3500000, B3500000},
+        {4000000, B4000000},
+};
+
+#define BAUDRATE_COUNT (sizeof(BAUDRATES) / sizeof(BAUDRATES[0]))
 
 static speed_t getBaudrate(jint baudrate) {
-    switch (baudrate) {
-        case 0:
-            return B0;
-        case 50:
-            return B50;
-        case 75:
-            return B75;
-        case 110:
-            return B110;
-        case 134:
-            return B134;
-        case 150:
-            return B150;
-        case 200:
-            return B200;
-        case 300:
-            return B300;
-        case 600:
-            return B600;
-        case 1200:
-            return B1200;
-        case 1800:
-            return B1800;
-        case 2400:
-            return B2400;
-        case 4800:
-            return B4800;
-        case 9600:
-            return B9600;
-        case 19200:
-            return B19200;
-        case 38400:
-            return B38400;
-        case 57600:
-            return B57600;
-        case 115200:
-            return B115200;
-        case 230400:
-            return B230400;
-        case 460800:
-            return B460800;
-        case 500000:
-            return B500000;
-        case 576000:
-            return B576000;
-        case 921600:
-            return B921600;
-        case 1000000:
-            return B1000000;
-        case 1152000:
-            return B1152000;
-        case 1500000:
-            return B1500000;
-        case 2000000:
-            return B2000000;
-        case 2500000:
-            return B2500000;
-        case 3000000:
-            return B3000000;
-        case 3500000:
-            return B3500000;
-        case 4000000:
-            return B4000000;
+    for (size_t i = 0; i < BAUDRATE_COUNT; i++) {
+        if (BAUDRATES[i].baudrate == baudrate) {
+            return BAUDRATES[i].speed;
+        }
+    }
+    return (speed_t) -1;
+}
+
+static jint getBaudrateValue(speed_t speed) {
+    for (size_t i = 0; i < BAUDRATE_COUNT; i++) {
+        if (BAUDRATES[i].speed == speed) {
+            return BAUDRATES[i].baudrate;
+        }
+    }
+    return -1;
+}
+
+/*
+ * struct termios2 of the kernel uapi, declared under its own name: <asm/termbits.h> clashes
+ * with the libc <termios.h> on glibc, and bionic already exposes struct termios2 itself.
+ * The layout (19 control characters) is the one of arm, arm64, x86 and x86_64.
+ */
+struct serial_termios2 {
+    tcflag_t c_iflag;
+    tcflag_t c_oflag;
+    tcflag_t c_cflag;
+    tcflag_t c_lflag;
+    cc_t c_line;
+    cc_t c_cc[19];
+    speed_t c_ispeed;
+    speed_t c_ospeed;
+};
+
+#define SERIAL_TCGETS2 _IOR('T', 0x2A, struct serial_termios2)
+#define SERIAL_TCSETS2 _IOW('T', 0x2B, struct serial_termios2)
+#define SERIAL_TCSETSW2 _IOW('T', 0x2C, struct serial_termios2)
+#define SERIAL_TCSETSF2 _IOW('T', 0x2D, struct serial_termios2)
+#ifndef BOTHER
+#define BOTHER 0010000
+#endif
+#ifndef IBSHIFT
+#define IBSHIFT 16
+#endif
+/* RS-485 ioctls and flags, missing from older NDK headers */
+#ifndef TIOCGRS485
+#define TIOCGRS485 0x542E
+#endif
+#ifndef TIOCSRS485
+#define TIOCSRS485 0x542F
+#endif
+#ifndef SER_RS485_RX_DURING_TX
+#define SER_RS485_RX_DURING_TX (1 << 4)
+#endif
+#ifndef TIOCSERGETLSR
+#define TIOCSERGETLSR 0x5459
+#endif
+#ifndef TIOCSER_TEMT
+#define TIOCSER_TEMT 0x01
+#endif
+/* kernel internal "ioctl not supported" code, still seen from some vendor drivers */
+#define SERIAL_ENOIOCTLCMD 515
+
+/*
+ * Apply cfg to fd as tcsetattr(fd, action, cfg) does, except that the speed is set to any
+ * integer rate with BOTHER, the input rate following the output rate. Flags and speed change
+ * together. Fails with ENOTTY or EINVAL on kernels and drivers without termios2 support.
+ */
+static int setCustomBaudrate(int fd, int action, const struct termios *cfg, jint baudrate) {
+    struct serial_termios2 tio;
+    if (ioctl(fd, SERIAL_TCGETS2, &tio) == -1) {
+        return -1;
+    }
+    tio.c_iflag = cfg->c_iflag;
+    tio.c_oflag = cfg->c_oflag;
+    tio.c_lflag = cfg->c_lflag;
+    tio.c_cflag = (cfg->c_cflag & ~(CBAUD | (CBAUD << IBSHIFT))) | BOTHER;
+    /* libc keeps the kernel control character indexes, only with a larger array */
+    memcpy(tio.c_cc, cfg->c_cc, sizeof(tio.c_cc));
+    tio.c_ispeed = (speed_t) baudrate;
+    tio.c_ospeed = (speed_t) baudrate;
+    unsigned long request;
+    switch (action) {
+        case TCSADRAIN:
+            request = SERIAL_TCSETSW2;
+            break;
+        case TCSAFLUSH:
+            request = SERIAL_TCSETSF2;
+            break;
         default:
-            return -1;
+            request = SERIAL_TCSETS2;
+            break;
     }
+    return ioctl(fd, request, &tio);
+}
+
+/*
+ * VMIN/VTIME are both single unsigned chars in termios.c_cc, anything out of
+ * [0, 255] would silently wrap around.
+ */
+static bool isValidReadTimeout(jint vmin, jint vtime) {
+    return vmin >= 0 && vmin <= 255 && vtime >= 0 && vtime <= 255;
 }
 
-static void throwException(JNIEnv *env, const char *name, const char *msg) {
+void throwException(JNIEnv *env, const char *name, const char *msg) {
     jclass cls = env->FindClass(name);
     /* if cls is NULL, an exception has already been thrown */
     if (cls != NULL) {
@@ -97,34 +174,141 @@ static void throwException(JNIEnv *env, const char *name, const char *msg) {
     env->DeleteLocalRef(cls);
 }
 
-extern "C"
-JNIEXPORT jobject JNICALL
-Java_android_1serialport_1api_SerialPort_open(
+/*
+ * Class, constructor and field IDs looked up once in JNI_OnLoad. FileDescriptor is a boot
+ * class, never unloaded, so the IDs stay valid for the life of the process.
+ */
+static struct {
+    jclass fileDescriptorClass;
+    jmethodID fileDescriptorInit;
+    /* the int field of FileDescriptor: "descriptor" on Android, "fd" on OpenJDK */
+    jfieldID descriptor;
+    /* ReceiveStamp fields, looked up with the SerialPort natives */
+    jfieldID stampTimestamp;
+    jfieldID stampByteCount;
+    jfieldID stampQueued;
+} cache;
+
+static bool checkLineSettings(JNIEnv *env, jint baudrate, jint parity, jint dataBits, jint stopBit) {
+    if (baudrate < 0) {
+        throwException(env, "java/lang/IllegalArgumentException", "Invalid baudrate");
+        return false;
+    }
+    if (parity < 0 || parity > 2) {
+        throwException(env, "java/lang/IllegalArgumentException", "Invalid parity");
+        return false;
+    }
+    if (dataBits < 5 || dataBits > 8) {
+        throwException(env, "java/lang/IllegalArgumentException", "Invalid dataBits");
+        return false;
+    }
+    if (stopBit < 1 || stopBit > 2) {
+        throwException(env, "java/lang/IllegalArgumentException", "Invalid stopBit");
+        return false;
+    }
+    return true;
+}
+
+/*
+ * Put fd in raw mode with the given line settings, applied as tcsetattr() action says.
+ * vmin/vtime set the read mode, or keep the current one when negative.
+ * Returns false with an IOException pending on failure.
+ */
+static bool configure(JNIEnv *env, int fd, int action,
+                      jint baudrate, jint parity, jint dataBits, jint stopBit,
+                      jint vmin, jint vtime) {
+    speed_t speed = getBaudrate(baudrate);
+    /* not a Bxxx constant, set through termios2 */
+    bool customSpeed = speed == (speed_t) -1;
+    struct termios cfg;
+    if (tcgetattr(fd, &cfg)) {
+        LOGE("tcgetattr() failed");
+        throwException(env, "java/io/IOException", "tcgetattr() failed");
+        return false;
+    }
+
+    /* cfmakeraw() sets VMIN = 1 and VTIME = 0, keeping the read mode means putting them back */
+    cc_t currentVmin = cfg.c_cc[VMIN];
+    cc_t currentVtime = cfg.c_cc[VTIME];
+    cfmakeraw(&cfg);
+    if (!customSpeed) {
+        cfsetispeed(&cfg, speed);
+        cfsetospeed(&cfg, speed);
+    }
+
+    /* More attribute set */
+    cfg.c_cflag &= ~(PARENB | PARODD | CSIZE | CSTOPB);
+    switch (parity) {
+        case 0:
+            break;
+        case 1:
+            cfg.c_cflag |= PARENB | PARODD;
+            break;
+        case 2:
+            cfg.c_cflag |= PARENB;
+            break;
+    }
+    switch (dataBits) {
+        case 5:
+            cfg.c_cflag |= CS5;
+            break;
+        case 6:
+            cfg.c_cflag |= CS6;
+            break;
+        case 7:
+            cfg.c_cflag |= CS7;
+            break;
+        case 8:
+            cfg.c_cflag |= CS8;
+            break;
+    }
+    if (stopBit == 2) {
+        cfg.c_cflag |= CSTOPB;
+    }
+
+    if (vmin >= 0) {
+        // VMIN = 0 且 VTIME = 0 时，不管能否读取到数据，read都立即返回
+        cfg.c_cc[VTIME] = (cc_t) vtime;//设置等待时间，单位 0.1 秒
+        cfg.c_cc[VMIN] = (cc_t) vmin;//设置最小接收字符
+    } else {
+        cfg.c_cc[VTIME] = currentVtime;
+        cfg.c_cc[VMIN] = currentVmin;
+    }
+
+    if (customSpeed) {
+        if (setCustomBaudrate(fd, action, &cfg, baudrate) == -1) {
+            LOGE("Custom baudrate %d rejected: %s", baudrate, strerror(errno));
+            throwException(env, "java/io/IOException", "Custom baudrate not supported by the driver");
+            return false;
+        }
+    } else if (tcsetattr(fd, action, &cfg)) {
+        LOGE("tcsetattr() failed");
+        throwException(env, "java/io/IOException", "tcsetattr() failed");
+        return false;
+    }
+    return true;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    open
+ * Signature: (Ljava/lang/String;IIIIIII)Ljava/io/FileDescriptor;
+ */
+static jobject SerialPort_open(
         JNIEnv *env, jclass clazz, jstring path,
         jint baudrate, jint parity, jint dataBits,
-        jint stopBit, jint flags
+        jint stopBit, jint flags, jint vmin, jint vtime
 ) {
     int fd;
-    speed_t speed;
     jobject mFileDescriptor;
 
     /* Check arguments */
     {
-        speed = getBaudrate(baudrate);
-        if (speed == -1) {
-            throwException(env, "java/lang/IllegalArgumentException", "Invalid baudrate");
-            return NULL;
-        }
-        if (parity < 0 || parity > 2) {
-            throwException(env, "java/lang/IllegalArgumentException", "Invalid parity");
+        if (!checkLineSettings(env, baudrate, parity, dataBits, stopBit)) {
             return NULL;
         }
-        if (dataBits < 5 || dataBits > 8) {
-            throwException(env, "java/lang/IllegalArgumentException", "Invalid dataBits");
-            return NULL;
-        }
-        if (stopBit < 1 || stopBit > 2) {
-            throwException(env, "java/lang/IllegalArgumentException", "Invalid stopBit");
+        if (!isValidReadTimeout(vmin, vtime)) {
+            throwException(env, "java/lang/IllegalArgumentException", "Invalid read timeout");
             return NULL;
         }
     }
@@ -143,100 +327,700 @@ Java_android_1serialport_1api_SerialPort_open(
         }
     }
 
-    /* Configure device */
-    {
-        struct termios cfg;
-        LOGD("Configuring serial port");
-        if (tcgetattr(fd, &cfg)) {
-            LOGE("tcgetattr() failed");
-            close(fd);
-            throwException(env, "java/io/IOException", "tcgetattr() failed");
-            return NULL;
+    /* Configure device, logged here only: reconfigure() runs in the auto-baud loop */
+    LOGD("Configuring serial port");
+    tcflush(fd, TCIFLUSH);
+    if (!configure(env, fd, TCSANOW, baudrate, parity, dataBits, stopBit, vmin, vtime)) {
+        close(fd);
+        return NULL;
+    }
+
+    /* Create a corresponding file descriptor */
+    mFileDescriptor = env->NewObject(cache.fileDescriptorClass, cache.fileDescriptorInit);
+    if (mFileDescriptor == NULL) {
+        close(fd);
+        return NULL;
+    }
+    env->SetIntField(mFileDescriptor, cache.descriptor, (jint) fd);
+
+    return mFileDescriptor;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    reconfigure
+ * Signature: (Ljava/io/FileDescriptor;IIIII)V
+ */
+static void SerialPort_reconfigure(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jint action,
+        jint baudrate, jint parity, jint dataBits, jint stopBit
+) {
+    if (!checkLineSettings(env, baudrate, parity, dataBits, stopBit)) {
+        return;
+    }
+    int tcsaction;
+    switch (action) {
+        case 0:
+            tcsaction = TCSANOW;
+            break;
+        case 1:
+            tcsaction = TCSADRAIN;
+            break;
+        case 2:
+            tcsaction = TCSAFLUSH;
+            break;
+        default:
+            throwException(env, "java/lang/IllegalArgumentException", "Invalid action");
+            return;
+    }
+    configure(env, getFileDescriptor(env, fileDescriptor), tcsaction, baudrate, parity, dataBits, stopBit, -1, -1);
+}
+
+
+jint getFileDescriptor(JNIEnv *env, jobject fileDescriptor) {
+    return env->GetIntField(fileDescriptor, cache.descriptor);
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    setReadMode
+ * Signature: (Ljava/io/FileDescriptor;II)V
+ */
+static void SerialPort_setReadMode(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jint vmin, jint vtime
+) {
+    if (!isValidReadTimeout(vmin, vtime)) {
+        throwException(env, "java/lang/IllegalArgumentException", "Invalid read timeout");
+        return;
+    }
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct termios cfg;
+    if (tcgetattr(fd, &cfg)) {
+        LOGE("tcgetattr() failed");
+        throwException(env, "java/io/IOException", "tcgetattr() failed");
+        return;
+    }
+    cfg.c_cc[VTIME] = (cc_t) vtime;
+    cfg.c_cc[VMIN] = (cc_t) vmin;
+    LOGD("setReadMode(fd = %d, VMIN = %d, VTIME = %d)", fd, vmin, vtime);
+    if (tcsetattr(fd, TCSANOW, &cfg)) {
+        LOGE("tcsetattr() failed");
+        throwException(env, "java/io/IOException", "tcsetattr() failed");
+    }
+}
+
+/*
+ * Closes the descriptor once: the FileDescriptor is set to -1 first, so a second close, or a
+ * read or write racing with this one, fails with EBADF instead of reaching a file that reused
+ * the number. Callers serialize close() on the Java side.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    close
+ * Signature: (Ljava/io/FileDescriptor;)V
+ */
+static void SerialPort_close(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    jint descriptor = getFileDescriptor(env, fileDescriptor);
+    if (descriptor < 0) {
+        return;
+    }
+    env->SetIntField(fileDescriptor, cache.descriptor, -1);
+    LOGD("close(fd = %d)", descriptor);
+    close(descriptor);
+}
+
+/*
+ * Returns the address of buffer[offset, offset + length), or NULL with an exception pending.
+ */
+static jbyte *getDirectRegion(JNIEnv *env, jobject buffer, jint offset, jint length) {
+    jbyte *address = (jbyte *) env->GetDirectBufferAddress(buffer);
+    if (address == NULL) {
+        throwException(env, "java/lang/IllegalArgumentException", "Not a direct buffer");
+        return NULL;
+    }
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if (offset < 0 || length < 0 || offset + (jlong) length > capacity) {
+        throwException(env, "java/lang/IndexOutOfBoundsException", "Invalid buffer region");
+        return NULL;
+    }
+    return address + offset;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    readDirect
+ * Signature: (Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;II)I
+ */
+static jint SerialPort_readDirect(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jobject buffer, jint offset, jint length
+) {
+    jbyte *address = getDirectRegion(env, buffer, offset, length);
+    if (address == NULL) {
+        return -1;
+    }
+    int fd = getFileDescriptor(env, fileDescriptor);
+    ssize_t n;
+    do {
+        n = read(fd, address, (size_t) length);
+    } while (n == -1 && errno == EINTR);
+    if (n == -1) {
+        if (errno == EAGAIN) {
+            return 0;
         }
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    return (jint) n;
+}
 
-        cfmakeraw(&cfg);
-        cfsetispeed(&cfg, speed);
-        cfsetospeed(&cfg, speed);
+jlong monotonicNanos() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (jlong) now.tv_sec * 1000000000LL + now.tv_nsec;
+}
 
-        /* More attribute set */
-        switch (parity) {
-            case 0:
-                break;
-            case 1:
-                cfg.c_cflag |= PARENB;
-                break;
-            case 2:
-                cfg.c_cflag &= ~PARODD;
-                break;
+jint queuedInput(int fd) {
+    int queued = 0;
+    return ioctl(fd, FIONREAD, &queued) == -1 ? -1 : (jint) queued;
+}
+
+/*
+ * readDirect() that also fills stamp with the time read() returned, taken before anything else,
+ * the byte count and what is left in the input queue. Timed out reads leave stamp unchanged.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    readDirectStamped
+ * Signature: (Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;IILandroid_serialport_api/ReceiveStamp;)I
+ */
+static jint SerialPort_readDirectStamped(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jobject buffer, jint offset, jint length,
+        jobject stamp
+) {
+    if (cache.stampTimestamp == NULL) {
+        throwException(env, "java/lang/UnsatisfiedLinkError", "ReceiveStamp fields not found");
+        return -1;
+    }
+    jbyte *address = getDirectRegion(env, buffer, offset, length);
+    if (address == NULL) {
+        return -1;
+    }
+    int fd = getFileDescriptor(env, fileDescriptor);
+    ssize_t n;
+    do {
+        n = read(fd, address, (size_t) length);
+    } while (n == -1 && errno == EINTR);
+    jlong now = monotonicNanos();
+    if (n == -1) {
+        if (errno == EAGAIN) {
+            return 0;
         }
-        switch (dataBits) {
-            case 5:
-                cfg.c_cflag |= CS5;
-                break;
-            case 6:
-                cfg.c_cflag |= CS6;
-                break;
-            case 7:
-                cfg.c_cflag |= CS7;
-                break;
-            case 8:
-                cfg.c_cflag |= CS8;
-                break;
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    if (n > 0) {
+        env->SetLongField(stamp, cache.stampTimestamp, now);
+        env->SetIntField(stamp, cache.stampByteCount, (jint) n);
+        env->SetIntField(stamp, cache.stampQueued, queuedInput(fd));
+    }
+    return (jint) n;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    writeDirect
+ * Signature: (Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;II)I
+ */
+static jint SerialPort_writeDirect(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jobject buffer, jint offset, jint length
+) {
+    jbyte *address = getDirectRegion(env, buffer, offset, length);
+    if (address == NULL) {
+        return -1;
+    }
+    int fd = getFileDescriptor(env, fileDescriptor);
+    ssize_t n;
+    do {
+        n = write(fd, address, (size_t) length);
+    } while (n == -1 && errno == EINTR);
+    if (n == -1) {
+        if (errno == EAGAIN) {
+            return 0;
         }
-        switch (stopBit) {
-            case 1:
-                cfg.c_cflag &= ~CSTOPB;
-                break;
-            case 2:
-                cfg.c_cflag |= CSTOPB;
-                break;
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    return (jint) n;
+}
+
+/* iovec entries kept on the stack, larger vectors are allocated */
+#define STACK_IOV 16
+
+/*
+ * Fills iov from the direct buffers in segments and their regions, an offset and length pair
+ * per segment computed on the Java side: reading position() and limit() here would cost two
+ * calls back into Java per segment, more than the writev() itself on a short frame.
+ * Returns false with an exception pending if a segment is not a direct buffer.
+ */
+static bool fillIovec(JNIEnv *env, jobjectArray segments, jintArray regions, struct iovec *iov, jsize count) {
+    jint stackRegions[2 * STACK_IOV];
+    jint *bounds = count <= STACK_IOV ? stackRegions : new jint[2 * count];
+    env->GetIntArrayRegion(regions, 0, 2 * count, bounds);
+    bool filled = !env->ExceptionCheck();
+    for (jsize i = 0; filled && i < count; i++) {
+        jobject segment = env->GetObjectArrayElement(segments, i);
+        jbyte *address = (jbyte *) env->GetDirectBufferAddress(segment);
+        env->DeleteLocalRef(segment);
+        if (address == NULL) {
+            throwException(env, "java/lang/IllegalArgumentException", "Not a direct buffer");
+            filled = false;
+        } else {
+            iov[i].iov_base = address + bounds[2 * i];
+            iov[i].iov_len = (size_t) bounds[2 * i + 1];
+        }
+    }
+    if (bounds != stackRegions) {
+        delete[] bounds;
+    }
+    return filled;
+}
+
+/*
+ * readv()/writev() over the given regions of the direct buffers in segments, so a
+ * multi-part frame moves in one syscall. Buffer positions are left to the Java side.
+ */
+static jlong transferVector(JNIEnv *env, jobject fileDescriptor, jobjectArray segments, jintArray regions,
+                            bool output) {
+    jsize count = env->GetArrayLength(segments);
+    if (count > IOV_MAX) {
+        throwException(env, "java/lang/IllegalArgumentException", "Too many segments");
+        return -1;
+    }
+    struct iovec stackIov[STACK_IOV];
+    struct iovec *iov = count <= STACK_IOV ? stackIov : new struct iovec[count];
+    jlong result = -1;
+    if (fillIovec(env, segments, regions, iov, count)) {
+        int fd = getFileDescriptor(env, fileDescriptor);
+        ssize_t n;
+        do {
+            n = output ? writev(fd, iov, count) : readv(fd, iov, count);
+        } while (n == -1 && errno == EINTR);
+        if (n >= 0) {
+            result = n;
+        } else if (errno == EAGAIN) {
+            result = 0;
+        } else {
+            throwException(env, "java/io/IOException", strerror(errno));
         }
+    }
+    if (iov != stackIov) {
+        delete[] iov;
+    }
+    return result;
+}
 
-        // 不管能否读取到数据，read都立即返回
-        cfg.c_cc[VTIME] = 0;//设置等待时间
-        cfg.c_cc[VMIN] = 0;//设置最小接收字符
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    readVector
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I)J
+ */
+static jlong SerialPort_readVector(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jobjectArray segments, jintArray regions
+) {
+    return transferVector(env, fileDescriptor, segments, regions, false);
+}
 
-        tcflush(fd, TCIFLUSH);
-        if (tcsetattr(fd, TCSANOW, &cfg)) {
-            LOGE("tcsetattr() failed");
-            close(fd);
-            /* TODO: throw an exception */
-            return NULL;
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    writeVector
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I)J
+ */
+static jlong SerialPort_writeVector(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jobjectArray segments, jintArray regions
+) {
+    return transferVector(env, fileDescriptor, segments, regions, true);
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    drain
+ * Signature: (Ljava/io/FileDescriptor;)V
+ */
+static void SerialPort_drain(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    int r;
+    do {
+        r = tcdrain(fd);
+    } while (r == -1 && errno == EINTR);
+    if (r == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+    }
+}
+
+/*
+ * Waits for room in the output queue, after a write on an O_NONBLOCK port or a full pty returned 0.
+ * Errors and hangups count as writable: the next write reports them.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    awaitWritable
+ * Signature: (Ljava/io/FileDescriptor;I)Z
+ */
+static jboolean SerialPort_awaitWritable(JNIEnv *env, jclass clazz, jobject fileDescriptor, jint timeoutMs) {
+    struct pollfd pfd;
+    pfd.fd = getFileDescriptor(env, fileDescriptor);
+    if (pfd.fd < 0) {
+        /* closed, poll() would ignore it and sleep the whole timeout */
+        return JNI_TRUE;
+    }
+    pfd.events = POLLOUT;
+    pfd.revents = 0;
+    int r = poll(&pfd, 1, timeoutMs);
+    if (r == -1 && errno != EINTR) {
+        throwException(env, "java/io/IOException", strerror(errno));
+    }
+    return (jboolean) (r > 0);
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    outputQueueSize
+ * Signature: (Ljava/io/FileDescriptor;)I
+ */
+static jint SerialPort_outputQueueSize(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    int pending = 0;
+    if (ioctl(fd, TIOCOUTQ, &pending) == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    return pending;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    inputQueueSize
+ * Signature: (Ljava/io/FileDescriptor;)I
+ */
+static jint SerialPort_inputQueueSize(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    int queued = 0;
+    if (ioctl(fd, FIONREAD, &queued) == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    return queued;
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    appliedBaudRate
+ * Signature: (Ljava/io/FileDescriptor;)I
+ */
+static jint SerialPort_appliedBaudRate(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct serial_termios2 tio;
+    if (ioctl(fd, SERIAL_TCGETS2, &tio) == 0) {
+        return (jint) tio.c_ospeed;
+    }
+    /* no termios2, only the Bxxx constants can be in use */
+    struct termios cfg;
+    if (tcgetattr(fd, &cfg)) {
+        throwException(env, "java/io/IOException", strerror(errno));
+        return -1;
+    }
+    return getBaudrateValue(cfgetospeed(&cfg));
+}
+
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    readCounters
+ * Signature: (Ljava/io/FileDescriptor;[I)Z
+ */
+static jboolean SerialPort_readCounters(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jintArray counts
+) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct serial_icounter_struct icount;
+    memset(&icount, 0, sizeof(icount));
+    if (ioctl(fd, TIOCGICOUNT, &icount) == -1) {
+        /* drivers without interrupt counters, ptys and most USB adapters */
+        if (errno != EINVAL && errno != ENOTTY) {
+            throwException(env, "java/io/IOException", strerror(errno));
         }
+        return JNI_FALSE;
     }
+    /* in the order of LineCounters */
+    jint values[] = {icount.rx, icount.tx, icount.frame, icount.parity, icount.overrun, icount.brk,
+                     icount.buf_overrun};
+    env->SetIntArrayRegion(counts, 0, sizeof(values) / sizeof(values[0]), values);
+    return JNI_TRUE;
+}
 
-    /* Create a corresponding file descriptor */
-    {
-        jclass cFileDescriptor = env->FindClass("java/io/FileDescriptor");
-        jmethodID iFileDescriptor = env->GetMethodID(cFileDescriptor, "<init>", "()V");
-        jfieldID descriptorID = env->GetFieldID(cFileDescriptor, "descriptor", "I");
-        mFileDescriptor = env->NewObject(cFileDescriptor, iFileDescriptor);
-        env->SetIntField(mFileDescriptor, descriptorID, (jint) fd);
+/*
+ * Switches the kernel RS-485 mode of the driver on or off. Returns false, without an exception,
+ * when the driver has no RS-485 support, so the caller can fall back to toggling RTS itself.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    setRs485
+ * Signature: (Ljava/io/FileDescriptor;ZZIIZ)Z
+ */
+static jboolean SerialPort_setRs485(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jboolean enabled, jboolean rtsOnSend,
+        jint delayBeforeSendMs, jint delayAfterSendMs, jboolean receiveDuringTransmit
+) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    struct serial_rs485 rs485;
+    memset(&rs485, 0, sizeof(rs485));
+    if (enabled) {
+        rs485.flags = SER_RS485_ENABLED
+                      | (rtsOnSend ? SER_RS485_RTS_ON_SEND : SER_RS485_RTS_AFTER_SEND)
+                      | (receiveDuringTransmit ? SER_RS485_RX_DURING_TX : 0);
+        rs485.delay_rts_before_send = (__u32) delayBeforeSendMs;
+        rs485.delay_rts_after_send = (__u32) delayAfterSendMs;
     }
+    if (ioctl(fd, TIOCSRS485, &rs485) == -1) {
+        if (errno == ENOTTY || errno == EINVAL || errno == EOPNOTSUPP || errno == SERIAL_ENOIOCTLCMD) {
+            LOGD("TIOCSRS485 not supported (fd = %d): %s", fd, strerror(errno));
+            return JNI_FALSE;
+        }
+        throwException(env, "java/io/IOException", strerror(errno));
+        return JNI_FALSE;
+    }
+    /* drivers may clamp the delays or ignore flags they cannot do */
+    if (enabled && ioctl(fd, TIOCGRS485, &rs485) == 0) {
+        LOGD("RS-485 enabled (fd = %d): flags 0x%x, delays %u/%u ms", fd, rs485.flags,
+             rs485.delay_rts_before_send, rs485.delay_rts_after_send);
+    }
+    return JNI_TRUE;
+}
 
-    return mFileDescriptor;
+static int setRtsLine(int fd, bool on) {
+    int lines;
+    if (ioctl(fd, TIOCMGET, &lines) == -1) {
+        return -1;
+    }
+    lines = on ? lines | TIOCM_RTS : lines & ~TIOCM_RTS;
+    return ioctl(fd, TIOCMSET, &lines);
+}
+
+static void sleepMillis(jint millis) {
+    if (millis <= 0) {
+        return;
+    }
+    struct timespec delay;
+    delay.tv_sec = millis / 1000;
+    delay.tv_nsec = (millis % 1000) * 1000000L;
+    while (nanosleep(&delay, &delay) == -1 && errno == EINTR) {
+    }
 }
 
+/*
+ * Class:     android_serialport_api_SerialPort
+ * Method:    setRts
+ * Signature: (Ljava/io/FileDescriptor;Z)V
+ */
+static void SerialPort_setRts(JNIEnv *env, jclass clazz, jobject fileDescriptor, jboolean on) {
+    if (setRtsLine(getFileDescriptor(env, fileDescriptor), on == JNI_TRUE) == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+    }
+}
 
 /*
- * Class:     cedric_serial_SerialPort
- * Method:    close
- * Signature: ()V
+ * Software RS-485, start of a transmission: RTS to the send level, then the delay before send.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    rs485Begin
+ * Signature: (Ljava/io/FileDescriptor;ZI)V
  */
-extern "C"
-JNIEXPORT void JNICALL
-Java_android_1serialport_1api_SerialPort_close(
-        JNIEnv *env, jobject thiz
+static void SerialPort_rs485Begin(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jboolean rtsOnSend, jint delayBeforeSendMs
 ) {
-    jclass SerialPortClass = env->GetObjectClass(thiz);
-    jclass FileDescriptorClass = env->FindClass("java/io/FileDescriptor");
+    if (setRtsLine(getFileDescriptor(env, fileDescriptor), rtsOnSend == JNI_TRUE) == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+        return;
+    }
+    sleepMillis(delayBeforeSendMs);
+}
 
-    jfieldID mFdID = env->GetFieldID(SerialPortClass, "mFd", "Ljava/io/FileDescriptor;");
-    jfieldID descriptorID = env->GetFieldID(FileDescriptorClass, "descriptor", "I");
+/*
+ * Waits for the shift register to empty where the driver reports it (TIOCSERGETLSR), since
+ * tcdrain() may return with the last character still going out. Polls with short sleeps, for at
+ * most a full 64 byte FIFO plus the character in the shift register at the current line rate.
+ */
+static void waitTransmitterEmpty(int fd, jlong characterNanos) {
+    unsigned int lsr = 0;
+    if (ioctl(fd, TIOCSERGETLSR, &lsr) == -1 || (lsr & TIOCSER_TEMT)) {
+        return;
+    }
+    jlong deadline = monotonicNanos() + 65 * characterNanos;
+    /* an eighth of a character per poll, between 10 us and 1 ms */
+    jlong step = characterNanos / 8;
+    if (step < 10000) {
+        step = 10000;
+    } else if (step > 1000000) {
+        step = 1000000;
+    }
+    struct timespec poll;
+    poll.tv_sec = 0;
+    poll.tv_nsec = (long) step;
+    do {
+        nanosleep(&poll, NULL);
+    } while (ioctl(fd, TIOCSERGETLSR, &lsr) == 0 && !(lsr & TIOCSER_TEMT) && monotonicNanos() < deadline);
+}
 
-    jobject mFd = env->GetObjectField(thiz, mFdID);
-    jint descriptor = env->GetIntField(mFd, descriptorID);
+/*
+ * Software RS-485, end of a transmission, in one call to keep the turnaround short: wait for the
+ * output queue to drain and the transmitter to empty, the delay after send, then RTS back.
+ * Input is left alone: an echo of our own bytes, if the transceiver gives one, is read like
+ * anything else, and no response byte is lost.
+ *
+ * Class:     android_serialport_api_SerialPort
+ * Method:    rs485End
+ * Signature: (Ljava/io/FileDescriptor;ZIJ)V
+ */
+static void SerialPort_rs485End(
+        JNIEnv *env, jclass clazz, jobject fileDescriptor, jboolean rtsOnSend, jint delayAfterSendMs,
+        jlong characterNanos
+) {
+    int fd = getFileDescriptor(env, fileDescriptor);
+    int r;
+    do {
+        r = tcdrain(fd);
+    } while (r == -1 && errno == EINTR);
+    int drainError = r == -1 ? errno : 0;
+    if (!drainError) {
+        waitTransmitterEmpty(fd, characterNanos);
+    }
+    sleepMillis(delayAfterSendMs);
+    /* release the line even if the drain failed, then report it */
+    if (setRtsLine(fd, rtsOnSend != JNI_TRUE) == -1) {
+        throwException(env, "java/io/IOException", strerror(errno));
+    } else if (drainError) {
+        throwException(env, "java/io/IOException", strerror(drainError));
+    }
+}
 
-    LOGD("close(fd = %d)", descriptor);
-    close(descriptor);
+bool registerNatives(JNIEnv *env, jclass clazz, const JNINativeMethod *methods, jint count) {
+    if (env->RegisterNatives(clazz, methods, count) != JNI_OK) {
+        LOGE("RegisterNatives() failed");
+        /* all or nothing: unbound natives throw UnsatisfiedLinkError when called */
+        env->ExceptionClear();
+        env->UnregisterNatives(clazz);
+        return false;
+    }
+    return true;
+}
+
+static const JNINativeMethod SERIAL_PORT_METHODS[] = {
+        {"open",            "(Ljava/lang/String;IIIIIII)Ljava/io/FileDescriptor;", (void *) SerialPort_open},
+        {"setReadMode",     "(Ljava/io/FileDescriptor;II)V",                       (void *) SerialPort_setReadMode},
+        {"reconfigure",     "(Ljava/io/FileDescriptor;IIIII)V",                    (void *) SerialPort_reconfigure},
+        {"readDirect",      "(Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;II)I",  (void *) SerialPort_readDirect},
+        {"readDirectStamped", "(Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;IILandroid_serialport_api/ReceiveStamp;)I",
+                (void *) SerialPort_readDirectStamped},
+        {"writeDirect",     "(Ljava/io/FileDescriptor;Ljava/nio/ByteBuffer;II)I",  (void *) SerialPort_writeDirect},
+        {"readVector",      "(Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I)J", (void *) SerialPort_readVector},
+        {"writeVector",     "(Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I)J", (void *) SerialPort_writeVector},
+        {"drain",           "(Ljava/io/FileDescriptor;)V",                         (void *) SerialPort_drain},
+        {"awaitWritable",   "(Ljava/io/FileDescriptor;I)Z",                        (void *) SerialPort_awaitWritable},
+        {"outputQueueSize", "(Ljava/io/FileDescriptor;)I",                         (void *) SerialPort_outputQueueSize},
+        {"inputQueueSize",  "(Ljava/io/FileDescriptor;)I",                         (void *) SerialPort_inputQueueSize},
+        {"appliedBaudRate", "(Ljava/io/FileDescriptor;)I",                         (void *) SerialPort_appliedBaudRate},
+        {"readCounters",    "(Ljava/io/FileDescriptor;[I)Z",                       (void *) SerialPort_readCounters},
+        {"setRs485",        "(Ljava/io/FileDescriptor;ZZIIZ)Z",                    (void *) SerialPort_setRs485},
+        {"setRts",          "(Ljava/io/FileDescriptor;Z)V",                        (void *) SerialPort_setRts},
+        {"rs485Begin",      "(Ljava/io/FileDescriptor;ZI)V",                       (void *) SerialPort_rs485Begin},
+        {"rs485End",        "(Ljava/io/FileDescriptor;ZIJ)V",                      (void *) SerialPort_rs485End},
+        {"close",           "(Ljava/io/FileDescriptor;)V",                         (void *) SerialPort_close},
+};
+
+/*
+ * Fills cache, returns false with an exception pending if something is missing.
+ */
+static bool initCache(JNIEnv *env) {
+    jclass fileDescriptorClass = env->FindClass("java/io/FileDescriptor");
+    if (fileDescriptorClass == NULL) {
+        return false;
+    }
+    cache.fileDescriptorClass = (jclass) env->NewGlobalRef(fileDescriptorClass);
+    env->DeleteLocalRef(fileDescriptorClass);
+    cache.fileDescriptorInit = env->GetMethodID(cache.fileDescriptorClass, "<init>", "()V");
+    if (cache.fileDescriptorInit == NULL) {
+        return false;
+    }
+    cache.descriptor = env->GetFieldID(cache.fileDescriptorClass, "descriptor", "I");
+    if (cache.descriptor == NULL) {
+        env->ExceptionClear();
+        cache.descriptor = env->GetFieldID(cache.fileDescriptorClass, "fd", "I");
+        if (cache.descriptor == NULL) {
+            return false;
+        }
+    }
+    return true;
+}
+
+static bool registerSerialPortNatives(JNIEnv *env) {
+    jclass clazz = env->FindClass("android_serialport_api/SerialPort");
+    if (clazz == NULL) {
+        return false;
+    }
+    bool registered = registerNatives(env, clazz, SERIAL_PORT_METHODS,
+                                      sizeof(SERIAL_PORT_METHODS) / sizeof(SERIAL_PORT_METHODS[0]));
+    env->DeleteLocalRef(clazz);
+    return registered;
+}
+
+/*
+ * ReceiveStamp field IDs, same class loader as SerialPort, loaded for as long as the library is.
+ * Left NULL when missing, stamped reads then throw.
+ */
+static bool initStampCache(JNIEnv *env) {
+    jclass stampClass = env->FindClass("android_serialport_api/ReceiveStamp");
+    if (stampClass == NULL) {
+        return false;
+    }
+    jfieldID timestamp = env->GetFieldID(stampClass, "mTimestampNanos", "J");
+    jfieldID byteCount = timestamp != NULL ? env->GetFieldID(stampClass, "mByteCount", "I") : NULL;
+    jfieldID queued = byteCount != NULL ? env->GetFieldID(stampClass, "mQueuedBytes", "I") : NULL;
+    env->DeleteLocalRef(stampClass);
+    if (queued == NULL) {
+        return false;
+    }
+    cache.stampTimestamp = timestamp;
+    cache.stampByteCount = byteCount;
+    cache.stampQueued = queued;
+    return true;
+}
+
+/*
+ * Optional parts: when one is missing, typically shrunk by R8 without consumer-rules.pro, the
+ * library still loads and the failure surfaces when that part is used.
+ */
+static void registerOptional(JNIEnv *env, bool (*init)(JNIEnv *), const char *name) {
+    if (!init(env)) {
+        env->ExceptionClear();
+        LOGE("%s unavailable, its natives or callbacks were not found", name);
+    }
+}
+
+/*
+ * Looks up the JNI IDs used on every call once, and binds the natives of SerialPort,
+ * SerialIoEngine, DeviceWatcher and Crc up front instead of by symbol name on first use.
+ * Only SerialPort is required for the library to load.
+ */
+extern "C"
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) {
+        return JNI_ERR;
+    }
+    if (!initCache(env) || !registerSerialPortNatives(env)) {
+        /* the pending exception, if any, is replaced by UnsatisfiedLinkError */
+        env->ExceptionClear();
+        return JNI_ERR;
+    }
+    registerOptional(env, initStampCache, "ReceiveStamp");
+    registerOptional(env, registerSerialIoEngineNatives, "SerialIoEngine");
+    registerOptional(env, registerDeviceWatcherNatives, "DeviceWatcher");
+    registerOptional(env, registerCrcNatives, "Crc");
+    return JNI_VERSION_1_6;
 }
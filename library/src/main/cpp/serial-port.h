@@ -0,0 +1,38 @@
+//
+// Shared helpers for the serial-port native sources.
+//
+
+#ifndef SERIAL_PORT_H
+#define SERIAL_PORT_H
+
+#include <jni.h>
+#include "android/log.h"
+
+#define SERIAL_PORT_TAG "serial_port"
+#define LOGI(fmt, args...) __android_log_print(ANDROID_LOG_INFO,  SERIAL_PORT_TAG, fmt, ##args)
+#define LOGD(fmt, args...) __android_log_print(ANDROID_LOG_DEBUG, SERIAL_PORT_TAG, fmt, ##args)
+#define LOGE(fmt, args...) __android_log_print(ANDROID_LOG_ERROR, SERIAL_PORT_TAG, fmt, ##args)
+
+/* Throws a new exception of class name, e.g. "java/io/IOException" */
+void throwException(JNIEnv *env, const char *name, const char *msg);
+
+/* Returns the int descriptor wrapped by a java.io.FileDescriptor, -1 once closed */
+jint getFileDescriptor(JNIEnv *env, jobject fileDescriptor);
+
+/* CLOCK_MONOTONIC now in nanoseconds, the time base of System.nanoTime() */
+jlong monotonicNanos();
+
+/* Bytes waiting in the input queue of fd (FIONREAD), -1 if the driver cannot tell */
+jint queuedInput(int fd);
+
+/* RegisterNatives() with logging, false on failure */
+bool registerNatives(JNIEnv *env, jclass clazz, const JNINativeMethod *methods, jint count);
+
+/* Called from JNI_OnLoad, each also caches the callback IDs of its class */
+bool registerSerialIoEngineNatives(JNIEnv *env);
+
+bool registerDeviceWatcherNatives(JNIEnv *env);
+
+bool registerCrcNatives(JNIEnv *env);
+
+#endif //SERIAL_PORT_H
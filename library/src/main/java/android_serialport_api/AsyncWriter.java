@@ -0,0 +1,312 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded, asynchronous write queue for a {@link SerialPort}.
+ * <p>
+ * Buffers submitted with {@link #submit(ByteBuffer, Listener)} are written in order by a dedicated
+ * thread. A write completes only once the driver reports the bytes have left the UART
+ * ({@link SerialPort#drain()}), which gives exact timing for half-duplex turnaround. Each write is
+ * drained on its own unless batching is enabled with {@link #setMaxBatch(int)}.
+ * <p>
+ * When the queue is full, the {@link OverflowPolicy} decides: block the producer, reject the
+ * write, or cancel the oldest queued write to make room.
+ * <p>
+ * On a port opened with O_NONBLOCK, the writer thread waits for room in the output queue whenever
+ * the driver accepts nothing.
+ */
+public class AsyncWriter {
+    private static final String TAG = "AsyncWriter";
+
+    /* Upper bound of setMaxBatch() */
+    public static final int MAX_BATCH = 16;
+    /* Longest single wait for room in the output queue, bounds how late close() is noticed */
+    private static final int WRITABLE_WAIT_MS = 100;
+
+    public enum OverflowPolicy {
+        /* submit() waits for room */
+        BLOCK,
+        /* submit() throws RejectedExecutionException */
+        FAIL,
+        /* the oldest queued write is cancelled */
+        DROP_OLDEST
+    }
+
+    public interface Listener {
+        /**
+         * Called on the writer thread once the write is transmitted, failed or was cancelled.
+         */
+        void onComplete(WriteFuture future);
+    }
+
+    /**
+     * Result of a queued write: the number of bytes transmitted.
+     */
+    public static final class WriteFuture implements Future<Integer> {
+        private final ByteBuffer mBuffer;
+        private final Listener mListener;
+        private boolean mStarted;
+        private boolean mDone;
+        private boolean mCancelled;
+        private IOException mError;
+        private int mWritten;
+
+        WriteFuture(ByteBuffer buffer, Listener listener) {
+            mBuffer = buffer;
+            mListener = listener;
+        }
+
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        /**
+         * Cancels the write if it has not been started yet.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return complete(0, null, true);
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        @Override
+        public synchronized Integer get() throws InterruptedException, ExecutionException {
+            while (!mDone) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized Integer get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!mDone) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(left / 1000000L, (int) (left % 1000000L));
+            }
+            return result();
+        }
+
+        private Integer result() throws ExecutionException {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mWritten;
+        }
+
+        /* Only the first completion wins; a started write can no longer be cancelled */
+        boolean complete(int written, IOException error, boolean cancelled) {
+            synchronized (this) {
+                if (mDone || (cancelled && mStarted)) {
+                    return false;
+                }
+                mDone = true;
+                mCancelled = cancelled;
+                mError = error;
+                mWritten = written;
+                notifyAll();
+            }
+            if (mListener != null) {
+                try {
+                    mListener.onComplete(this);
+                } catch (RuntimeException e) {
+                    SerialLog.e(TAG, "listener failed", e);
+                }
+            }
+            return true;
+        }
+
+        /* Mark the write as started, returns false if it was cancelled already */
+        synchronized boolean start() {
+            if (mDone) {
+                return false;
+            }
+            mStarted = true;
+            mWritten = mBuffer.remaining();
+            return true;
+        }
+
+        /* Bytes to write, as recorded by start() */
+        synchronized int length() {
+            return mWritten;
+        }
+    }
+
+    private final SerialPort mPort;
+    private final ArrayBlockingQueue<WriteFuture> mQueue;
+    private final OverflowPolicy mPolicy;
+    private final Thread mThread;
+    private final WriteFuture[] mBatch = new WriteFuture[MAX_BATCH];
+    private volatile int mMaxBatch = 1;
+    private volatile boolean mClosed;
+
+    /**
+     * @param port     the port to write to
+     * @param capacity number of writes that may be queued
+     * @param policy   what to do when the queue is full
+     */
+    public AsyncWriter(SerialPort port, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mPort = port;
+        mQueue = new ArrayBlockingQueue<WriteFuture>(capacity);
+        mPolicy = policy;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    public WriteFuture submit(ByteBuffer buffer) throws InterruptedException {
+        return submit(buffer, null);
+    }
+
+    /**
+     * Queue buffer, from its position to its limit, for writing. The buffer must not be modified
+     * until the write completes.
+     *
+     * @param listener notified on completion, may be null
+     * @throws InterruptedException       when interrupted while waiting for room with {@link OverflowPolicy#BLOCK}
+     * @throws RejectedExecutionException when the queue is full with {@link OverflowPolicy#FAIL}, or closed
+     */
+    public WriteFuture submit(ByteBuffer buffer, Listener listener) throws InterruptedException {
+        if (mClosed) {
+            throw new RejectedExecutionException("writer closed");
+        }
+        WriteFuture future = new WriteFuture(buffer, listener);
+        switch (mPolicy) {
+            case BLOCK:
+                mQueue.put(future);
+                break;
+            case FAIL:
+                if (!mQueue.offer(future)) {
+                    throw new RejectedExecutionException("write queue full");
+                }
+                break;
+            case DROP_OLDEST:
+                while (!mQueue.offer(future)) {
+                    WriteFuture oldest = mQueue.poll();
+                    if (oldest != null) {
+                        oldest.cancel(false);
+                    }
+                }
+                break;
+        }
+        if (mClosed && mQueue.remove(future)) {
+            future.cancel(false);
+            throw new RejectedExecutionException("writer closed");
+        }
+        return future;
+    }
+
+    /**
+     * Writes drained by a single tcdrain(), 1 (the default) to {@link #MAX_BATCH}. Writes queued
+     * back to back are then transmitted together with fewer syscalls, but all of them complete when
+     * the last one has left the UART: the completion time is the end of the batch, not of each write.
+     */
+    public void setMaxBatch(int maxBatch) {
+        if (maxBatch < 1 || maxBatch > MAX_BATCH) {
+            throw new IllegalArgumentException("Invalid batch: " + maxBatch);
+        }
+        mMaxBatch = maxBatch;
+    }
+
+    /**
+     * Number of writes waiting to be started.
+     */
+    public int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * Stop the writer thread once the current batch is transmitted, cancelling writes still queued.
+     * The port is left open.
+     */
+    public void close() {
+        mClosed = true;
+        mThread.interrupt();
+        if (mThread != Thread.currentThread()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (!mClosed) {
+            int count = 0;
+            try {
+                WriteFuture future = mQueue.take();
+                int maxBatch = mMaxBatch;
+                do {
+                    if (future.start()) {
+                        mBatch[count++] = future;
+                        writeFully(future.getBuffer());
+                    }
+                } while (count < maxBatch && (future = mQueue.poll()) != null);
+                if (count > 0) {
+                    mPort.drain();
+                }
+                completeBatch(count, null);
+            } catch (InterruptedException e) {
+                completeBatch(count, new IOException("writer closed"));
+            } catch (IOException e) {
+                completeBatch(count, e);
+            }
+        }
+        WriteFuture future;
+        while ((future = mQueue.poll()) != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException, InterruptedException {
+        while (buffer.hasRemaining()) {
+            if (mPort.write(buffer) == 0) {
+                mPort.awaitWritable(WRITABLE_WAIT_MS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    private void completeBatch(int count, IOException error) {
+        for (int i = 0; i < count; i++) {
+            WriteFuture future = mBatch[i];
+            mBatch[i] = null;
+            future.complete(error == null ? future.length() : 0, error, false);
+        }
+    }
+}
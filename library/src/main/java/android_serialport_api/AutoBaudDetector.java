@@ -0,0 +1,311 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the baud rate of the device on an open {@link SerialPort} by trying candidate rates in turn.
+ * <p>
+ * At each rate the port is switched in place with {@link SerialPort#reconfigure(int, int)}, stale
+ * input is flushed, and the bytes received during a short listen window are scored:
+ * <ul>
+ * <li>with a {@link Probe}, the probe request is sent and the rate matches when the probe
+ * accepts the response</li>
+ * <li>otherwise by the share of printable characters, for text protocols, and by the framing and
+ * parity errors the driver counted ({@link SerialPort#getLineCounters()}), when it counts them</li>
+ * </ul>
+ * Detection stops at the first rate scoring at least the confidence threshold, or when the time
+ * budget runs out. The port is left at the detected rate, or at its original rate when nothing matched.
+ * The read timeout of the port is restored in both cases.
+ * <p>
+ * Nothing else may read from the port during {@link #detect()}.
+ */
+public class AutoBaudDetector {
+    private static final String TAG = "AutoBaudDetector";
+
+    /* Most common rates first */
+    public static final int[] DEFAULT_RATES = {
+            115200, 9600, 57600, 38400, 19200, 230400, 4800, 460800, 921600, 2400, 1200
+    };
+
+    /* Granularity of the reads within a listen window, the VTIME resolution */
+    private static final int READ_TIMEOUT_MS = 100;
+
+    public interface Probe {
+        /**
+         * Bytes sent at each candidate rate before listening, null to only listen.
+         */
+        byte[] request(int baudRate);
+
+        /**
+         * Whether the bytes received so far are the expected response. Called after every read
+         * with everything received at this rate.
+         */
+        boolean matches(byte[] response, int length);
+    }
+
+    public static final class Result {
+        private final int mBaudRate;
+        private final double mScore;
+        private final boolean mConfident;
+        private final int mBytesSampled;
+        private final long mElapsedMs;
+
+        Result(int baudRate, double score, boolean confident, int bytesSampled, long elapsedMs) {
+            mBaudRate = baudRate;
+            mScore = score;
+            mConfident = confident;
+            mBytesSampled = bytesSampled;
+            mElapsedMs = elapsedMs;
+        }
+
+        /**
+         * The best scoring rate, 0 when no rate scored above 0.
+         */
+        public int getBaudRate() {
+            return mBaudRate;
+        }
+
+        /* 0 ~ 1 */
+        public double getScore() {
+            return mScore;
+        }
+
+        /**
+         * Whether the score reached the confidence threshold. The port is only left at
+         * {@link #getBaudRate()} when it did.
+         */
+        public boolean isConfident() {
+            return mConfident;
+        }
+
+        /* Bytes received at the best rate */
+        public int getBytesSampled() {
+            return mBytesSampled;
+        }
+
+        public long getElapsedMs() {
+            return mElapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{baudRate=" + mBaudRate + ", score=" + mScore + ", confident=" + mConfident
+                    + ", bytes=" + mBytesSampled + ", elapsedMs=" + mElapsedMs + "}";
+        }
+    }
+
+    private final SerialPort mPort;
+    private int[] mRates = DEFAULT_RATES;
+    private Probe mProbe;
+    private boolean mTextScoring = true;
+    private int mListenMs = 200;
+    private long mTimeBudgetMs = 5000;
+    private int mMinSampleBytes = 16;
+    private double mThreshold = 0.95;
+    private final byte[] mSample;
+    /* Bytes kept in mSample by the last listen() */
+    private int mSampled;
+
+    /**
+     * @param port the port to probe; nothing else may read from it during detection
+     */
+    public AutoBaudDetector(SerialPort port) {
+        this(port, 1024);
+    }
+
+    /**
+     * @param sampleSize most bytes kept per rate
+     */
+    public AutoBaudDetector(SerialPort port, int sampleSize) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("Invalid sample size: " + sampleSize);
+        }
+        mPort = port;
+        mSample = new byte[sampleSize];
+    }
+
+    /**
+     * Rates to try, in order. {@link #DEFAULT_RATES} by default.
+     */
+    public void setCandidates(int... rates) {
+        if (rates.length == 0) {
+            throw new IllegalArgumentException("No candidate rate");
+        }
+        mRates = rates.clone();
+    }
+
+    /**
+     * Identify the device by a request/response exchange instead of scoring what it sends on its own.
+     */
+    public void setProbe(Probe probe) {
+        mProbe = probe;
+    }
+
+    /**
+     * Whether the share of printable characters counts in the score, enabled by default.
+     * Disable it for binary protocols, leaving only the driver error counters.
+     */
+    public void setTextScoring(boolean textScoring) {
+        mTextScoring = textScoring;
+    }
+
+    /**
+     * How long to listen at each rate, 200 ms by default. A window ends early on a confident match.
+     */
+    public void setListenTime(int listenMs) {
+        if (listenMs <= 0) {
+            throw new IllegalArgumentException("Invalid listen time: " + listenMs);
+        }
+        mListenMs = listenMs;
+    }
+
+    /**
+     * Upper bound for the whole detection, 5 s by default.
+     */
+    public void setTimeBudget(long timeBudgetMs) {
+        if (timeBudgetMs <= 0) {
+            throw new IllegalArgumentException("Invalid time budget: " + timeBudgetMs);
+        }
+        mTimeBudgetMs = timeBudgetMs;
+    }
+
+    /**
+     * Bytes needed before a rate is scored without a probe, 16 by default.
+     */
+    public void setMinSampleBytes(int minSampleBytes) {
+        if (minSampleBytes <= 0) {
+            throw new IllegalArgumentException("Invalid sample size: " + minSampleBytes);
+        }
+        mMinSampleBytes = minSampleBytes;
+    }
+
+    /**
+     * Score at which a rate is accepted and detection stops, 0.95 by default.
+     */
+    public void setThreshold(double threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * Run the detection, blocking for at most the time budget (plus one read timeout).
+     *
+     * @throws IOException when the port fails
+     */
+    public Result detect() throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + mTimeBudgetMs * 1000000L;
+        int originalRate;
+        int minBytes;
+        int readTimeoutMs;
+        synchronized (mPort) {
+            originalRate = mPort.getBaudRate();
+            minBytes = mPort.getMinBytes();
+            readTimeoutMs = mPort.getReadTimeoutMs();
+        }
+
+        int bestRate = 0;
+        double bestScore = 0;
+        int bestBytes = 0;
+        boolean confident = false;
+        mPort.setReadTimeout(0, READ_TIMEOUT_MS);
+        try {
+            for (int rate : mRates) {
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                mPort.reconfigure(rate, SerialPort.Apply.FLUSH);
+                long windowEnd = Math.min(deadline, System.nanoTime() + mListenMs * 1000000L);
+                double score = listen(windowEnd);
+                int sampled = mSampled;
+                SerialLog.d(TAG, "rate " + rate + ": " + sampled + " bytes, score " + score);
+                if (score > bestScore) {
+                    bestRate = rate;
+                    bestScore = score;
+                    bestBytes = sampled;
+                }
+                if (score >= mThreshold && score > 0) {
+                    confident = true;
+                    break;
+                }
+            }
+        } finally {
+            if (!confident && mPort.getBaudRate() != originalRate) {
+                mPort.reconfigure(originalRate, SerialPort.Apply.FLUSH);
+            }
+            mPort.setReadTimeout(minBytes, readTimeoutMs);
+        }
+        return new Result(bestRate, bestScore, confident, bestBytes,
+                (System.nanoTime() - start) / 1000000L);
+    }
+
+    /**
+     * Collect bytes at the current rate until windowEnd, or until the probe matches.
+     *
+     * @return the score of what was received
+     */
+    private double listen(long windowEnd) throws IOException {
+        mSampled = 0;
+        LineCounters before = mPort.getLineCounters();
+        if (mProbe != null) {
+            byte[] request = mProbe.request(mPort.getBaudRate());
+            if (request != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(request);
+                while (buffer.hasRemaining()) {
+                    mPort.write(buffer);
+                }
+            }
+        }
+        while (System.nanoTime() < windowEnd && mSampled < mSample.length) {
+            ByteBuffer buffer = ByteBuffer.wrap(mSample, mSampled, mSample.length - mSampled);
+            int n = mPort.read(buffer);
+            if (n <= 0) {
+                continue;
+            }
+            mSampled += n;
+            if (mProbe != null && mProbe.matches(mSample, mSampled)) {
+                return 1;
+            }
+            if (mProbe == null && mSampled >= mMinSampleBytes
+                    && score(before, mPort.getLineCounters()) >= mThreshold) {
+                /* confident already, no need to wait for the window to end */
+                break;
+            }
+        }
+        if (mProbe != null) {
+            return 0;
+        }
+        return score(before, mPort.getLineCounters());
+    }
+
+    /**
+     * Score of mSample: printable share times error-free share, 0 with too few bytes.
+     */
+    private double score(LineCounters before, LineCounters after) {
+        if (mSampled < mMinSampleBytes) {
+            return 0;
+        }
+        double score = 1;
+        boolean evidence = false;
+        if (mTextScoring) {
+            int printable = 0;
+            for (int i = 0; i < mSampled; i++) {
+                if (isPrintable(mSample[i])) {
+                    printable++;
+                }
+            }
+            score *= (double) printable / mSampled;
+            evidence = true;
+        }
+        if (before != null && after != null) {
+            int errors = after.minus(before).getLineErrors();
+            score *= Math.max(0, 1 - (double) errors / mSampled);
+            evidence = true;
+        }
+        return evidence ? score : 0;
+    }
+
+    private static boolean isPrintable(byte b) {
+        return (b >= 0x20 && b < 0x7f) || b == '\r' || b == '\n' || b == '\t';
+    }
+}
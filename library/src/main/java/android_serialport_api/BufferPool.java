@@ -0,0 +1,85 @@
+package android_serialport_api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of preallocated direct buffers, handed out and taken back without allocating.
+ * <p>
+ * All slabs are allocated up front; {@link #acquire()} and {@link PooledBuffer#release()}
+ * only move them between the pool's free queue and its users.
+ */
+public class BufferPool {
+
+    private final ArrayBlockingQueue<PooledBuffer> mFree;
+    private final int mBufferSize;
+    private final int mCount;
+
+    /**
+     * @param count      number of buffers
+     * @param bufferSize size of each buffer in bytes
+     */
+    public BufferPool(int count, int bufferSize) {
+        if (count <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid pool size: " + count + " x " + bufferSize);
+        }
+        mCount = count;
+        mBufferSize = bufferSize;
+        mFree = new ArrayBlockingQueue<PooledBuffer>(count);
+        for (int i = 0; i < count; i++) {
+            mFree.add(new PooledBuffer(this, ByteBuffer.allocateDirect(bufferSize)));
+        }
+    }
+
+    /**
+     * Take a cleared buffer, waiting for one to be released if the pool is empty.
+     */
+    public PooledBuffer acquire() throws InterruptedException {
+        return acquired(mFree.take());
+    }
+
+    /**
+     * Take a cleared buffer, waiting at most timeout for one to be released.
+     *
+     * @return null if no buffer became available in time
+     */
+    public PooledBuffer acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return acquired(mFree.poll(timeout, unit));
+    }
+
+    /**
+     * Take a cleared buffer without waiting.
+     *
+     * @return null if every buffer is in use
+     */
+    public PooledBuffer tryAcquire() {
+        return acquired(mFree.poll());
+    }
+
+    private static PooledBuffer acquired(PooledBuffer buffer) {
+        if (buffer != null) {
+            buffer.onAcquired();
+        }
+        return buffer;
+    }
+
+    void recycle(PooledBuffer buffer) {
+        mFree.offer(buffer);
+    }
+
+    /**
+     * Number of buffers currently free.
+     */
+    public int available() {
+        return mFree.size();
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+}
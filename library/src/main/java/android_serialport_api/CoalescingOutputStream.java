@@ -0,0 +1,314 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output stage that batches small writes to a {@link SerialPort} into fewer write() syscalls.
+ * <p>
+ * Bytes are collected in a direct buffer and written out when the first of these happens:
+ * <ul>
+ * <li>the buffer is full</li>
+ * <li>the oldest pending byte has waited maxDelayMicros</li>
+ * <li>{@link #flush()} is called</li>
+ * <li>{@link #endFrame()} is called and flushing on frame boundaries is enabled</li>
+ * </ul>
+ * Writes larger than the buffer bypass it. Closing the stream flushes it but leaves the port open.
+ * <p>
+ * Delayed flushes run on a daemon thread; an error there is kept and thrown by the next call.
+ * Its wait is not rounded to milliseconds, so delays below one millisecond are kept.
+ * <p>
+ * When the port accepts nothing, as one opened with O_NONBLOCK or a full pty, the write waits for
+ * room instead of retrying in a loop.
+ */
+public class CoalescingOutputStream extends OutputStream {
+
+    /* Longest single wait for room in the port's output queue */
+    private static final int WRITABLE_WAIT_MS = 100;
+    /* Pause between retries of a channel that accepted nothing, doubled up to the maximum */
+    private static final long MIN_BACKOFF_NANOS = 10000L;
+    private static final long MAX_BACKOFF_NANOS = 1000000L;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    /* signalled when a deadline is set and on close */
+    private final Condition mPending = mLock.newCondition();
+    private final WritableByteChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final long mMaxDelayNanos;
+    private final Thread mFlusher;
+    private boolean mFlushOnFrameBoundary;
+    /* System.nanoTime() by which pending bytes must be written, 0 when nothing is pending */
+    private long mDeadline;
+    private boolean mClosed;
+    private IOException mFlushError;
+    private long mFlushCount;
+    private long mBytesWritten;
+
+    /**
+     * @param port           the port to write to
+     * @param bufferSize     bytes collected before a write is forced
+     * @param maxDelayMicros longest time a byte may wait before being written, 0 for no time limit
+     */
+    public CoalescingOutputStream(final SerialPort port, int bufferSize, long maxDelayMicros) {
+        this(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int n = port.write(src);
+                if (n == 0 && src.hasRemaining()) {
+                    port.awaitWritable(WRITABLE_WAIT_MS);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, bufferSize, maxDelayMicros);
+    }
+
+    CoalescingOutputStream(WritableByteChannel channel, int bufferSize, long maxDelayMicros) {
+        if (bufferSize <= 0 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Invalid buffer size or delay");
+        }
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocateDirect(bufferSize);
+        mMaxDelayNanos = maxDelayMicros * 1000L;
+        if (mMaxDelayNanos > 0) {
+            mFlusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            }, "CoalescingOutputStream");
+            mFlusher.setDaemon(true);
+            mFlusher.start();
+        } else {
+            mFlusher = null;
+        }
+    }
+
+    /**
+     * Whether {@link #endFrame()} writes the pending bytes out immediately. Disabled by default.
+     */
+    public void setFlushOnFrameBoundary(boolean flushOnFrameBoundary) {
+        mLock.lock();
+        try {
+            mFlushOnFrameBoundary = flushOnFrameBoundary;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Mark the end of a protocol frame. Flushes if flushing on frame boundaries is enabled,
+     * otherwise leaves the size and time limits in charge.
+     */
+    public void endFrame() throws IOException {
+        mLock.lock();
+        try {
+            if (mFlushOnFrameBoundary) {
+                flushLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Buffer one byte. If the buffer is full and writing it out fails, the byte is not taken and the
+     * buffered bytes not yet written are kept for the next flush.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        mLock.lock();
+        try {
+            ensureOpen();
+            if (!mBuffer.hasRemaining()) {
+                flushLocked();
+            }
+            mBuffer.put((byte) b);
+            pending();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Buffer len bytes, or write them directly when they do not fit in the buffer. When this throws,
+     * none of b was buffered, but a direct write may have sent part of it before failing.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        mLock.lock();
+        try {
+            ensureOpen();
+            if (len >= mBuffer.capacity()) {
+                /* would not fit anyway, keep order and write it directly */
+                flushLocked();
+                writeFully(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+            if (len > mBuffer.remaining()) {
+                flushLocked();
+            }
+            mBuffer.put(b, off, len);
+            pending();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending bytes out. When the write fails, the bytes not yet written stay buffered, in
+     * order, and are retried by the next flush.
+     */
+    @Override
+    public void flush() throws IOException {
+        mLock.lock();
+        try {
+            ensureOpen();
+            flushLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Flush and stop the flusher thread. The port is left open. Bytes the final flush fails to write
+     * are lost.
+     */
+    @Override
+    public void close() throws IOException {
+        mLock.lock();
+        try {
+            if (mClosed) {
+                return;
+            }
+            try {
+                flushLocked();
+            } finally {
+                mClosed = true;
+                mPending.signalAll();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Number of write() syscalls that sent data so far; writes that accepted nothing are not counted.
+     */
+    public long getFlushCount() {
+        mLock.lock();
+        try {
+            return mFlushCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getBytesWritten() {
+        mLock.lock();
+        try {
+            return mBytesWritten;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("stream closed");
+        }
+        if (mFlushError != null) {
+            IOException e = mFlushError;
+            mFlushError = null;
+            throw e;
+        }
+    }
+
+    /* Bytes were added to the buffer: start the delay if they are the first pending ones */
+    private void pending() throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            flushLocked();
+        } else if (mDeadline == 0 && mFlusher != null) {
+            mDeadline = System.nanoTime() + mMaxDelayNanos;
+            mPending.signalAll();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        mDeadline = 0;
+        if (mBuffer.position() == 0) {
+            return;
+        }
+        mBuffer.flip();
+        try {
+            writeFully(mBuffer);
+        } finally {
+            /* empty after a complete write; after a failure, the unsent rest moves to the front */
+            mBuffer.compact();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        long backoff = MIN_BACKOFF_NANOS;
+        while (buffer.hasRemaining()) {
+            int n = mChannel.write(buffer);
+            if (n > 0) {
+                mFlushCount++;
+                mBytesWritten += n;
+                backoff = MIN_BACKOFF_NANOS;
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted while waiting for the port");
+            }
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    private void flushLoop() {
+        mLock.lock();
+        try {
+            while (!mClosed) {
+                try {
+                    if (mDeadline == 0) {
+                        mPending.await();
+                        continue;
+                    }
+                    long delay = mDeadline - System.nanoTime();
+                    if (delay > 0) {
+                        mPending.awaitNanos(delay);
+                        continue;
+                    }
+                    try {
+                        flushLocked();
+                    } catch (IOException e) {
+                        mFlushError = e;
+                    }
+                } catch (InterruptedException e) {
+                    mFlushError = new InterruptedIOException("flusher interrupted");
+                    return;
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
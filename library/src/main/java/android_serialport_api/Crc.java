@@ -0,0 +1,286 @@
+package android_serialport_api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental CRC of the common serial protocols, computed in place on byte arrays and on heap or
+ * direct {@link ByteBuffer}s, so a frame can be checked as its chunks arrive.
+ * <pre>
+ * Crc crc = new Crc(Crc.CRC16_MODBUS);
+ * crc.update(frame, 0, frame.length - 2);
+ * boolean ok = crc.getValue() == ((frame[frame.length - 2] &amp; 0xff) | (frame[frame.length - 1] &amp; 0xff) &lt;&lt; 8);
+ * </pre>
+ * Bytes are processed eight at a time with slicing-by-8 tables; long runs in direct buffers are
+ * handed to the native library when it is loaded. A Crc keeps state and is not thread safe,
+ * {@link Algorithm}s are immutable and shared.
+ */
+public final class Crc {
+
+    /**
+     * CRC parameters in the usual Rocksoft model, for reflected (LSB first) or non-reflected
+     * (MSB first) CRCs of 8, 16 or 32 bits, with input and output reflected alike.
+     */
+    public static final class Algorithm {
+        private final String mName;
+        private final int mWidth;
+        private final int mPoly;
+        private final int mInit;
+        private final boolean mReflected;
+        private final int mXorOut;
+        private final int mMask;
+        /* mTables[k][b]: register after byte b followed by k zero bytes, from a zero register */
+        final int[][] mTables;
+        /* The same, flattened for the native code */
+        final int[] mNativeTables;
+
+        /**
+         * @param width     8, 16 or 32 bits
+         * @param poly      generator polynomial, normal (MSB first) form, e.g. 0x8005
+         * @param init      initial register value
+         * @param reflected true when bytes are processed LSB first (refin = refout = true)
+         * @param xorOut    XORed into the register to get the CRC value
+         */
+        public Algorithm(String name, int width, int poly, int init, boolean reflected, int xorOut) {
+            if (width != 8 && width != 16 && width != 32) {
+                throw new IllegalArgumentException("Invalid CRC width: " + width);
+            }
+            mName = name;
+            mWidth = width;
+            mMask = width == 32 ? -1 : (1 << width) - 1;
+            mPoly = poly & mMask;
+            mInit = init & mMask;
+            mReflected = reflected;
+            mXorOut = xorOut & mMask;
+            mTables = buildTables();
+            mNativeTables = new int[8 * 256];
+            for (int k = 0; k < 8; k++) {
+                System.arraycopy(mTables[k], 0, mNativeTables, k * 256, 256);
+            }
+        }
+
+        private int[][] buildTables() {
+            int[][] tables = new int[8][256];
+            int[] t0 = tables[0];
+            if (mReflected) {
+                int poly = Integer.reverse(mPoly) >>> (32 - mWidth);
+                for (int b = 0; b < 256; b++) {
+                    int crc = b;
+                    for (int bit = 0; bit < 8; bit++) {
+                        crc = (crc & 1) != 0 ? (crc >>> 1) ^ poly : crc >>> 1;
+                    }
+                    t0[b] = crc;
+                }
+            } else {
+                int top = 1 << (mWidth - 1);
+                for (int b = 0; b < 256; b++) {
+                    int crc = b << (mWidth - 8);
+                    for (int bit = 0; bit < 8; bit++) {
+                        crc = (crc & top) != 0 ? (crc << 1) ^ mPoly : crc << 1;
+                    }
+                    t0[b] = crc & mMask;
+                }
+            }
+            for (int k = 1; k < 8; k++) {
+                for (int b = 0; b < 256; b++) {
+                    /* one more zero byte */
+                    int crc = tables[k - 1][b];
+                    tables[k][b] = mReflected ? t0[crc & 0xff] ^ (crc >>> 8)
+                            : (t0[(crc >>> (mWidth - 8)) & 0xff] ^ (crc << 8)) & mMask;
+                }
+            }
+            return tables;
+        }
+
+        /* Register after one more byte */
+        int step(int crc, int b) {
+            if (mReflected) {
+                return mTables[0][(crc ^ b) & 0xff] ^ (crc >>> 8);
+            }
+            return (mTables[0][((crc >>> (mWidth - 8)) ^ b) & 0xff] ^ (crc << 8)) & mMask;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getPoly() {
+            return mPoly;
+        }
+
+        public int getInit() {
+            return mInit;
+        }
+
+        public boolean isReflected() {
+            return mReflected;
+        }
+
+        public int getXorOut() {
+            return mXorOut;
+        }
+
+        /**
+         * CRC of data[offset, offset + length) in one call.
+         */
+        public int compute(byte[] data, int offset, int length) {
+            Crc crc = new Crc(this);
+            crc.update(data, offset, length);
+            return crc.getValue();
+        }
+
+        /**
+         * CRC of the bytes between position and limit of data, which are left unconsumed.
+         */
+        public int compute(ByteBuffer data) {
+            Crc crc = new Crc(this);
+            crc.update(data, data.position(), data.remaining());
+            return crc.getValue();
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /* Modbus RTU, sent low byte first */
+    public static final Algorithm CRC16_MODBUS = new Algorithm("CRC-16/MODBUS", 16, 0x8005, 0xffff, true, 0);
+    /* CRC-16/CCITT-FALSE (IBM-3740), sent high byte first */
+    public static final Algorithm CRC16_CCITT_FALSE = new Algorithm("CRC-16/CCITT-FALSE", 16, 0x1021, 0xffff, false, 0);
+    /* XMODEM, sent high byte first */
+    public static final Algorithm CRC16_XMODEM = new Algorithm("CRC-16/XMODEM", 16, 0x1021, 0, false, 0);
+    /* CRC-16/KERMIT (CCITT-TRUE), sent low byte first */
+    public static final Algorithm CRC16_KERMIT = new Algorithm("CRC-16/KERMIT", 16, 0x1021, 0, true, 0);
+    /* The zlib and Ethernet CRC-32 */
+    public static final Algorithm CRC32 = new Algorithm("CRC-32", 32, 0x04c11db7, 0xffffffff, true, 0xffffffff);
+
+    /* Direct buffer runs at least this long go to the native library, shorter ones cost more in the JNI call */
+    private static final int NATIVE_THRESHOLD = 32;
+    private static final boolean NATIVE = loadNative();
+
+    private final Algorithm mAlgorithm;
+    private int mCrc;
+
+    public Crc(Algorithm algorithm) {
+        mAlgorithm = algorithm;
+        mCrc = algorithm.mInit;
+    }
+
+    private static boolean loadNative() {
+        try {
+            Platform.loadLibrary();
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            /* local unit tests, everything is done in Java */
+            return false;
+        }
+    }
+
+    public Algorithm getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    public void reset() {
+        mCrc = mAlgorithm.mInit;
+    }
+
+    public void update(int b) {
+        mCrc = mAlgorithm.step(mCrc, b);
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        mCrc = mAlgorithm.mReflected
+                ? updateReflected(mAlgorithm.mTables, mCrc, data, offset, length)
+                : updateNormal(mAlgorithm, mCrc, data, offset, length);
+    }
+
+    /**
+     * Update with the bytes between position and limit of data, and move its position to the limit.
+     */
+    public void update(ByteBuffer data) {
+        update(data, data.position(), data.remaining());
+        data.position(data.limit());
+    }
+
+    /**
+     * Update with data[index, index + length), whatever its position and limit.
+     */
+    public void update(ByteBuffer data, int index, int length) {
+        if (index < 0 || length < 0 || index > data.limit() - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + index, length);
+        } else if (NATIVE && data.isDirect() && length >= NATIVE_THRESHOLD) {
+            mCrc = updateDirect(mAlgorithm.mNativeTables, mAlgorithm.mWidth, mAlgorithm.mReflected, mCrc,
+                    data, index, length);
+        } else {
+            int crc = mCrc;
+            for (int i = index, end = index + length; i < end; i++) {
+                crc = mAlgorithm.step(crc, data.get(i));
+            }
+            mCrc = crc;
+        }
+    }
+
+    /**
+     * The CRC of everything since creation or the last reset, in the low getWidth() bits.
+     */
+    public int getValue() {
+        return mCrc ^ mAlgorithm.mXorOut;
+    }
+
+    /* Slicing-by-8, the register is XORed into the first bytes of each block, LSB first */
+    private static int updateReflected(int[][] tables, int crc, byte[] data, int offset, int length) {
+        int[] t0 = tables[0], t1 = tables[1], t2 = tables[2], t3 = tables[3];
+        int[] t4 = tables[4], t5 = tables[5], t6 = tables[6], t7 = tables[7];
+        int end = offset + length;
+        for (int limit = end - 7; offset < limit; offset += 8) {
+            int lo = crc ^ ((data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                    | (data[offset + 2] & 0xff) << 16 | data[offset + 3] << 24);
+            int hi = (data[offset + 4] & 0xff) | (data[offset + 5] & 0xff) << 8
+                    | (data[offset + 6] & 0xff) << 16 | data[offset + 7] << 24;
+            crc = t7[lo & 0xff] ^ t6[(lo >>> 8) & 0xff] ^ t5[(lo >>> 16) & 0xff] ^ t4[lo >>> 24]
+                    ^ t3[hi & 0xff] ^ t2[(hi >>> 8) & 0xff] ^ t1[(hi >>> 16) & 0xff] ^ t0[hi >>> 24];
+        }
+        for (; offset < end; offset++) {
+            crc = t0[(crc ^ data[offset]) & 0xff] ^ (crc >>> 8);
+        }
+        return crc;
+    }
+
+    /* Slicing-by-8, the register is XORed into the first bytes of each block, MSB first */
+    private static int updateNormal(Algorithm algorithm, int crc, byte[] data, int offset, int length) {
+        int[][] tables = algorithm.mTables;
+        int[] t0 = tables[0], t1 = tables[1], t2 = tables[2], t3 = tables[3];
+        int[] t4 = tables[4], t5 = tables[5], t6 = tables[6], t7 = tables[7];
+        int shift = 32 - algorithm.mWidth;
+        int end = offset + length;
+        for (int limit = end - 7; offset < limit; offset += 8) {
+            int lo = (crc << shift) ^ (data[offset] << 24 | (data[offset + 1] & 0xff) << 16
+                    | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff));
+            int hi = data[offset + 4] << 24 | (data[offset + 5] & 0xff) << 16
+                    | (data[offset + 6] & 0xff) << 8 | (data[offset + 7] & 0xff);
+            crc = t7[lo >>> 24] ^ t6[(lo >>> 16) & 0xff] ^ t5[(lo >>> 8) & 0xff] ^ t4[lo & 0xff]
+                    ^ t3[hi >>> 24] ^ t2[(hi >>> 16) & 0xff] ^ t1[(hi >>> 8) & 0xff] ^ t0[hi & 0xff];
+        }
+        for (; offset < end; offset++) {
+            crc = algorithm.step(crc, data[offset]);
+        }
+        return crc;
+    }
+
+    private static native int updateDirect(int[] tables, int width, boolean reflected, int crc,
+                                           ByteBuffer buffer, int index, int length);
+}
@@ -0,0 +1,81 @@
+package android_serialport_api;
+
+/**
+ * Checks the CRC carried at the end of each frame reported by a {@link FrameDecoder}, in place on
+ * the decoder's buffer, and passes on only the frames that match.
+ * <pre>
+ * // Modbus RTU: the CRC covers the whole frame and is sent low byte first
+ * decoder.decode(data, 0, n, new CrcFrameFilter(Crc.CRC16_MODBUS, 0, false, listener));
+ * </pre>
+ * Frames are passed on unchanged, CRC included. Like the decoders, a filter is not thread safe.
+ */
+public class CrcFrameFilter implements FrameDecoder.FrameListener {
+
+    private final Crc mCrc;
+    private final int mSkip;
+    private final boolean mBigEndian;
+    private final int mCrcLength;
+    private final FrameDecoder.FrameListener mListener;
+    private FrameDecoder.FrameListener mRejectListener;
+    private long mAcceptedFrames;
+    private long mRejectedFrames;
+
+    /**
+     * @param algorithm CRC of the protocol
+     * @param skip      leading bytes of each frame not covered by the CRC, e.g. a sync byte
+     * @param bigEndian byte order of the CRC field at the end of the frame
+     * @param listener  receives the frames whose CRC matches
+     */
+    public CrcFrameFilter(Crc.Algorithm algorithm, int skip, boolean bigEndian, FrameDecoder.FrameListener listener) {
+        if (skip < 0) {
+            throw new IllegalArgumentException("Invalid skip: " + skip);
+        }
+        mCrc = new Crc(algorithm);
+        mSkip = skip;
+        mBigEndian = bigEndian;
+        mCrcLength = algorithm.getWidth() / 8;
+        mListener = listener;
+    }
+
+    /**
+     * Receives the frames that fail the check or are too short to carry a CRC, null to drop them silently.
+     */
+    public void setRejectListener(FrameDecoder.FrameListener rejectListener) {
+        mRejectListener = rejectListener;
+    }
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        int covered = length - mSkip - mCrcLength;
+        if (covered >= 0) {
+            mCrc.reset();
+            mCrc.update(buffer, offset + mSkip, covered);
+            if (mCrc.getValue() == readCrc(buffer, offset + length - mCrcLength)) {
+                mAcceptedFrames++;
+                mListener.onFrame(buffer, offset, length);
+                return;
+            }
+        }
+        mRejectedFrames++;
+        if (mRejectListener != null) {
+            mRejectListener.onFrame(buffer, offset, length);
+        }
+    }
+
+    private int readCrc(byte[] buffer, int offset) {
+        int value = 0;
+        for (int i = 0; i < mCrcLength; i++) {
+            int b = buffer[offset + (mBigEndian ? i : mCrcLength - 1 - i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    public long getAcceptedFrames() {
+        return mAcceptedFrames;
+    }
+
+    public long getRejectedFrames() {
+        return mRejectedFrames;
+    }
+}
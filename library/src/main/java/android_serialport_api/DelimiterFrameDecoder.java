@@ -0,0 +1,108 @@
+package android_serialport_api;
+
+/**
+ * Splits the stream on a delimiter, e.g. {@code "\r\n"} for line based protocols.
+ * <p>
+ * Multi-byte delimiters are matched with a Knuth-Morris-Pratt automaton, so a delimiter split
+ * across chunks is still found without going back over bytes already examined.
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+
+    private final byte[] mDelimiter;
+    private final int[] mFailure;
+    private final boolean mStripDelimiter;
+    /* Number of delimiter bytes matched at the end of the partial frame */
+    private int mMatched;
+    /* Partial frame overflowed, drop everything up to the next delimiter */
+    private boolean mDiscarding;
+
+    /**
+     * @param delimiter      frame terminator
+     * @param maxFrameLength largest frame accepted, delimiter included
+     * @param stripDelimiter whether reported frames exclude the delimiter
+     */
+    public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength, boolean stripDelimiter) {
+        super(maxFrameLength);
+        if (delimiter.length == 0 || delimiter.length > maxFrameLength) {
+            throw new IllegalArgumentException("Invalid delimiter length: " + delimiter.length);
+        }
+        mDelimiter = delimiter.clone();
+        mStripDelimiter = stripDelimiter;
+        mFailure = new int[delimiter.length];
+        for (int i = 1, k = 0; i < delimiter.length; i++) {
+            while (k > 0 && delimiter[i] != delimiter[k]) {
+                k = mFailure[k - 1];
+            }
+            if (delimiter[i] == delimiter[k]) {
+                k++;
+            }
+            mFailure[i] = k;
+        }
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        /* start of the bytes of data not yet copied to the partial frame */
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            int matched = mMatched;
+            while (matched > 0 && b != mDelimiter[matched]) {
+                matched = mFailure[matched - 1];
+            }
+            if (b == mDelimiter[matched]) {
+                matched++;
+            }
+            mMatched = matched;
+            if (matched == mDelimiter.length) {
+                emit(data, start, i + 1, listener);
+                start = i + 1;
+            } else if (mFrameLength + (i + 1 - start) == mFrame.length) {
+                /* frame full without a delimiter */
+                discard(mFrameLength + (i + 1 - start));
+                mFrameLength = 0;
+                mDiscarding = true;
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            append(data, start, end - start);
+        }
+    }
+
+    private void emit(byte[] data, int start, int stop, FrameListener listener) {
+        mMatched = 0;
+        if (mDiscarding) {
+            discard(mFrameLength + stop - start);
+            mFrameLength = 0;
+            mDiscarding = false;
+            return;
+        }
+        byte[] frame;
+        int offset;
+        int length;
+        if (mFrameLength == 0) {
+            frame = data;
+            offset = start;
+            length = stop - start;
+        } else {
+            append(data, start, stop - start);
+            frame = mFrame;
+            offset = 0;
+            length = mFrameLength;
+            mFrameLength = 0;
+        }
+        if (mStripDelimiter) {
+            length -= mDelimiter.length;
+        }
+        listener.onFrame(frame, offset, length);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mMatched = 0;
+        mDiscarding = false;
+    }
+}
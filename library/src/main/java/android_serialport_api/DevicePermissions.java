@@ -0,0 +1,212 @@
+package android_serialport_api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grants read/write access to device nodes with {@code chmod 666}, through one long-lived shell
+ * started with {@link SerialPort#getSuPath()} (plain {@code sh} when it is null) instead of a new
+ * process per open.
+ * <p>
+ * The shell is started on the first grant and reused for every later one, several devices being
+ * granted with a single command. Nodes already accessible cost two access() checks and no
+ * process at all. Devices granted are remembered, but access is still checked on each open since
+ * a node recreated by a replug comes back with its default mode.
+ * <pre>
+ * // at application start, off the main thread: one su prompt, then fast opens
+ * DevicePermissions.getInstance().preGrant(Arrays.asList(new File("/dev/ttyS1"), new File("/dev/ttyS3")));
+ * </pre>
+ */
+public final class DevicePermissions {
+    private static final String TAG = "DevicePermissions";
+    private static final String MARKER = "__serial_port_done__";
+    /* Queued by the reader thread when the shell exits */
+    private static final String EOF = new String("EOF");
+
+    private static final DevicePermissions sInstance = new DevicePermissions();
+
+    private final Set<String> mGranted = new HashSet<String>();
+    private long mTimeoutMs = 10000;
+    private Process mShell;
+    private OutputStream mShellInput;
+    private LinkedBlockingQueue<String> mShellOutput;
+    private int mCommands;
+
+    private DevicePermissions() {
+    }
+
+    public static DevicePermissions getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Longest wait for a grant, which includes the user answering the su prompt the first time.
+     */
+    public synchronized void setTimeout(long timeoutMs) {
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Make device readable and writable, granting it if needed.
+     *
+     * @throws IOException when the device is still not accessible afterwards
+     */
+    public void ensure(File device) throws IOException {
+        if (device.canRead() && device.canWrite()) {
+            return;
+        }
+        grant(Arrays.asList(device));
+        if (!device.canRead() || !device.canWrite()) {
+            throw new IOException("Cannot get read/write access to " + device);
+        }
+    }
+
+    /**
+     * Grant every device of devices that is not accessible yet, with a single shell command.
+     *
+     * @return the devices accessible afterwards
+     * @throws IOException when the shell cannot be started or does not answer in time
+     */
+    public synchronized List<File> grant(Collection<File> devices) throws IOException {
+        StringBuilder command = new StringBuilder("chmod 666");
+        List<File> pending = new ArrayList<File>();
+        for (File device : devices) {
+            if (!device.canRead() || !device.canWrite()) {
+                pending.add(device);
+                command.append(' ').append(quote(device.getAbsolutePath()));
+            }
+        }
+        if (!pending.isEmpty()) {
+            SerialLog.d(TAG, "Granting " + pending);
+            run(command.toString());
+        }
+        List<File> accessible = new ArrayList<File>();
+        for (File device : devices) {
+            if (device.canRead() && device.canWrite()) {
+                accessible.add(device);
+                mGranted.add(device.getAbsolutePath());
+            } else {
+                mGranted.remove(device.getAbsolutePath());
+            }
+        }
+        return accessible;
+    }
+
+    /**
+     * Grant devices on a background thread, so the su prompt and the shell start are out of the
+     * way by the time the ports are opened. Failures are only logged.
+     */
+    public void preGrant(final Collection<File> devices) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    grant(devices);
+                } catch (IOException e) {
+                    SerialLog.w(TAG, "Pre-grant failed", e);
+                }
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Whether device was granted by this class and is still accessible.
+     */
+    public synchronized boolean isGranted(File device) {
+        return mGranted.contains(device.getAbsolutePath()) && device.canRead() && device.canWrite();
+    }
+
+    /**
+     * Stop the shell, the next grant starts a new one.
+     */
+    public synchronized void close() {
+        if (mShell == null) {
+            return;
+        }
+        try {
+            mShellInput.write("exit\n".getBytes());
+            mShellInput.flush();
+        } catch (IOException e) {
+            /* already gone */
+        }
+        mShell.destroy();
+        mShell = null;
+    }
+
+    /* Run command in the shell and wait until it is done, its output is only logged */
+    private void run(String command) throws IOException {
+        if (mShell == null) {
+            start();
+        }
+        String marker = MARKER + (++mCommands);
+        try {
+            mShellInput.write((command + "; echo " + marker + " $?\n").getBytes());
+            mShellInput.flush();
+        } catch (IOException e) {
+            close();
+            throw new IOException("Shell is gone", e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mTimeoutMs);
+        try {
+            for (; ; ) {
+                String line = mShellOutput.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (line == null || line == EOF) {
+                    close();
+                    throw new IOException(line == null ? "Shell timed out" : "Shell exited");
+                }
+                if (line.startsWith(marker + " ")) {
+                    if (!line.endsWith(" 0")) {
+                        SerialLog.w(TAG, command + " exited with " + line.substring(marker.length() + 1));
+                    }
+                    return;
+                }
+                SerialLog.w(TAG, line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the shell", e);
+        }
+    }
+
+    private void start() throws IOException {
+        String suPath = SerialPort.getSuPath();
+        final Process shell = new ProcessBuilder(suPath != null ? suPath : "sh").redirectErrorStream(true).start();
+        final LinkedBlockingQueue<String> output = new LinkedBlockingQueue<String>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(shell.getInputStream()));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        output.add(line);
+                    }
+                } catch (IOException e) {
+                    /* destroyed */
+                }
+                output.add(EOF);
+            }
+        }, TAG);
+        reader.setDaemon(true);
+        reader.start();
+        mShell = shell;
+        mShellInput = shell.getOutputStream();
+        mShellOutput = output;
+        SerialLog.d(TAG, "Shell started: " + (suPath != null ? suPath : "sh"));
+    }
+
+    private static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+}
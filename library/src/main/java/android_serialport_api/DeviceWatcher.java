@@ -0,0 +1,90 @@
+package android_serialport_api;
+
+import java.io.IOException;
+
+/**
+ * inotify watch on a device directory, reporting nodes created and deleted there on its own thread.
+ */
+class DeviceWatcher {
+    private static final String TAG = "DeviceWatcher";
+
+    interface Callback {
+        void onNodeChanged(String name, boolean added);
+
+        /**
+         * Events were lost, after an inotify queue overflow or the directory being replaced:
+         * the directory has to be listed again.
+         */
+        void onRescan();
+    }
+
+    private final long mHandle;
+    private final Callback mCallback;
+    private final Thread mThread;
+
+    DeviceWatcher(String path, Callback callback) throws IOException {
+        mCallback = callback;
+        mHandle = nativeOpen(path);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    nativeWatch(mHandle);
+                } catch (IOException e) {
+                    SerialLog.e(TAG, "watch failed", e);
+                }
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop watching, wait for the watcher thread to exit and release the inotify descriptor.
+     * Must not be called from the watcher thread.
+     */
+    void close() {
+        nativeWakeup(mHandle);
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        nativeClose(mHandle);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by nativeWatch() for every node created in or deleted from the directory, with a
+     * null name when events were lost.
+     */
+    @SuppressWarnings("unused")
+    private void onEvent(String name, boolean added) {
+        try {
+            if (name == null) {
+                mCallback.onRescan();
+            } else {
+                mCallback.onNodeChanged(name, added);
+            }
+        } catch (RuntimeException e) {
+            SerialLog.e(TAG, "callback failed", e);
+        }
+    }
+
+    // JNI
+    private native static long nativeOpen(String path) throws IOException;
+
+    private native void nativeWatch(long handle) throws IOException;
+
+    private native static void nativeWakeup(long handle);
+
+    private native static void nativeClose(long handle);
+
+    static {
+        Platform.loadLibrary();
+    }
+}
@@ -0,0 +1,33 @@
+package android_serialport_api;
+
+/**
+ * Splits the stream into frames of a fixed number of bytes.
+ */
+public class FixedLengthFrameDecoder extends FrameDecoder {
+
+    public FixedLengthFrameDecoder(int frameLength) {
+        super(frameLength);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int frameLength = mFrame.length;
+        int end = offset + length;
+        if (mFrameLength > 0) {
+            int step = Math.min(frameLength - mFrameLength, length);
+            append(data, offset, step);
+            offset += step;
+            if (mFrameLength < frameLength) {
+                return;
+            }
+            mFrameLength = 0;
+            listener.onFrame(mFrame, 0, frameLength);
+        }
+        /* whole frames are reported in place */
+        while (end - offset >= frameLength) {
+            listener.onFrame(data, offset, frameLength);
+            offset += frameLength;
+        }
+        append(data, offset, end - offset);
+    }
+}
@@ -0,0 +1,95 @@
+package android_serialport_api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental splitter of a received byte stream into protocol frames.
+ * <p>
+ * Chunks are fed in as they arrive, whatever their size; every byte is examined once, partial
+ * frames are kept in a preallocated accumulator between calls and complete frames are reported
+ * to a {@link FrameListener}. When a complete frame lies within a single chunk it is reported
+ * straight from the input, without being copied.
+ * <p>
+ * Decoders keep state and are not thread safe: feed each one from a single thread.
+ */
+public abstract class FrameDecoder {
+
+    public interface FrameListener {
+        /**
+         * @param buffer holds the frame, only valid until this method returns
+         * @param offset frame start in buffer
+         * @param length frame length
+         */
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    /* Partial frame carried over between decode() calls */
+    protected final byte[] mFrame;
+    protected int mFrameLength;
+    private long mDiscardedBytes;
+    private byte[] mScratch;
+
+    /**
+     * @param maxFrameLength largest frame accepted, longer ones are discarded
+     */
+    protected FrameDecoder(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("Invalid max frame length: " + maxFrameLength);
+        }
+        mFrame = new byte[maxFrameLength];
+    }
+
+    /**
+     * Feed the next received bytes, reporting every frame they complete.
+     */
+    public abstract void decode(byte[] data, int offset, int length, FrameListener listener);
+
+    /**
+     * Feed the bytes between position and limit of data, which is consumed entirely.
+     */
+    public void decode(ByteBuffer data, FrameListener listener) {
+        if (data.hasArray()) {
+            decode(data.array(), data.arrayOffset() + data.position(), data.remaining(), listener);
+            data.position(data.limit());
+            return;
+        }
+        if (mScratch == null) {
+            mScratch = new byte[Math.max(256, Math.min(mFrame.length, 4096))];
+        }
+        while (data.hasRemaining()) {
+            int length = Math.min(data.remaining(), mScratch.length);
+            data.get(mScratch, 0, length);
+            decode(mScratch, 0, length, listener);
+        }
+    }
+
+    /**
+     * Drop any partial frame.
+     */
+    public void reset() {
+        mFrameLength = 0;
+    }
+
+    /**
+     * Number of bytes dropped because they did not form a valid frame within the max frame length.
+     */
+    public long getDiscardedBytes() {
+        return mDiscardedBytes;
+    }
+
+    public int getMaxFrameLength() {
+        return mFrame.length;
+    }
+
+    protected void discard(int count) {
+        mDiscardedBytes += count;
+    }
+
+    /**
+     * Append data to the partial frame; the caller checks it fits.
+     */
+    protected void append(byte[] data, int offset, int length) {
+        System.arraycopy(data, offset, mFrame, mFrameLength, length);
+        mFrameLength += length;
+    }
+}
@@ -0,0 +1,109 @@
+package android_serialport_api;
+
+/**
+ * Splits the stream on line silence, as Modbus RTU does: a frame ends when no byte arrived for
+ * 3.5 character times.
+ * <p>
+ * The decoder only sees time through chunk arrival: bytes read together always belong to the same
+ * frame, and a frame followed by silence is only reported once {@link #checkTimeout(long, FrameListener)}
+ * is called after the gap. Read with a short timeout (see {@link SerialPort#setReadTimeout(int, int)})
+ * and call it after every read, including empty ones.
+ */
+public class GapFrameDecoder extends FrameDecoder {
+
+    /* Modbus RTU character: start bit, 8 data bits, parity or second stop bit, stop bit */
+    private static final int BITS_PER_CHARACTER = 11;
+    /* Above 19200 baud, Modbus fixes the inter-frame delay at 1.75 ms */
+    private static final long MIN_GAP_NANOS = 1750000L;
+
+    private final long mGapNanos;
+    private long mLastByteNanos;
+    /* The current frame exceeded the max frame length and is being dropped */
+    private boolean mOverflow;
+
+    /**
+     * Decoder with the Modbus RTU 3.5 character gap for the baud rate the port was opened with.
+     */
+    public static GapFrameDecoder forPort(SerialPort port) {
+        return new GapFrameDecoder(modbusGapNanos(port.getBaudRate()), 256);
+    }
+
+    /**
+     * Modbus RTU inter-frame silence, 3.5 characters of 11 bits, at least 1.75 ms.
+     */
+    public static long modbusGapNanos(int baudRate) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("Invalid baudrate: " + baudRate);
+        }
+        long gap = 3500000000L * BITS_PER_CHARACTER / baudRate;
+        return baudRate > 19200 ? MIN_GAP_NANOS : gap;
+    }
+
+    /**
+     * @param gapNanos       silence that ends a frame
+     * @param maxFrameLength largest frame accepted, longer ones are discarded
+     */
+    public GapFrameDecoder(long gapNanos, int maxFrameLength) {
+        super(maxFrameLength);
+        if (gapNanos <= 0) {
+            throw new IllegalArgumentException("Invalid gap: " + gapNanos);
+        }
+        mGapNanos = gapNanos;
+    }
+
+    public long getGapNanos() {
+        return mGapNanos;
+    }
+
+    /**
+     * Feed bytes read now, as given by {@link System#nanoTime()}.
+     */
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        decode(data, offset, length, System.nanoTime(), listener);
+    }
+
+    /**
+     * Feed bytes read at timestampNanos, on the {@link System#nanoTime()} time base.
+     */
+    public void decode(byte[] data, int offset, int length, long timestampNanos, FrameListener listener) {
+        checkTimeout(timestampNanos, listener);
+        if (length == 0) {
+            return;
+        }
+        if (mOverflow || length > mFrame.length - mFrameLength) {
+            /* too long for a frame: drop everything until the next silence */
+            discard(mFrameLength + length);
+            mFrameLength = 0;
+            mOverflow = true;
+        } else {
+            append(data, offset, length);
+        }
+        mLastByteNanos = timestampNanos;
+    }
+
+    /**
+     * Report the pending frame if the line has been silent for the gap at nowNanos.
+     *
+     * @return whether a frame was reported
+     */
+    public boolean checkTimeout(long nowNanos, FrameListener listener) {
+        if ((mFrameLength == 0 && !mOverflow) || nowNanos - mLastByteNanos < mGapNanos) {
+            return false;
+        }
+        if (mOverflow) {
+            mOverflow = false;
+            return false;
+        }
+        int frameLength = mFrameLength;
+        mFrameLength = 0;
+        listener.onFrame(mFrame, 0, frameLength);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mOverflow = false;
+    }
+}
@@ -0,0 +1,130 @@
+package android_serialport_api;
+
+/**
+ * Splits the stream on a length field carried in each frame header.
+ * <p>
+ * The total frame length is {@code lengthFieldOffset + lengthFieldLength + value + lengthAdjustment},
+ * where value is the unsigned length field. For instance a frame {@code [0xAA][len][payload][crc16]}
+ * where len counts the payload only is decoded with offset 1, field length 1 and adjustment 2.
+ * Reported frames always include the header.
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+
+    private final int mLengthFieldOffset;
+    private final int mLengthFieldLength;
+    private final boolean mBigEndian;
+    private final int mLengthAdjustment;
+    private final int mHeaderLength;
+    /* Total length of the frame being accumulated, -1 while the header is incomplete */
+    private int mExpected = -1;
+    /* Bytes still to skip after an invalid length field */
+    private long mSkipping;
+
+    /**
+     * @param lengthFieldOffset offset of the length field in the frame
+     * @param lengthFieldLength size of the length field: 1, 2, 3 or 4 bytes
+     * @param bigEndian         byte order of the length field
+     * @param lengthAdjustment  added to the field value to get the length of what follows the field
+     * @param maxFrameLength    largest frame accepted, longer ones are skipped
+     */
+    public LengthFieldFrameDecoder(int lengthFieldOffset, int lengthFieldLength, boolean bigEndian,
+                                   int lengthAdjustment, int maxFrameLength) {
+        super(maxFrameLength);
+        if (lengthFieldOffset < 0 || lengthFieldLength < 1 || lengthFieldLength > 4) {
+            throw new IllegalArgumentException("Invalid length field: " + lengthFieldOffset + "+" + lengthFieldLength);
+        }
+        mLengthFieldOffset = lengthFieldOffset;
+        mLengthFieldLength = lengthFieldLength;
+        mBigEndian = bigEndian;
+        mLengthAdjustment = lengthAdjustment;
+        mHeaderLength = lengthFieldOffset + lengthFieldLength;
+        if (mHeaderLength > maxFrameLength) {
+            throw new IllegalArgumentException("Header longer than max frame length");
+        }
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        while (offset < end) {
+            if (mSkipping > 0) {
+                int step = (int) Math.min(mSkipping, end - offset);
+                mSkipping -= step;
+                discard(step);
+                offset += step;
+                continue;
+            }
+            if (mFrameLength == 0 && end - offset >= mHeaderLength) {
+                /* the header is in the chunk, whole frames within it are reported in place */
+                long frameLength = frameLength(data, offset);
+                if (frameLength < mHeaderLength) {
+                    /* no way to tell where this frame ends, resync one byte further */
+                    discard(1);
+                    offset++;
+                    continue;
+                }
+                if (frameLength > mFrame.length) {
+                    mSkipping = frameLength;
+                    continue;
+                }
+                if (end - offset >= frameLength) {
+                    listener.onFrame(data, offset, (int) frameLength);
+                    offset += frameLength;
+                    continue;
+                }
+                mExpected = (int) frameLength;
+            }
+            if (mExpected < 0) {
+                int step = Math.min(mHeaderLength - mFrameLength, end - offset);
+                append(data, offset, step);
+                offset += step;
+                if (mFrameLength < mHeaderLength) {
+                    return;
+                }
+                long frameLength = frameLength(mFrame, 0);
+                if (frameLength < mHeaderLength) {
+                    discard(1);
+                    mFrameLength--;
+                    System.arraycopy(mFrame, 1, mFrame, 0, mFrameLength);
+                    continue;
+                }
+                if (frameLength > mFrame.length) {
+                    discard(mFrameLength);
+                    mSkipping = frameLength - mFrameLength;
+                    mFrameLength = 0;
+                    continue;
+                }
+                mExpected = (int) frameLength;
+            }
+            int step = Math.min(mExpected - mFrameLength, end - offset);
+            append(data, offset, step);
+            offset += step;
+            if (mFrameLength == mExpected) {
+                int frameLength = mFrameLength;
+                mFrameLength = 0;
+                mExpected = -1;
+                listener.onFrame(mFrame, 0, frameLength);
+            }
+        }
+    }
+
+    /**
+     * Total length announced by the header starting at offset.
+     */
+    private long frameLength(byte[] data, int offset) {
+        long value = 0;
+        int field = offset + mLengthFieldOffset;
+        for (int i = 0; i < mLengthFieldLength; i++) {
+            int b = data[field + (mBigEndian ? i : mLengthFieldLength - 1 - i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return mHeaderLength + value + mLengthAdjustment;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mExpected = -1;
+        mSkipping = 0;
+    }
+}
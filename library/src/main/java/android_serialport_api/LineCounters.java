@@ -0,0 +1,74 @@
+package android_serialport_api;
+
+/**
+ * Snapshot of the UART interrupt counters kept by the driver (TIOCGICOUNT), see
+ * {@link SerialPort#getLineCounters()}. Counters grow from driver load and wrap around,
+ * compare two snapshots with {@link #minus(LineCounters)}.
+ */
+public final class LineCounters {
+    static final int SIZE = 7;
+
+    private final int[] mCounts;
+
+    LineCounters(int[] counts) {
+        mCounts = counts;
+    }
+
+    /* Bytes received by the UART */
+    public int getRx() {
+        return mCounts[0];
+    }
+
+    /* Bytes transmitted by the UART */
+    public int getTx() {
+        return mCounts[1];
+    }
+
+    /* Characters received with a bad stop bit, typical of a baud rate mismatch */
+    public int getFrameErrors() {
+        return mCounts[2];
+    }
+
+    public int getParityErrors() {
+        return mCounts[3];
+    }
+
+    /* Characters lost because the UART FIFO was not emptied in time */
+    public int getOverruns() {
+        return mCounts[4];
+    }
+
+    public int getBreaks() {
+        return mCounts[5];
+    }
+
+    /* Characters lost because the tty buffer was full */
+    public int getBufferOverruns() {
+        return mCounts[6];
+    }
+
+    /**
+     * Framing and parity errors and breaks, the errors a wrong line configuration causes.
+     */
+    public int getLineErrors() {
+        return getFrameErrors() + getParityErrors() + getBreaks();
+    }
+
+    /**
+     * Counts accumulated since earlier.
+     */
+    public LineCounters minus(LineCounters earlier) {
+        int[] counts = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            counts[i] = mCounts[i] - earlier.mCounts[i];
+        }
+        return new LineCounters(counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LineCounters{rx=" + getRx() + ", tx=" + getTx() + ", frame=" + getFrameErrors()
+                + ", parity=" + getParityErrors() + ", overrun=" + getOverruns() + ", brk=" + getBreaks()
+                + ", bufOverrun=" + getBufferOverruns() + "}";
+    }
+}
@@ -0,0 +1,44 @@
+package android_serialport_api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A buffer on loan from a {@link BufferPool}. It must be released exactly once, after which
+ * its content may be overwritten at any time.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool mPool;
+    private final ByteBuffer mBuffer;
+    private final AtomicBoolean mInUse = new AtomicBoolean();
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        mPool = pool;
+        mBuffer = buffer;
+    }
+
+    /**
+     * The underlying direct buffer. For received chunks, the data lies between position and limit.
+     */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Give the buffer back to its pool.
+     *
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public void release() {
+        if (!mInUse.compareAndSet(true, false)) {
+            throw new IllegalStateException("buffer already released");
+        }
+        mPool.recycle(this);
+    }
+
+    void onAcquired() {
+        mInUse.set(true);
+        mBuffer.clear();
+    }
+}
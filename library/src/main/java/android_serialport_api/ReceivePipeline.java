@@ -0,0 +1,116 @@
+package android_serialport_api;
+
+import java.io.IOException;
+
+/**
+ * Reader thread that fills buffers from a {@link BufferPool} and hands them to a consumer.
+ * <p>
+ * Once started it allocates nothing: every chunk is read straight into a pooled direct buffer,
+ * and the consumer gives it back with {@link PooledBuffer#release()} when done, possibly from
+ * another thread. When all buffers are in use the reader waits for one to be released, leaving
+ * incoming bytes in the kernel buffer meanwhile.
+ * <p>
+ * The port should have a read timeout (see {@link SerialPort#setReadTimeout(int, int)}) so
+ * {@link #stop()} is noticed while the line is idle.
+ */
+public class ReceivePipeline {
+
+    public interface Consumer {
+        /**
+         * @param port  the port the chunk was read from
+         * @param chunk received bytes, between position and limit of {@link PooledBuffer#buffer()};
+         *              the consumer owns it and must release it
+         */
+        void onReceived(SerialPort port, PooledBuffer chunk);
+
+        /**
+         * Reading failed, the pipeline has stopped.
+         */
+        void onError(SerialPort port, IOException e);
+    }
+
+    private final SerialPort mPort;
+    private final BufferPool mPool;
+    private final Consumer mConsumer;
+    private volatile boolean mRunning;
+    private volatile long mStalls;
+    private Thread mThread;
+
+    public ReceivePipeline(SerialPort port, BufferPool pool, Consumer consumer) {
+        mPort = port;
+        mPool = pool;
+        mConsumer = consumer;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            throw new IllegalStateException("pipeline already started");
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "ReceivePipeline");
+        mThread.start();
+    }
+
+    /**
+     * Stop the reader thread and wait for it to exit. Chunks already delivered stay valid until released.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Number of times the reader found the pool empty and had to wait for a release.
+     */
+    public long getStallCount() {
+        return mStalls;
+    }
+
+    private void loop() {
+        PooledBuffer chunk = null;
+        try {
+            while (mRunning) {
+                if (chunk == null) {
+                    chunk = mPool.tryAcquire();
+                    if (chunk == null) {
+                        mStalls++;
+                        chunk = mPool.acquire();
+                    }
+                }
+                if (mPort.read(chunk.buffer()) > 0) {
+                    chunk.buffer().flip();
+                    mConsumer.onReceived(mPort, chunk);
+                    chunk = null;
+                }
+                /* on a read timeout the same buffer, still clear, is reused */
+            }
+        } catch (InterruptedException e) {
+            /* stopped while waiting for a free buffer */
+        } catch (IOException e) {
+            if (mRunning) {
+                mConsumer.onError(mPort, e);
+            }
+        } finally {
+            mRunning = false;
+            if (chunk != null) {
+                chunk.release();
+            }
+        }
+    }
+}
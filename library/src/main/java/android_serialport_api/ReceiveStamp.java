@@ -0,0 +1,58 @@
+package android_serialport_api;
+
+/**
+ * When and how a chunk was received, captured in native code the moment read() returned,
+ * before any thread wake-up, JNI return or callback dispatch on the Java side.
+ * <p>
+ * The timestamp is CLOCK_MONOTONIC, the time base of {@link System#nanoTime()} on Android and
+ * Linux JVMs, so <code>System.nanoTime() - getTimestampNanos()</code> is the delay added after
+ * the kernel handed over the bytes. A frame decoded from a chunk completes at that chunk's stamp.
+ * <p>
+ * Stamps handed to listeners are reused, copy the values to keep them.
+ */
+public final class ReceiveStamp {
+    /* Written by the native read paths */
+    long mTimestampNanos;
+    int mByteCount;
+    int mQueuedBytes;
+
+    public ReceiveStamp() {
+    }
+
+    public ReceiveStamp(ReceiveStamp other) {
+        set(other.mTimestampNanos, other.mByteCount, other.mQueuedBytes);
+    }
+
+    void set(long timestampNanos, int byteCount, int queuedBytes) {
+        mTimestampNanos = timestampNanos;
+        mByteCount = byteCount;
+        mQueuedBytes = queuedBytes;
+    }
+
+    /**
+     * CLOCK_MONOTONIC time read() returned at, in nanoseconds.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * Number of bytes that read() returned.
+     */
+    public int getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Bytes still waiting in the kernel input queue right after the read (FIONREAD), -1 if unknown.
+     * Anything above 0 means the reader is falling behind the line.
+     */
+    public int getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReceiveStamp{" + mByteCount + " bytes at " + mTimestampNanos + " ns, " + mQueuedBytes + " queued}";
+    }
+}
@@ -0,0 +1,84 @@
+package android_serialport_api;
+
+/**
+ * Half-duplex RS-485 direction control settings, see {@link SerialPort#enableRs485(Rs485Config)}.
+ * <p>
+ * The transmitter enable is driven by RTS: raised to the send level before the first byte,
+ * put back once the last stop bit has left the UART. The delays are in milliseconds, as with
+ * the kernel <code>struct serial_rs485</code>.
+ */
+public final class Rs485Config {
+    private boolean mRtsOnSend = true;
+    private int mDelayBeforeSendMs;
+    private int mDelayAfterSendMs;
+    private boolean mReceiveDuringTransmit;
+
+    public Rs485Config() {
+    }
+
+    public Rs485Config(Rs485Config other) {
+        mRtsOnSend = other.mRtsOnSend;
+        mDelayBeforeSendMs = other.mDelayBeforeSendMs;
+        mDelayAfterSendMs = other.mDelayAfterSendMs;
+        mReceiveDuringTransmit = other.mReceiveDuringTransmit;
+    }
+
+    /**
+     * RTS level while sending, true (the default) for RTS set while sending and cleared otherwise.
+     */
+    public void setRtsOnSend(boolean rtsOnSend) {
+        mRtsOnSend = rtsOnSend;
+    }
+
+    public boolean isRtsOnSend() {
+        return mRtsOnSend;
+    }
+
+    /**
+     * Time between raising the transmitter enable and the first byte, 0 by default.
+     */
+    public void setDelayBeforeSendMs(int delayMs) {
+        mDelayBeforeSendMs = checkDelay(delayMs);
+    }
+
+    public int getDelayBeforeSendMs() {
+        return mDelayBeforeSendMs;
+    }
+
+    /**
+     * Time between the last stop bit and dropping the transmitter enable, 0 by default.
+     */
+    public void setDelayAfterSendMs(int delayMs) {
+        mDelayAfterSendMs = checkDelay(delayMs);
+    }
+
+    public int getDelayAfterSendMs() {
+        return mDelayAfterSendMs;
+    }
+
+    /**
+     * Sets SER_RS485_RX_DURING_TX, false by default. Kernel RS-485 mode only, see
+     * {@link SerialPort#enableRs485(Rs485Config)}: whether the echo of our own bytes is then read
+     * back depends on the driver and the transceiver wiring, not on this flag alone.
+     */
+    public void setReceiveDuringTransmit(boolean receiveDuringTransmit) {
+        mReceiveDuringTransmit = receiveDuringTransmit;
+    }
+
+    public boolean isReceiveDuringTransmit() {
+        return mReceiveDuringTransmit;
+    }
+
+    private static int checkDelay(int delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("Invalid delay: " + delayMs);
+        }
+        return delayMs;
+    }
+
+    @Override
+    public String toString() {
+        return "Rs485Config{rtsOnSend=" + mRtsOnSend + ", delayBeforeSend=" + mDelayBeforeSendMs
+                + "ms, delayAfterSend=" + mDelayAfterSendMs + "ms, receiveDuringTransmit=" + mReceiveDuringTransmit + "}";
+    }
+}
@@ -0,0 +1,23 @@
+package android_serialport_api;
+
+import java.io.IOException;
+
+/**
+ * Receives the data read by a {@link SerialIoEngine} for a registered {@link SerialPort}.
+ * <p>
+ * Callbacks run on the engine thread, shared by every port of the engine: they must return quickly.
+ */
+public interface SerialDataListener {
+
+    /**
+     * @param port   the port the data was read from
+     * @param buffer engine owned buffer, only valid until this method returns
+     * @param size   number of bytes received, at the start of buffer
+     */
+    void onDataReceived(SerialPort port, byte[] buffer, int size);
+
+    /**
+     * The port failed or hung up. It has already been unregistered from the engine.
+     */
+    void onError(SerialPort port, IOException e);
+}
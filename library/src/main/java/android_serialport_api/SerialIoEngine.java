@@ -0,0 +1,287 @@
+package android_serialport_api;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Event driven reader for many serial ports.
+ * <p>
+ * A single thread waits in epoll for all registered ports at once and reads whatever
+ * became available, so there is neither a thread per port nor a polling read loop.
+ * Data is handed to each port's {@link SerialDataListener} on that thread. A
+ * {@link StampedDataListener} also gets the {@link ReceiveStamp} taken when read() returned.
+ * <pre>
+ * SerialIoEngine engine = new SerialIoEngine();
+ * engine.register(port1, listener1);
+ * engine.register(port2, listener2);
+ * engine.start();
+ * ...
+ * engine.shutdown();
+ * </pre>
+ * A registered port must not be read through {@link SerialPort#getInputStream()} at the same time,
+ * nor have its read mode changed, and should be unregistered before it is closed.
+ */
+public class SerialIoEngine {
+    private static final String TAG = "SerialIoEngine";
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private static class Registration {
+        final SerialPort port;
+        final SerialDataListener listener;
+
+        Registration(SerialPort port, SerialDataListener listener) {
+            this.port = port;
+            this.listener = listener;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final long mHandle;
+    private final byte[] mBuffer;
+    /* Reused for every stamped chunk, only touched by the engine thread */
+    private final ReceiveStamp mStamp = new ReceiveStamp();
+    /* Indexed by token, copied on write so the engine thread can read it without locking */
+    private volatile Registration[] mRegistrations = new Registration[8];
+    private Thread mThread;
+    private boolean mLoopExited;
+    private boolean mShutdown;
+    private boolean mDestroyed;
+
+    public SerialIoEngine() throws IOException {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize maximum number of bytes read from a port per wake-up
+     * @throws IOException when the epoll set cannot be created
+     */
+    public SerialIoEngine(int bufferSize) throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        mBuffer = new byte[bufferSize];
+        mHandle = nativeCreate();
+    }
+
+    /**
+     * Start the engine thread. Ports may be registered before or after.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("engine is shut down");
+            }
+            if (mThread != null) {
+                throw new IllegalStateException("engine already started");
+            }
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        nativeLoop(mHandle, mBuffer);
+                    } catch (IOException e) {
+                        SerialLog.e(TAG, "engine loop failed", e);
+                    } finally {
+                        synchronized (mLock) {
+                            mLoopExited = true;
+                            if (mShutdown) {
+                                destroy();
+                            }
+                        }
+                    }
+                }
+            }, TAG);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Start watching port. Each chunk read from it is passed to listener on the engine thread,
+     * with its {@link ReceiveStamp} if listener is a {@link StampedDataListener}.
+     *
+     * @throws IllegalArgumentException when the read mode of port may block with data available,
+     *                                  see {@link SerialPort#setReadTimeout(int, int)}: the engine
+     *                                  thread reads a port once epoll reports data, and a read
+     *                                  waiting for more bytes would stall every other port
+     * @throws IOException              when the port descriptor cannot be watched
+     */
+    public void register(SerialPort port, SerialDataListener listener) throws IOException {
+        if (port == null || listener == null) {
+            throw new NullPointerException();
+        }
+        int minBytes;
+        int readTimeoutMs;
+        /* both from the same setReadTimeout() call */
+        synchronized (port) {
+            minBytes = port.getMinBytes();
+            readTimeoutMs = port.getReadTimeoutMs();
+        }
+        if (minBytes > 1 || (minBytes > 0 && readTimeoutMs > 0)) {
+            throw new IllegalArgumentException("blocking read mode: minBytes " + minBytes
+                    + ", readTimeoutMs " + readTimeoutMs);
+        }
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("engine is shut down");
+            }
+            Registration[] registrations = mRegistrations;
+            int token = -1;
+            for (int i = 0; i < registrations.length; i++) {
+                if (registrations[i] == null) {
+                    if (token == -1) {
+                        token = i;
+                    }
+                } else if (registrations[i].port == port) {
+                    throw new IllegalStateException("port already registered");
+                }
+            }
+            Registration[] copy;
+            if (token == -1) {
+                token = registrations.length;
+                copy = new Registration[registrations.length * 2];
+            } else {
+                copy = new Registration[registrations.length];
+            }
+            System.arraycopy(registrations, 0, copy, 0, registrations.length);
+            copy[token] = new Registration(port, listener);
+            mRegistrations = copy;
+            try {
+                nativeAdd(mHandle, port.getFileDescriptor(), token, listener instanceof StampedDataListener);
+            } catch (IOException e) {
+                mRegistrations = registrations;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stop watching port. It is left open.
+     *
+     * @return false if the port was not registered
+     */
+    public boolean unregister(SerialPort port) {
+        synchronized (mLock) {
+            int token = indexOf(port);
+            if (token == -1) {
+                return false;
+            }
+            if (!mDestroyed) {
+                nativeRemove(mHandle, port.getFileDescriptor());
+            }
+            remove(token);
+            return true;
+        }
+    }
+
+    /**
+     * Wake the engine thread up, wait for it to exit and release the epoll set.
+     * Registered ports are left open.
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            thread = mThread;
+            if (thread == null || mLoopExited) {
+                destroy();
+            } else {
+                nativeWakeup(mHandle);
+            }
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private int indexOf(SerialPort port) {
+        Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i] != null && registrations[i].port == port) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void remove(int token) {
+        Registration[] copy = mRegistrations.clone();
+        copy[token] = null;
+        mRegistrations = copy;
+    }
+
+    private void destroy() {
+        if (!mDestroyed) {
+            mDestroyed = true;
+            nativeDestroy(mHandle);
+        }
+    }
+
+    /**
+     * Called by nativeLoop() on the engine thread for every chunk read, size -1 when the port failed.
+     * nanos and queued are the stamp of the chunk for stamped registrations, 0 otherwise.
+     */
+    @SuppressWarnings("unused")
+    private void dispatch(int token, int size, long nanos, int queued) {
+        Registration[] registrations = mRegistrations;
+        Registration registration = token < registrations.length ? registrations[token] : null;
+        if (registration == null) {
+            /* unregistered while its event was pending */
+            return;
+        }
+        SerialPortMetrics metrics = registration.port.getMetrics();
+        if (metrics != null) {
+            if (size < 0) {
+                metrics.onError();
+            } else {
+                metrics.onRead(size);
+            }
+        }
+        TrafficRecorder recorder = registration.port.getRecorder();
+        if (recorder != null && size > 0) {
+            recorder.record(TrafficRecorder.RX, mBuffer, 0, size);
+        }
+        try {
+            if (size < 0) {
+                synchronized (mLock) {
+                    if (mRegistrations[token] == registration) {
+                        remove(token);
+                    }
+                }
+                registration.listener.onError(registration.port, new IOException("serial port failed or hung up"));
+            } else if (nanos != 0 && registration.listener instanceof StampedDataListener) {
+                mStamp.set(nanos, size, queued);
+                ((StampedDataListener) registration.listener).onDataReceived(registration.port, mBuffer, size, mStamp);
+            } else {
+                registration.listener.onDataReceived(registration.port, mBuffer, size);
+            }
+        } catch (RuntimeException e) {
+            /* one faulty listener must not stop the other ports */
+            SerialLog.e(TAG, "listener failed", e);
+        }
+    }
+
+    // JNI
+    private native static long nativeCreate() throws IOException;
+
+    private native static void nativeAdd(long handle, FileDescriptor fd, int token, boolean stamped) throws IOException;
+
+    private native static void nativeRemove(long handle, FileDescriptor fd);
+
+    private native void nativeLoop(long handle, byte[] buffer) throws IOException;
+
+    private native static void nativeWakeup(long handle);
+
+    private native static void nativeDestroy(long handle);
+
+    static {
+        Platform.loadLibrary();
+    }
+}
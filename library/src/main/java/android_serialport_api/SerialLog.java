@@ -0,0 +1,58 @@
+package android_serialport_api;
+
+/**
+ * Logging of the library. Messages go to android.util.Log on Android and to stderr on a desktop
+ * JVM; {@link #setSink(Sink)} sends them elsewhere, e.g. to java.util.logging or SLF4J.
+ */
+public final class SerialLog {
+
+    /* Same values as the android.util.Log priorities */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        /**
+         * @param tr may be null
+         */
+        void println(int priority, String tag, String msg, Throwable tr);
+    }
+
+    private static volatile Sink sSink = Platform.defaultLogSink();
+
+    private SerialLog() {
+    }
+
+    /**
+     * Where the library logs to, null to restore the platform default.
+     */
+    public static void setSink(Sink sink) {
+        sSink = sink != null ? sink : Platform.defaultLogSink();
+    }
+
+    static void d(String tag, String msg) {
+        sSink.println(DEBUG, tag, msg, null);
+    }
+
+    static void i(String tag, String msg) {
+        sSink.println(INFO, tag, msg, null);
+    }
+
+    static void w(String tag, String msg) {
+        sSink.println(WARN, tag, msg, null);
+    }
+
+    static void w(String tag, String msg, Throwable tr) {
+        sSink.println(WARN, tag, msg, tr);
+    }
+
+    static void e(String tag, String msg) {
+        sSink.println(ERROR, tag, msg, null);
+    }
+
+    static void e(String tag, String msg, Throwable tr) {
+        sSink.println(ERROR, tag, msg, tr);
+    }
+}
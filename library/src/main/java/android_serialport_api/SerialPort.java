@@ -1,7 +1,5 @@
 package android_serialport_api;
 
-import android.util.Log;
-
 import androidx.annotation.IntDef;
 
 import java.io.File;
@@ -13,6 +11,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 
 
 public class SerialPort {
@@ -46,26 +46,56 @@ public class SerialPort {
         int B2 = 2;
     }
 
+    // 新参数的生效时机，见 reconfigure()
+    @IntDef(value = {Apply.NOW, Apply.DRAIN, Apply.FLUSH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Apply {
+        /* TCSANOW: immediately */
+        int NOW = 0;
+        /* TCSADRAIN: once everything written has been transmitted */
+        int DRAIN = 1;
+        /* TCSAFLUSH: once everything written has been transmitted, discarding unread input */
+        int FLUSH = 2;
+    }
+
     /**
-     * Set the su binary path, the default su binary path is {@link #DEFAULT_SU_PATH}
+     * Set the su binary path, the default su binary path is {@link #DEFAULT_SU_PATH}.
+     * The su shell kept by {@link DevicePermissions} is restarted with it on the next grant.
      *
      * @param suPath su binary path
      */
     public static void setSuPath(String suPath) {
         SerialPort.suPath = suPath;
+        DevicePermissions.getInstance().close();
     }
 
     public static String getSuPath() {
         return suPath;
     }
 
-    /**
-     * Do not remove or rename the field mFd: it is used by native method close();
-     */
-    @SuppressWarnings("FieldCanBeLocal")
+    /* Its descriptor is -1 once closed, see close() */
     private FileDescriptor mFd;
     private FileInputStream mFileInputStream;
     private FileOutputStream mFileOutputStream;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    /* null unless enabled, read once per call on the hot paths */
+    private volatile SerialPortMetrics mMetrics;
+    /* null unless set, like the metrics */
+    private volatile TrafficRecorder mRecorder;
+    /* RS-485 direction control done here around each write, null unless the driver lacks it */
+    private volatile Rs485Config mSoftwareRs485;
+    /* Held for a whole software RS-485 transmission, so RTS is not dropped under another writer */
+    private final Object mTransmitLock = new Object();
+    private Rs485Config mRs485;
+    private boolean mRs485InKernel;
+    /* Written under the port lock with the native settings, read without it by the getters and writers */
+    private volatile int mBaudRate;
+    private volatile int mParity;
+    private volatile int mDataBits;
+    private volatile int mStopBit;
+    private volatile int mMinBytes;
+    private volatile int mReadTimeoutMs;
 
     public SerialPort(File device, int baudRate) throws IOException {
         this(device, baudRate, 0);
@@ -79,55 +109,777 @@ public class SerialPort {
         this(file, baudRate, parity, dataBits, stopBit, 0);
     }
 
+    public SerialPort(File device, int baudRate, @Parity int parity, @DataBit int dataBits, @StopBit int stopBit, int flags) throws IOException {
+        this(device, baudRate, parity, dataBits, stopBit, flags, 0, 0);
+    }
+
     /**
      * 打开串口
      *
      * @param device   串口设备文件
-     * @param baudRate 波特率
+     * @param baudRate 波特率，非标准波特率（如 250000）需内核支持 termios2
      * @param parity   奇偶校验，0 None（默认）； 1 Odd； 2 Even
      * @param dataBits 数据位，5 ~ 8 （默认 8）
      * @param stopBit  停止位，1 或 2 默认 1）
      * @param flags    标记 0（默认）
+     * @param minBytes      读取时最少等待的字节数（VMIN），0 ~ 255
+     * @param readTimeoutMs 读取超时，单位毫秒（VTIME，精度 100 毫秒，最大 25500）
      * @throws IOException 串口打开失败时抛出
+     * @see #setReadTimeout(int, int)
      */
-    public SerialPort(File device, int baudRate, @Parity int parity, @DataBit int dataBits, @StopBit int stopBit, int flags) throws IOException {
-        /* Check access permission */
-        if (!device.canRead() || !device.canWrite()) {
-            Log.d(TAG, "Missing read/write permission, trying to chmod the file");
-            try {
-                /* Missing read/write permission, trying to chmod the file */
-                String cmd = "chmod 666 " + device.getAbsolutePath() + "\n" + "exit\n";
-                Process ps;
-                if (suPath == null) {
-                    ps = Runtime.getRuntime().exec(cmd);
-                } else {
-                    ps = Runtime.getRuntime().exec(suPath);
-                    ps.getOutputStream().write(cmd.getBytes());
-                }
-                if ((ps.waitFor() != 0) || !device.canRead() || !device.canWrite()) {
-                    throw new IOException("open serial port failure");
-                }
-            } catch (Exception e) {
-                throw new IOException("open serial port failure", e);
-            }
+    public SerialPort(File device, int baudRate, @Parity int parity, @DataBit int dataBits, @StopBit int stopBit, int flags,
+                      int minBytes, int readTimeoutMs) throws IOException {
+        /* Check access permission, chmod through the shared su shell when missing */
+        try {
+            DevicePermissions.getInstance().ensure(device);
+        } catch (IOException e) {
+            throw new IOException("open serial port failure", e);
         }
 
-        mFd = open(device.getAbsolutePath(), baudRate, parity, dataBits, stopBit, flags);
+        mFd = open(device.getAbsolutePath(), baudRate, parity, dataBits, stopBit, flags,
+                minBytes, toDeciseconds(readTimeoutMs));
         if (mFd == null) {
-            Log.e(TAG, "native open returns null");
+            SerialLog.e(TAG, "native open returns null");
             throw new IOException("open serial port failure");
         }
         mFileInputStream = new FileInputStream(mFd);
         mFileOutputStream = new FileOutputStream(mFd);
+        mInputStream = new PortInputStream();
+        mOutputStream = new PortOutputStream();
+        mBaudRate = baudRate;
+        mParity = parity;
+        mDataBits = dataBits;
+        mStopBit = stopBit;
+        mMinBytes = minBytes;
+        mReadTimeoutMs = readTimeoutMs;
     }
 
     // Getters and setters
     public InputStream getInputStream() {
-        return mFileInputStream;
+        return mInputStream;
     }
 
     public OutputStream getOutputStream() {
-        return mFileOutputStream;
+        return mOutputStream;
+    }
+
+    /**
+     * Start counting the traffic of this port, see {@link SerialPortMetrics}. Until then the
+     * read and write paths only pay for a null check.
+     *
+     * @return the metrics, the same instance if already enabled
+     */
+    public synchronized SerialPortMetrics enableMetrics() {
+        if (mMetrics == null) {
+            mMetrics = new SerialPortMetrics(this);
+        }
+        return mMetrics;
+    }
+
+    public synchronized void disableMetrics() {
+        mMetrics = null;
+    }
+
+    /**
+     * The metrics of this port, null unless {@link #enableMetrics()} was called.
+     */
+    public SerialPortMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Record every chunk read from or written to this port, null to stop. The recorder is not
+     * closed here and may be shared by several ports.
+     */
+    public void setRecorder(TrafficRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    public TrafficRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Drive the transmitter enable of a half-duplex RS-485 transceiver from RTS.
+     * <p>
+     * The kernel RS-485 mode (TIOCSRS485) is used when the driver has it: RTS is switched by the
+     * UART driver itself, right before the first bit and after the last stop bit. Otherwise every
+     * write through this port, its streams included, raises RTS first and, once the output has
+     * drained, drops it in the same native call (TIOCMSET); concurrent writes are serialized meanwhile.
+     * <p>
+     * {@link Rs485Config#isReceiveDuringTransmit()} only applies to the kernel mode, where it sets
+     * SER_RS485_RX_DURING_TX for the driver. The fallback never discards input: a transceiver
+     * whose receiver stays enabled echoes the bytes sent, and they are read back like any other.
+     * Nothing received after the last stop bit is lost, responses included.
+     *
+     * @return true for the kernel mode, false for the fallback
+     * @throws IOException when the driver supports neither RS-485 nor RTS control, e.g. a pty
+     */
+    public synchronized boolean enableRs485(Rs485Config config) throws IOException {
+        Rs485Config copy = new Rs485Config(config);
+        boolean inKernel;
+        /* no transmission in between, and the settings only change once both calls succeeded */
+        synchronized (mTransmitLock) {
+            inKernel = setRs485(mFd, true, copy.isRtsOnSend(), copy.getDelayBeforeSendMs(),
+                    copy.getDelayAfterSendMs(), copy.isReceiveDuringTransmit());
+            if (!inKernel) {
+                /* receive state, and fails early without modem control */
+                setRts(mFd, !copy.isRtsOnSend());
+            }
+            mSoftwareRs485 = inKernel ? null : copy;
+            mRs485 = copy;
+            mRs485InKernel = inKernel;
+        }
+        SerialLog.d(TAG, "RS-485 " + (inKernel ? "in kernel: " : "through RTS toggling: ") + copy);
+        return inKernel;
+    }
+
+    /**
+     * Back to plain RS-232 line control.
+     *
+     * @throws IOException when the driver rejects it
+     */
+    public synchronized void disableRs485() throws IOException {
+        if (mRs485 == null) {
+            return;
+        }
+        if (mRs485InKernel) {
+            setRs485(mFd, false, false, 0, 0, false);
+        } else {
+            synchronized (mTransmitLock) {
+                mSoftwareRs485 = null;
+            }
+        }
+        mRs485 = null;
+    }
+
+    /**
+     * The RS-485 settings in use, null when disabled.
+     */
+    public synchronized Rs485Config getRs485Config() {
+        return mRs485 != null ? new Rs485Config(mRs485) : null;
+    }
+
+    /**
+     * Whether RS-485 direction control is done by the driver, false for the fallback or when disabled.
+     */
+    public synchronized boolean isRs485InKernel() {
+        return mRs485 != null && mRs485InKernel;
+    }
+
+    /**
+     * The baud rate the port is configured for. Rates outside the standard table are set
+     * through termios2 when the kernel supports it, see {@link #getAppliedBaudRate()}.
+     */
+    public int getBaudRate() {
+        return mBaudRate;
+    }
+
+    /**
+     * The baud rate currently applied by the driver, which may differ from {@link #getBaudRate()}
+     * when the UART clock cannot produce the requested rate exactly.
+     *
+     * @throws IOException when the terminal attributes cannot be read
+     */
+    public int getAppliedBaudRate() throws IOException {
+        return appliedBaudRate(mFd);
+    }
+
+    @Parity
+    public int getParity() {
+        return mParity;
+    }
+
+    @DataBit
+    public int getDataBits() {
+        return mDataBits;
+    }
+
+    @StopBit
+    public int getStopBit() {
+        return mStopBit;
+    }
+
+    /**
+     * Change the baud rate of the open port, keeping parity, data and stop bits.
+     *
+     * @see #reconfigure(int, int, int, int, int)
+     */
+    public synchronized void reconfigure(int baudRate, @Apply int when) throws IOException {
+        reconfigure(baudRate, mParity, mDataBits, mStopBit, when);
+    }
+
+    /**
+     * Change the line settings of the open port in place, without closing it: no permission
+     * check, open() or input flush as with a new {@link SerialPort}, and no bytes lost in between.
+     * The read timeout set with {@link #setReadTimeout(int, int)} is kept. Calls are serialized
+     * with that method and {@link #close()}, the getters return the new settings once it returns.
+     *
+     * @param when when the new settings take effect, see {@link Apply}
+     * @throws IOException when the driver rejects the settings
+     */
+    public synchronized void reconfigure(int baudRate, @Parity int parity, @DataBit int dataBits, @StopBit int stopBit,
+                                         @Apply int when) throws IOException {
+        reconfigure(mFd, when, baudRate, parity, dataBits, stopBit);
+        mBaudRate = baudRate;
+        mParity = parity;
+        mDataBits = dataBits;
+        mStopBit = stopBit;
+    }
+
+    /**
+     * Read into buffer, from its position up to its limit, with a single read() call.
+     * <p>
+     * A direct buffer is filled in place by the kernel, without the intermediate heap
+     * copy of {@link #getInputStream()}. Heap buffers are supported but read through the stream.
+     *
+     * @return the number of bytes read, 0 when the read timeout elapsed with no data;
+     * the buffer position is advanced by that amount
+     * @throws IOException when the read fails
+     * @see #setReadTimeout(int, int)
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        return read(buffer, null);
+    }
+
+    /**
+     * {@link #read(ByteBuffer)}, also filling stamp with the time read() returned, the byte count
+     * and the bytes left in the input queue. For a direct buffer these are taken in native code
+     * right after the read; heap buffers are stamped on return from the stream.
+     * A read that times out leaves stamp unchanged.
+     *
+     * @param stamp filled when bytes were read, null for none
+     */
+    public int read(ByteBuffer buffer, ReceiveStamp stamp) throws IOException {
+        SerialPortMetrics metrics = mMetrics;
+        TrafficRecorder recorder = mRecorder;
+        if (metrics == null && recorder == null) {
+            return readBuffer(buffer, stamp);
+        }
+        try {
+            int n = readBuffer(buffer, stamp);
+            if (metrics != null) {
+                metrics.onRead(n);
+            }
+            if (recorder != null) {
+                recorder.record(TrafficRecorder.RX, buffer, buffer.position() - n, n);
+            }
+            return n;
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.onError();
+            }
+            throw e;
+        }
+    }
+
+    private int readBuffer(ByteBuffer buffer, ReceiveStamp stamp) throws IOException {
+        if (buffer.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int position = buffer.position();
+        int length = buffer.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        int n;
+        if (buffer.isDirect()) {
+            n = stamp == null ? readDirect(mFd, buffer, position, length)
+                    : readDirectStamped(mFd, buffer, position, length, stamp);
+        } else {
+            n = mFileInputStream.read(buffer.array(), buffer.arrayOffset() + position, length);
+            /* FileInputStream reports an empty tty read as end of stream */
+            if (n < 0) {
+                n = 0;
+            }
+            if (stamp != null && n > 0) {
+                stamp.set(System.nanoTime(), n, inputQueueSize(mFd));
+            }
+        }
+        buffer.position(position + n);
+        return n;
+    }
+
+    /**
+     * Write buffer, from its position up to its limit, with a single write() call.
+     * <p>
+     * A direct buffer is handed to the kernel in place; heap buffers go through the stream.
+     *
+     * @return the number of bytes written; the buffer position is advanced by that amount
+     * @throws IOException when the write fails
+     */
+    public int write(ByteBuffer buffer) throws IOException {
+        SerialPortMetrics metrics = mMetrics;
+        TrafficRecorder recorder = mRecorder;
+        if (metrics == null && recorder == null) {
+            return writeBuffer(buffer);
+        }
+        try {
+            int position = buffer.position();
+            int n = writeBuffer(buffer);
+            if (metrics != null) {
+                metrics.onWrite(n);
+            }
+            if (recorder != null) {
+                recorder.record(TrafficRecorder.TX, buffer, position, n);
+            }
+            return n;
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.onError();
+            }
+            throw e;
+        }
+    }
+
+    private int writeBuffer(ByteBuffer buffer) throws IOException {
+        Rs485Config rs485 = mSoftwareRs485;
+        if (rs485 == null) {
+            return transmitBuffer(buffer);
+        }
+        synchronized (mTransmitLock) {
+            beginTransmit(rs485);
+            try {
+                return transmitBuffer(buffer);
+            } finally {
+                endTransmit(rs485);
+            }
+        }
+    }
+
+    /* Software RS-485: RTS to the send level, under mTransmitLock */
+    private void beginTransmit(Rs485Config rs485) throws IOException {
+        rs485Begin(mFd, rs485.isRtsOnSend(), rs485.getDelayBeforeSendMs());
+    }
+
+    /* Software RS-485: drain, then RTS back to receive */
+    private void endTransmit(Rs485Config rs485) throws IOException {
+        rs485End(mFd, rs485.isRtsOnSend(), rs485.getDelayAfterSendMs(), characterNanos());
+    }
+
+    /* Time one character takes on the line: start, data, parity and stop bits */
+    private long characterNanos() {
+        int bits = 1 + mDataBits + (mParity != Parity.NONE ? 1 : 0) + mStopBit;
+        return bits * 1000000000L / Math.max(mBaudRate, 1);
+    }
+
+    private int transmitBuffer(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        int length = buffer.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        if (buffer.isDirect()) {
+            int n = writeDirect(mFd, buffer, position, length);
+            buffer.position(position + n);
+            return n;
+        }
+        if (buffer.hasArray()) {
+            mFileOutputStream.write(buffer.array(), buffer.arrayOffset() + position, length);
+            buffer.position(position + length);
+        } else {
+            byte[] copy = new byte[length];
+            buffer.get(copy);
+            mFileOutputStream.write(copy);
+        }
+        return length;
+    }
+
+    /**
+     * Gathering write: send the remaining bytes of every segment, in order, with a single
+     * writev() call, e.g. a frame built as separate header, payload and checksum buffers.
+     * The segments leave the port back to back, without being joined first.
+     * <p>
+     * Direct buffers are passed to the kernel in place. If any segment is a heap buffer,
+     * the segments are copied into one array and written with a single write() instead.
+     * Each segment adds a fixed JNI cost of a few hundred nanoseconds, so copying short
+     * segments into one direct buffer for {@link #write(ByteBuffer)} can be cheaper still.
+     *
+     * @return the number of bytes written, segment positions are advanced accordingly
+     * @throws IOException when the write fails
+     */
+    public long write(ByteBuffer... segments) throws IOException {
+        SerialPortMetrics metrics = mMetrics;
+        TrafficRecorder recorder = mRecorder;
+        if (metrics == null && recorder == null) {
+            return writeSegments(segments);
+        }
+        try {
+            int[] positions = recorder != null ? positions(segments) : null;
+            long n = writeSegments(segments);
+            if (metrics != null) {
+                metrics.onWrite(n);
+            }
+            if (recorder != null) {
+                record(recorder, TrafficRecorder.TX, segments, positions);
+            }
+            return n;
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.onError();
+            }
+            throw e;
+        }
+    }
+
+    private long writeSegments(ByteBuffer[] segments) throws IOException {
+        Rs485Config rs485 = mSoftwareRs485;
+        if (rs485 == null) {
+            return transmitSegments(segments);
+        }
+        synchronized (mTransmitLock) {
+            beginTransmit(rs485);
+            try {
+                return transmitSegments(segments);
+            } finally {
+                endTransmit(rs485);
+            }
+        }
+    }
+
+    private long transmitSegments(ByteBuffer[] segments) throws IOException {
+        if (allDirect(segments)) {
+            return advance(segments, writeVector(mFd, segments, regions(segments)));
+        }
+        byte[] joined = new byte[(int) remaining(segments)];
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            int length = segment.remaining();
+            segment.duplicate().get(joined, offset, length);
+            offset += length;
+        }
+        mFileOutputStream.write(joined);
+        return advance(segments, joined.length);
+    }
+
+    /**
+     * Scattering read: fill the segments, in order, with a single readv() call, e.g. a fixed
+     * size header buffer followed by a payload buffer.
+     * <p>
+     * Direct buffers are filled in place. If any segment is a heap buffer, data is read into one
+     * array and copied out to the segments.
+     *
+     * @return the number of bytes read, 0 when the read timeout elapsed with no data;
+     * segment positions are advanced accordingly
+     * @throws IOException when the read fails
+     */
+    public long read(ByteBuffer... segments) throws IOException {
+        SerialPortMetrics metrics = mMetrics;
+        TrafficRecorder recorder = mRecorder;
+        if (metrics == null && recorder == null) {
+            return readSegments(segments);
+        }
+        try {
+            int[] positions = recorder != null ? positions(segments) : null;
+            long n = readSegments(segments);
+            if (metrics != null) {
+                metrics.onRead(n);
+            }
+            if (recorder != null) {
+                record(recorder, TrafficRecorder.RX, segments, positions);
+            }
+            return n;
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.onError();
+            }
+            throw e;
+        }
+    }
+
+    private long readSegments(ByteBuffer[] segments) throws IOException {
+        for (ByteBuffer segment : segments) {
+            if (segment.isReadOnly()) {
+                throw new ReadOnlyBufferException();
+            }
+        }
+        if (allDirect(segments)) {
+            return advance(segments, readVector(mFd, segments, regions(segments)));
+        }
+        byte[] scattered = new byte[(int) remaining(segments)];
+        int n = scattered.length == 0 ? 0 : mFileInputStream.read(scattered);
+        if (n <= 0) {
+            return 0;
+        }
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            int length = Math.min(segment.remaining(), n - offset);
+            segment.put(scattered, offset, length);
+            offset += length;
+        }
+        return n;
+    }
+
+    private static boolean allDirect(ByteBuffer[] segments) {
+        for (ByteBuffer segment : segments) {
+            if (!segment.isDirect()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long remaining(ByteBuffer[] segments) {
+        long remaining = 0;
+        for (ByteBuffer segment : segments) {
+            remaining += segment.remaining();
+        }
+        if (remaining > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments too large: " + remaining);
+        }
+        return remaining;
+    }
+
+    /* Position and remaining byte count of each segment, for the native vector I/O */
+    private static int[] regions(ByteBuffer[] segments) {
+        int[] regions = new int[2 * segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            regions[2 * i] = segments[i].position();
+            regions[2 * i + 1] = segments[i].remaining();
+        }
+        return regions;
+    }
+
+    private static int[] positions(ByteBuffer[] segments) {
+        int[] positions = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            positions[i] = segments[i].position();
+        }
+        return positions;
+    }
+
+    /* Record the bytes between the former and the current position of each segment */
+    private static void record(TrafficRecorder recorder, int direction, ByteBuffer[] segments, int[] positions) {
+        for (int i = 0; i < segments.length; i++) {
+            recorder.record(direction, segments[i], positions[i], segments[i].position() - positions[i]);
+        }
+    }
+
+    /**
+     * Move the segment positions forward by a total of count bytes, filling segments in order.
+     */
+    private static long advance(ByteBuffer[] segments, long count) {
+        long left = count;
+        for (int i = 0; i < segments.length && left > 0; i++) {
+            int step = (int) Math.min(segments[i].remaining(), left);
+            segments[i].position(segments[i].position() + step);
+            left -= step;
+        }
+        return count;
+    }
+
+    /**
+     * Block until everything written so far has been transmitted (tcdrain).
+     *
+     * @throws IOException when the driver reports an error
+     */
+    public void drain() throws IOException {
+        drain(mFd);
+        SerialPortMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onDrained();
+        }
+    }
+
+    /**
+     * Wait until the driver accepts more output (poll for POLLOUT), for a write that returned 0 on a
+     * port opened with O_NONBLOCK or a full pseudo-terminal.
+     *
+     * @return false when timeoutMs elapsed without room becoming available
+     * @throws IOException when the poll fails
+     */
+    public boolean awaitWritable(int timeoutMs) throws IOException {
+        return awaitWritable(mFd, timeoutMs);
+    }
+
+    /**
+     * Number of bytes written but not yet transmitted by the driver (TIOCOUTQ).
+     *
+     * @throws IOException when the driver does not support the query
+     */
+    public int getOutputQueueSize() throws IOException {
+        return outputQueueSize(mFd);
+    }
+
+    /**
+     * Number of bytes received by the driver but not yet read (FIONREAD).
+     *
+     * @throws IOException when the driver does not support the query
+     */
+    public int getInputQueueSize() throws IOException {
+        return inputQueueSize(mFd);
+    }
+
+    /**
+     * Current UART interrupt counters, bytes and line errors, as kept by the driver.
+     *
+     * @return null when the driver keeps no counters, as ptys and most USB adapters
+     * @throws IOException when the query fails
+     */
+    public LineCounters getLineCounters() throws IOException {
+        int[] counts = new int[LineCounters.SIZE];
+        return readCounters(mFd, counts) ? new LineCounters(counts) : null;
+    }
+
+    FileDescriptor getFileDescriptor() {
+        return mFd;
+    }
+
+    /**
+     * Change how {@code read()} on {@link #getInputStream()} blocks, on the already opened port.
+     * <ul>
+     * <li>{@code minBytes = 0, readTimeoutMs = 0}: return immediately, even with no data (the legacy default)</li>
+     * <li>{@code minBytes = 0, readTimeoutMs > 0}: return as soon as one byte arrives or the timeout elapses</li>
+     * <li>{@code minBytes > 0, readTimeoutMs = 0}: block until {@code minBytes} bytes are available</li>
+     * <li>{@code minBytes > 0, readTimeoutMs > 0}: block until the first byte, then return once
+     * {@code minBytes} bytes arrived or the line has been idle for {@code readTimeoutMs}</li>
+     * </ul>
+     * A blocking read lets the reader thread sleep in the kernel instead of spinning while the line is idle.
+     *
+     * @param minBytes      VMIN, 0 ~ 255
+     * @param readTimeoutMs VTIME in milliseconds, rounded up to the next 100 ms, 0 ~ 25500
+     * @throws IOException when the terminal attributes cannot be applied
+     */
+    public synchronized void setReadTimeout(int minBytes, int readTimeoutMs) throws IOException {
+        setReadMode(mFd, minBytes, toDeciseconds(readTimeoutMs));
+        mMinBytes = minBytes;
+        mReadTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * VMIN set with {@link #setReadTimeout(int, int)} or at open.
+     */
+    public int getMinBytes() {
+        return mMinBytes;
+    }
+
+    /**
+     * Read timeout set with {@link #setReadTimeout(int, int)} or at open, as requested before rounding.
+     */
+    public int getReadTimeoutMs() {
+        return mReadTimeoutMs;
+    }
+
+    private static int toDeciseconds(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid read timeout: " + millis);
+        }
+        return (millis + 99) / 100;
+    }
+
+    /**
+     * Close the port. Only the first call closes the descriptor, later ones and concurrent ones
+     * return, and reads or writes after it fail instead of reaching a file that reused the descriptor.
+     */
+    public synchronized void close() {
+        close(mFd);
+    }
+
+    /**
+     * The port input stream, counting and recording reads when enabled.
+     */
+    private class PortInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            if (mMetrics == null && mRecorder == null) {
+                return mFileInputStream.read();
+            }
+            byte[] one = new byte[1];
+            return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            SerialPortMetrics metrics = mMetrics;
+            TrafficRecorder recorder = mRecorder;
+            if (metrics == null && recorder == null) {
+                return mFileInputStream.read(b, off, len);
+            }
+            try {
+                int n = mFileInputStream.read(b, off, len);
+                if (metrics != null) {
+                    metrics.onRead(n);
+                }
+                if (recorder != null && n > 0) {
+                    recorder.record(TrafficRecorder.RX, b, off, n);
+                }
+                return n;
+            } catch (IOException e) {
+                if (metrics != null) {
+                    metrics.onError();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mFileInputStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFileInputStream.close();
+        }
+    }
+
+    /**
+     * The port output stream, counting and recording writes when enabled.
+     */
+    private class PortOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (mMetrics == null && mRecorder == null && mSoftwareRs485 == null) {
+                mFileOutputStream.write(b);
+                return;
+            }
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            SerialPortMetrics metrics = mMetrics;
+            TrafficRecorder recorder = mRecorder;
+            if (metrics == null && recorder == null) {
+                transmit(b, off, len);
+                return;
+            }
+            try {
+                transmit(b, off, len);
+                if (metrics != null) {
+                    metrics.onWrite(len);
+                }
+                if (recorder != null) {
+                    recorder.record(TrafficRecorder.TX, b, off, len);
+                }
+            } catch (IOException e) {
+                if (metrics != null) {
+                    metrics.onError();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFileOutputStream.close();
+        }
+
+        private void transmit(byte[] b, int off, int len) throws IOException {
+            Rs485Config rs485 = mSoftwareRs485;
+            if (rs485 == null) {
+                mFileOutputStream.write(b, off, len);
+                return;
+            }
+            synchronized (mTransmitLock) {
+                beginTransmit(rs485);
+                try {
+                    mFileOutputStream.write(b, off, len);
+                } finally {
+                    endTransmit(rs485);
+                }
+            }
+        }
     }
 
     // JNI
@@ -137,12 +889,52 @@ public class SerialPort {
             int parity,
             int dataBits,
             int stopBit,
-            int flags
+            int flags,
+            int vmin,
+            int vtime
     );
 
-    public native void close();
+    private native static void setReadMode(FileDescriptor fd, int vmin, int vtime) throws IOException;
+
+    private native static void reconfigure(FileDescriptor fd, int when, int baudRate, int parity, int dataBits,
+                                           int stopBit) throws IOException;
+
+    private native static int readDirect(FileDescriptor fd, ByteBuffer buffer, int offset, int length) throws IOException;
+
+    private native static int readDirectStamped(FileDescriptor fd, ByteBuffer buffer, int offset, int length,
+                                                ReceiveStamp stamp) throws IOException;
+
+    private native static int writeDirect(FileDescriptor fd, ByteBuffer buffer, int offset, int length) throws IOException;
+
+    private native static long readVector(FileDescriptor fd, ByteBuffer[] segments, int[] regions) throws IOException;
+
+    private native static long writeVector(FileDescriptor fd, ByteBuffer[] segments, int[] regions) throws IOException;
+
+    private native static void drain(FileDescriptor fd) throws IOException;
+
+    private native static boolean awaitWritable(FileDescriptor fd, int timeoutMs) throws IOException;
+
+    private native static int outputQueueSize(FileDescriptor fd) throws IOException;
+
+    private native static int inputQueueSize(FileDescriptor fd) throws IOException;
+
+    private native static int appliedBaudRate(FileDescriptor fd) throws IOException;
+
+    private native static boolean readCounters(FileDescriptor fd, int[] counts) throws IOException;
+
+    private native static boolean setRs485(FileDescriptor fd, boolean enabled, boolean rtsOnSend, int delayBeforeSendMs,
+                                           int delayAfterSendMs, boolean receiveDuringTransmit) throws IOException;
+
+    private native static void setRts(FileDescriptor fd, boolean on) throws IOException;
+
+    private native static void rs485Begin(FileDescriptor fd, boolean rtsOnSend, int delayBeforeSendMs) throws IOException;
+
+    private native static void rs485End(FileDescriptor fd, boolean rtsOnSend, int delayAfterSendMs,
+                                        long characterNanos) throws IOException;
+
+    private native static void close(FileDescriptor fd);
 
     static {
-        System.loadLibrary("serial-port");
+        Platform.loadLibrary();
     }
 }
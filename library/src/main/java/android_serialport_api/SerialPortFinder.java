@@ -1,17 +1,30 @@
 package android_serialport_api;
 
-import android.util.Log;
-
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.Vector;
 
 
 public class SerialPortFinder {
 
+    /**
+     * Notified of serial devices appearing in or disappearing from /dev, see {@link #startWatching(DeviceListener)}.
+     * Called on the watcher thread, which must not call {@link #stopWatching()}.
+     */
+    public interface DeviceListener {
+        void onDeviceAdded(Driver driver, File device);
+
+        void onDeviceRemoved(Driver driver, File device);
+    }
+
     public class Driver {
         public Driver(String name, String root) {
             mDriverName = name;
@@ -20,66 +33,294 @@ public class SerialPortFinder {
 
         private String mDriverName;
         private String mDeviceRoot;
-        Vector<File> mDevices = null;
+        Vector<File> mDevices = new Vector<File>();
 
+        /**
+         * Device nodes of this driver, a snapshot: the watcher thread keeps updating the live list.
+         */
         public Vector<File> getDevices() {
-            if (mDevices == null) {
-                mDevices = new Vector<File>();
-                File dev = new File("/dev");
-
-                File[] files = dev.listFiles();
-
-                if (files != null) {
-                    int i;
-                    for (i = 0; i < files.length; i++) {
-                        if (files[i].getAbsolutePath().startsWith(mDeviceRoot)) {
-                            Log.d(TAG, "Found new device: " + files[i]);
-                            mDevices.add(files[i]);
-                        }
-                    }
-                }
+            synchronized (SerialPortFinder.this) {
+                index();
+                return new Vector<File>(mDevices);
             }
-            return mDevices;
         }
 
         public String getName() {
             return mDriverName;
         }
+
+        public String getDeviceRoot() {
+            return mDeviceRoot;
+        }
     }
 
     private static final String TAG = "SerialPort";
 
+    private final File mDevDir;
+    private final File mDriversFile;
+
     private Vector<Driver> mDrivers = null;
+    /* Drivers by device node name prefix, e.g. "ttyUSB" for the /dev/ttyUSB root */
+    private Map<String, List<Driver>> mDriversByRoot;
+    /* Distinct prefix lengths in mDriversByRoot, the only substrings worth looking up */
+    private int[] mRootLengths;
+    private boolean mIndexed;
+
+    private DeviceWatcher mWatcher;
+    private DeviceListener mListener;
 
-    private Vector<Driver> getDrivers() throws IOException {
+    public SerialPortFinder() {
+        this(new File("/dev"), new File("/proc/tty/drivers"));
+    }
+
+    /**
+     * @param devDir      directory holding the device nodes
+     * @param driversFile tty driver table, in the /proc/tty/drivers format
+     */
+    public SerialPortFinder(File devDir, File driversFile) {
+        mDevDir = devDir;
+        mDriversFile = driversFile;
+    }
+
+    private synchronized Vector<Driver> getDrivers() throws IOException {
         if (mDrivers == null) {
-            mDrivers = new Vector<Driver>();
-            LineNumberReader r = new LineNumberReader(new FileReader("/proc/tty/drivers"));
-            String l;
-            while ((l = r.readLine()) != null) {
-                // Issue 3:
-                // Since driver name may contain spaces, we do not extract driver name with split()
-                String drivername = l.substring(0, 0x15).trim();
-                String[] w = l.split(" +");
-                if ((w.length >= 5) && (w[w.length - 1].equals("serial"))) {
-                    Log.d(TAG, "Found new driver " + drivername + " on " + w[w.length - 4]);
-                    mDrivers.add(new Driver(drivername, w[w.length - 4]));
+            Vector<Driver> drivers = new Vector<Driver>();
+            LineNumberReader r = new LineNumberReader(new FileReader(mDriversFile));
+            try {
+                String l;
+                while ((l = r.readLine()) != null) {
+                    // Issue 3:
+                    // Since driver name may contain spaces, we do not extract driver name with split()
+                    String drivername = l.substring(0, Math.min(0x15, l.length())).trim();
+                    String[] w = l.split(" +");
+                    if ((w.length >= 5) && (w[w.length - 1].equals("serial"))) {
+                        SerialLog.d(TAG, "Found new driver " + drivername + " on " + w[w.length - 4]);
+                        drivers.add(new Driver(drivername, w[w.length - 4]));
+                    }
+                }
+            } finally {
+                r.close();
+            }
+
+            Map<String, List<Driver>> byRoot = new HashMap<String, List<Driver>>();
+            TreeSet<Integer> lengths = new TreeSet<Integer>();
+            String devPrefix = "/dev/";
+            for (Driver driver : drivers) {
+                String root = driver.mDeviceRoot;
+                String name = root.startsWith(devPrefix) ? root.substring(devPrefix.length()) : root;
+                if (name.length() == 0 || name.indexOf('/') >= 0) {
+                    /* nodes in a /dev subdirectory, not listed by the /dev scan */
+                    continue;
+                }
+                List<Driver> list = byRoot.get(name);
+                if (list == null) {
+                    list = new ArrayList<Driver>(1);
+                    byRoot.put(name, list);
                 }
+                list.add(driver);
+                lengths.add(name.length());
             }
-            r.close();
+            int[] rootLengths = new int[lengths.size()];
+            int i = 0;
+            for (Integer length : lengths) {
+                rootLengths[i++] = length;
+            }
+            mDriversByRoot = byRoot;
+            mRootLengths = rootLengths;
+            mDrivers = drivers;
         }
         return mDrivers;
     }
 
-    public String[] getAllDevices() {
+    /**
+     * Single pass over the device directory, each node matched to its drivers by prefix lookup.
+     */
+    private synchronized void index() {
+        if (mIndexed) {
+            return;
+        }
+        try {
+            getDrivers();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (Driver driver : mDrivers) {
+            driver.mDevices.clear();
+        }
+        String[] names = mDevDir.list();
+        if (names != null) {
+            for (String name : names) {
+                for (Driver driver : match(name)) {
+                    driver.mDevices.add(new File(mDevDir, name));
+                }
+            }
+        }
+        mIndexed = true;
+    }
+
+    private List<Driver> match(String name) {
+        List<Driver> matches = null;
+        for (int length : mRootLengths) {
+            if (length > name.length()) {
+                break;
+            }
+            List<Driver> drivers = mDriversByRoot.get(name.substring(0, length));
+            if (drivers != null) {
+                if (matches == null) {
+                    matches = new ArrayList<Driver>(drivers.size());
+                }
+                matches.addAll(drivers);
+            }
+        }
+        return matches != null ? matches : new ArrayList<Driver>(0);
+    }
+
+    /**
+     * Forget the cached drivers and devices, the next query rescans them.
+     */
+    public synchronized void invalidate() {
+        mDrivers = null;
+        mDriversByRoot = null;
+        mRootLengths = null;
+        mIndexed = false;
+    }
+
+    /**
+     * Watch the device directory with inotify and keep the cached device lists up to date as
+     * nodes are added and removed, without rescanning. Changes are reported to listener.
+     * When inotify loses events the directory is rescanned and the difference reported.
+     *
+     * @throws IOException when the directory cannot be watched
+     */
+    public synchronized void startWatching(DeviceListener listener) throws IOException {
+        if (mWatcher != null) {
+            throw new IllegalStateException("already watching");
+        }
+        mListener = listener;
+        try {
+            mWatcher = new DeviceWatcher(mDevDir.getAbsolutePath(), new DeviceWatcher.Callback() {
+                @Override
+                public void onNodeChanged(String name, boolean added) {
+                    SerialPortFinder.this.onNodeChanged(name, added);
+                }
+
+                @Override
+                public void onRescan() {
+                    SerialPortFinder.this.onRescan();
+                }
+            });
+        } catch (IOException e) {
+            mListener = null;
+            throw e;
+        }
+        /* indexed once the watch is in place, so no node falls between the two */
+        mIndexed = false;
+        index();
+    }
+
+    public void stopWatching() {
+        DeviceWatcher watcher;
+        synchronized (this) {
+            watcher = mWatcher;
+            mWatcher = null;
+            mListener = null;
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    private void onNodeChanged(String name, boolean added) {
+        List<Driver> drivers;
+        DeviceListener listener;
+        File device = new File(mDevDir, name);
+        synchronized (this) {
+            if (!mIndexed) {
+                /* invalidated, the next query rescans anyway */
+                return;
+            }
+            drivers = match(name);
+            for (Iterator<Driver> it = drivers.iterator(); it.hasNext(); ) {
+                Driver driver = it.next();
+                boolean changed = added ? !driver.mDevices.contains(device) && driver.mDevices.add(device)
+                        : driver.mDevices.remove(device);
+                if (!changed) {
+                    it.remove();
+                }
+            }
+            listener = mListener;
+        }
+        if (listener != null) {
+            for (Driver driver : drivers) {
+                if (added) {
+                    listener.onDeviceAdded(driver, device);
+                } else {
+                    listener.onDeviceRemoved(driver, device);
+                }
+            }
+        }
+    }
+
+    private void onRescan() {
+        List<Driver> drivers = new ArrayList<Driver>();
+        List<File> devices = new ArrayList<File>();
+        List<Boolean> added = new ArrayList<Boolean>();
+        DeviceListener listener;
+        synchronized (this) {
+            if (!mIndexed) {
+                return;
+            }
+            Map<Driver, Vector<File>> before = new HashMap<Driver, Vector<File>>();
+            for (Driver driver : mDrivers) {
+                before.put(driver, new Vector<File>(driver.mDevices));
+            }
+            mIndexed = false;
+            index();
+            if (!mIndexed) {
+                return;
+            }
+            for (Driver driver : mDrivers) {
+                Vector<File> old = before.get(driver);
+                for (File device : old) {
+                    if (!driver.mDevices.contains(device)) {
+                        drivers.add(driver);
+                        devices.add(device);
+                        added.add(false);
+                    }
+                }
+                for (File device : driver.mDevices) {
+                    if (!old.contains(device)) {
+                        drivers.add(driver);
+                        devices.add(device);
+                        added.add(true);
+                    }
+                }
+            }
+            listener = mListener;
+        }
+        if (listener != null) {
+            for (int i = 0; i < drivers.size(); i++) {
+                if (added.get(i)) {
+                    listener.onDeviceAdded(drivers.get(i), devices.get(i));
+                } else {
+                    listener.onDeviceRemoved(drivers.get(i), devices.get(i));
+                }
+            }
+        }
+    }
+
+    /* Both listings run under the lock, onNodeChanged() updates the device lists meanwhile */
+    public synchronized String[] getAllDevices() {
         Vector<String> devices = new Vector<String>();
         // Parse each driver
         Iterator<Driver> itdriv;
         try {
             itdriv = getDrivers().iterator();
+            index();
             while (itdriv.hasNext()) {
                 Driver driver = itdriv.next();
-                Iterator<File> itdev = driver.getDevices().iterator();
+                Iterator<File> itdev = driver.mDevices.iterator();
                 while (itdev.hasNext()) {
                     String device = itdev.next().getName();
                     String value = String.format("%s (%s)", device, driver.getName());
@@ -92,15 +333,16 @@ public class SerialPortFinder {
         return devices.toArray(new String[devices.size()]);
     }
 
-    public String[] getAllDevicesPath() {
+    public synchronized String[] getAllDevicesPath() {
         Vector<String> devices = new Vector<String>();
         // Parse each driver
         Iterator<Driver> itdriv;
         try {
             itdriv = getDrivers().iterator();
+            index();
             while (itdriv.hasNext()) {
                 Driver driver = itdriv.next();
-                Iterator<File> itdev = driver.getDevices().iterator();
+                Iterator<File> itdev = driver.mDevices.iterator();
                 while (itdev.hasNext()) {
                     String device = itdev.next().getAbsolutePath();
                     devices.add(device);
@@ -112,4 +354,4 @@ public class SerialPortFinder {
         return devices.toArray(new String[devices.size()]);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,451 @@
+package android_serialport_api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens, tracks and closes many serial ports by path, reading all of them with a small fixed
+ * pool of I/O threads instead of a reader thread per port.
+ * <p>
+ * Each port is assigned to the least loaded of the {@link SerialIoEngine}s of the pool. Its
+ * listener is called either directly on the I/O thread, or on the executor given at open: the
+ * received bytes are then copied and delivered in order, one callback at a time, even on a
+ * multi-threaded executor. Data waiting for the executor is the queue depth reported by {@link Stats}.
+ * <pre>
+ * SerialPortManager manager = new SerialPortManager(2);
+ * manager.open(new File("/dev/ttyS1"), 115200, listener, executor);
+ * ...
+ * manager.shutdown();
+ * </pre>
+ */
+public class SerialPortManager {
+    private static final String TAG = "SerialPortManager";
+
+    /**
+     * Receive figures, for a single port or summed over all of them.
+     */
+    public static final class Stats {
+        private final int mPorts;
+        private final long mBytesReceived;
+        private final long mChunksReceived;
+        private final long mErrors;
+        private final int mQueueDepth;
+        private final long mTimestampNanos;
+
+        Stats(int ports, long bytesReceived, long chunksReceived, long errors, int queueDepth) {
+            mPorts = ports;
+            mBytesReceived = bytesReceived;
+            mChunksReceived = chunksReceived;
+            mErrors = errors;
+            mQueueDepth = queueDepth;
+            mTimestampNanos = System.nanoTime();
+        }
+
+        public int getPorts() {
+            return mPorts;
+        }
+
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        /* Reads that returned data */
+        public long getChunksReceived() {
+            return mChunksReceived;
+        }
+
+        /* Ports that failed or hung up */
+        public long getErrors() {
+            return mErrors;
+        }
+
+        /* Chunks read but not yet delivered by the callback executors */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        /* System.nanoTime() of the snapshot */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /**
+         * Receive throughput between an earlier snapshot and this one.
+         */
+        public double getBytesPerSecondSince(Stats earlier) {
+            long elapsed = mTimestampNanos - earlier.mTimestampNanos;
+            if (elapsed <= 0) {
+                return 0;
+            }
+            return (mBytesReceived - earlier.mBytesReceived) * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{ports=" + mPorts + ", bytes=" + mBytesReceived + ", chunks=" + mChunksReceived
+                    + ", errors=" + mErrors + ", queueDepth=" + mQueueDepth + "}";
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final SerialIoEngine[] mEngines;
+    /* Ports per engine */
+    private final int[] mEngineLoad;
+    private final Map<String, Channel> mChannels = new HashMap<String, Channel>();
+    /* Ports dropped after failing, still counted in the summed error figure */
+    private long mFailedPorts;
+    private boolean mShutdown;
+
+    /**
+     * Pool of one I/O thread per two processors, at least one.
+     */
+    public SerialPortManager() throws IOException {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param ioThreads number of I/O threads shared by all ports
+     * @throws IOException when the epoll sets cannot be created
+     */
+    public SerialPortManager(int ioThreads) throws IOException {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("Invalid I/O thread count: " + ioThreads);
+        }
+        mEngines = new SerialIoEngine[ioThreads];
+        mEngineLoad = new int[ioThreads];
+        try {
+            for (int i = 0; i < ioThreads; i++) {
+                mEngines[i] = new SerialIoEngine();
+                mEngines[i].start();
+            }
+        } catch (IOException e) {
+            for (SerialIoEngine engine : mEngines) {
+                if (engine != null) {
+                    engine.shutdown();
+                }
+            }
+            throw e;
+        }
+    }
+
+    public SerialPort open(File device, int baudRate, SerialDataListener listener, Executor executor)
+            throws IOException {
+        return open(device, baudRate, SerialPort.Parity.NONE, SerialPort.DataBit.B8, SerialPort.StopBit.B1,
+                listener, executor);
+    }
+
+    /**
+     * Open device and start reading it.
+     *
+     * @param listener receives the data read and the port failure, with the {@link ReceiveStamp}
+     *                 of each chunk if it is a {@link StampedDataListener}. A port that fails
+     *                 or hangs up is closed and forgotten before its onError() is called,
+     *                 its path can then be opened again
+     * @param executor runs the listener callbacks, null to call them on the I/O thread,
+     *                 where they must return quickly
+     * @throws IOException when the port cannot be opened or watched
+     */
+    public SerialPort open(File device, int baudRate, @SerialPort.Parity int parity,
+                           @SerialPort.DataBit int dataBits, @SerialPort.StopBit int stopBit,
+                           SerialDataListener listener, Executor executor) throws IOException {
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        String path = device.getAbsolutePath();
+        synchronized (mLock) {
+            checkOpenable(path);
+        }
+        /* opening may take long (permissions, driver), other ports are not held up meanwhile */
+        SerialPort port = new SerialPort(device, baudRate, parity, dataBits, stopBit, 0);
+        try {
+            synchronized (mLock) {
+                /* a concurrent open of the same path, or a shutdown, may have won the race */
+                checkOpenable(path);
+                int engine = 0;
+                for (int i = 1; i < mEngines.length; i++) {
+                    if (mEngineLoad[i] < mEngineLoad[engine]) {
+                        engine = i;
+                    }
+                }
+                Channel channel = listener instanceof StampedDataListener
+                        ? new StampedChannel(path, port, engine, listener, executor)
+                        : new Channel(path, port, engine, listener, executor);
+                mEngines[engine].register(port, channel);
+                mEngineLoad[engine]++;
+                mChannels.put(path, channel);
+                SerialLog.d(TAG, "opened " + path + " on I/O thread " + engine);
+                return port;
+            }
+        } catch (IOException e) {
+            port.close();
+            throw e;
+        } catch (RuntimeException e) {
+            port.close();
+            throw e;
+        }
+    }
+
+    private void checkOpenable(String path) {
+        if (mShutdown) {
+            throw new IllegalStateException("manager is shut down");
+        }
+        if (mChannels.containsKey(path)) {
+            throw new IllegalStateException("port already open: " + path);
+        }
+    }
+
+    /**
+     * The open port for path, null if there is none.
+     */
+    public SerialPort getPort(String path) {
+        synchronized (mLock) {
+            Channel channel = mChannels.get(path);
+            return channel != null ? channel.mPort : null;
+        }
+    }
+
+    public List<String> getPaths() {
+        synchronized (mLock) {
+            return new ArrayList<String>(mChannels.keySet());
+        }
+    }
+
+    /**
+     * Stop reading the port for path and close it. Callbacks already queued on its executor still run.
+     *
+     * @return false if no port was open for path
+     */
+    public boolean close(String path) {
+        Channel channel;
+        synchronized (mLock) {
+            channel = mChannels.remove(path);
+            if (channel == null) {
+                return false;
+            }
+            mEngines[channel.mEngine].unregister(channel.mPort);
+            mEngineLoad[channel.mEngine]--;
+        }
+        channel.mPort.close();
+        return true;
+    }
+
+    /* Drop a port the engine reported as failed, it has already removed the registration */
+    private void onPortFailed(Channel channel) {
+        synchronized (mLock) {
+            if (mChannels.get(channel.mPath) != channel) {
+                /* closed meanwhile */
+                return;
+            }
+            mChannels.remove(channel.mPath);
+            mEngineLoad[channel.mEngine]--;
+            mFailedPorts++;
+        }
+        channel.mPort.close();
+    }
+
+    /**
+     * Figures of the port for path, null if no port is open for it.
+     */
+    public Stats getStats(String path) {
+        synchronized (mLock) {
+            Channel channel = mChannels.get(path);
+            return channel != null ? channel.stats() : null;
+        }
+    }
+
+    /**
+     * Figures summed over all open ports, the errors also counting the ports dropped after failing.
+     */
+    public Stats getStats() {
+        long bytes = 0;
+        long chunks = 0;
+        long errors;
+        int queueDepth = 0;
+        synchronized (mLock) {
+            errors = mFailedPorts;
+            for (Channel channel : mChannels.values()) {
+                bytes += channel.mBytes.get();
+                chunks += channel.mChunks.get();
+                errors += channel.mErrors.get();
+                queueDepth += channel.mQueued.get();
+            }
+            return new Stats(mChannels.size(), bytes, chunks, errors, queueDepth);
+        }
+    }
+
+    /**
+     * Close every port and stop the I/O threads.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+        }
+        for (String path : getPaths()) {
+            close(path);
+        }
+        for (SerialIoEngine engine : mEngines) {
+            engine.shutdown();
+        }
+    }
+
+    private static final class Delivery {
+        final byte[] mData;
+        final IOException mError;
+        /* System.nanoTime() of the read when stamped or metrics are enabled, 0 otherwise */
+        final long mReadNanos;
+        /* A copy of the native stamp for stamped listeners, null otherwise */
+        final ReceiveStamp mStamp;
+
+        Delivery(byte[] data, IOException error, long readNanos, ReceiveStamp stamp) {
+            mData = data;
+            mError = error;
+            mReadNanos = readNanos;
+            mStamp = stamp;
+        }
+    }
+
+    /**
+     * One open port: counts what it receives and hands it to its listener, through its executor if any.
+     */
+    private class Channel implements SerialDataListener, Runnable {
+        final String mPath;
+        final SerialPort mPort;
+        final int mEngine;
+        final SerialDataListener mListener;
+        final Executor mExecutor;
+        /* Chunks and the final error waiting for the executor */
+        final ConcurrentLinkedQueue<Delivery> mPending = new ConcurrentLinkedQueue<Delivery>();
+        final AtomicInteger mQueued = new AtomicInteger();
+        final AtomicBoolean mScheduled = new AtomicBoolean();
+        final AtomicLong mBytes = new AtomicLong();
+        final AtomicLong mChunks = new AtomicLong();
+        final AtomicLong mErrors = new AtomicLong();
+
+        Channel(String path, SerialPort port, int engine, SerialDataListener listener, Executor executor) {
+            mPath = path;
+            mPort = port;
+            mEngine = engine;
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        Stats stats() {
+            return new Stats(1, mBytes.get(), mChunks.get(), mErrors.get(), mQueued.get());
+        }
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+            deliver(port, buffer, size, null);
+        }
+
+        void deliver(SerialPort port, byte[] buffer, int size, ReceiveStamp stamp) {
+            mBytes.addAndGet(size);
+            mChunks.incrementAndGet();
+            if (mExecutor == null) {
+                if (stamp != null) {
+                    ((StampedDataListener) mListener).onDataReceived(port, buffer, size, stamp);
+                } else {
+                    mListener.onDataReceived(port, buffer, size);
+                }
+                return;
+            }
+            byte[] copy = new byte[size];
+            System.arraycopy(buffer, 0, copy, 0, size);
+            if (stamp != null) {
+                enqueue(new Delivery(copy, null, stamp.getTimestampNanos(), new ReceiveStamp(stamp)));
+            } else {
+                enqueue(new Delivery(copy, null, port.getMetrics() != null ? System.nanoTime() : 0, null));
+            }
+        }
+
+        @Override
+        public void onError(SerialPort port, IOException e) {
+            SerialLog.w(TAG, mPath + " failed", e);
+            mErrors.incrementAndGet();
+            onPortFailed(this);
+            if (mExecutor == null) {
+                mListener.onError(port, e);
+                return;
+            }
+            enqueue(new Delivery(null, e, 0, null));
+        }
+
+        private void enqueue(Delivery item) {
+            mPending.add(item);
+            mQueued.incrementAndGet();
+            schedule();
+        }
+
+        private void schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    /* executor shut down, whatever is queued is delivered on the next successful schedule */
+                    mScheduled.set(false);
+                    SerialLog.e(TAG, mPath + ": callback executor rejected delivery", e);
+                }
+            }
+        }
+
+        /* Deliver everything queued, on the executor, one item at a time and in order */
+        @Override
+        public void run() {
+            do {
+                Delivery item;
+                while ((item = mPending.poll()) != null) {
+                    mQueued.decrementAndGet();
+                    try {
+                        if (item.mData != null) {
+                            SerialPortMetrics metrics = mPort.getMetrics();
+                            if (metrics != null && item.mReadNanos != 0) {
+                                metrics.onCallbackDelay(System.nanoTime() - item.mReadNanos);
+                            }
+                            if (item.mStamp != null) {
+                                ((StampedDataListener) mListener).onDataReceived(mPort, item.mData,
+                                        item.mData.length, item.mStamp);
+                            } else {
+                                mListener.onDataReceived(mPort, item.mData, item.mData.length);
+                            }
+                        } else {
+                            mListener.onError(mPort, item.mError);
+                        }
+                    } catch (RuntimeException e) {
+                        SerialLog.e(TAG, mPath + ": listener failed", e);
+                    }
+                }
+                mScheduled.set(false);
+                /* an item added after the last poll but before the flag was cleared */
+            } while (!mPending.isEmpty() && mScheduled.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * A channel whose engine registration takes {@link ReceiveStamp}s, for stamped listeners.
+     * With an executor the callback delay in the metrics is then measured from the native read.
+     */
+    private final class StampedChannel extends Channel implements StampedDataListener {
+
+        StampedChannel(String path, SerialPort port, int engine, SerialDataListener listener, Executor executor) {
+            super(path, port, engine, listener, executor);
+        }
+
+        @Override
+        public void onDataReceived(SerialPort port, byte[] buffer, int size, ReceiveStamp stamp) {
+            deliver(port, buffer, size, stamp);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters and latency histograms of a {@link SerialPort}, see {@link SerialPort#enableMetrics()}.
+ * <p>
+ * Counts cover every read and write of the port: its streams, the buffer methods, and the reads
+ * done by {@link SerialIoEngine} and {@link SerialPortManager}. Counters are lock-free and may be
+ * read from any thread while the port is in use.
+ */
+public final class SerialPortMetrics {
+    private final SerialPort mPort;
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mReadCalls = new AtomicLong();
+    private final AtomicLong mEmptyReads = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mWriteCalls = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final Histogram mReadSize = new Histogram();
+    private final Histogram mCallbackDelay = new Histogram();
+    private final Histogram mDrainTime = new Histogram();
+    /* System.nanoTime() of the first write not yet drained, 0 if none */
+    private final AtomicLong mUndrainedSince = new AtomicLong();
+    /* Driver counters when metrics were enabled, null when the driver keeps none */
+    private volatile LineCounters mLineBaseline;
+
+    SerialPortMetrics(SerialPort port) {
+        mPort = port;
+        try {
+            mLineBaseline = port.getLineCounters();
+        } catch (IOException e) {
+            mLineBaseline = null;
+        }
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    public long getReadCalls() {
+        return mReadCalls.get();
+    }
+
+    /**
+     * Reads that returned nothing, with VMIN = 0 most reads of an idle line.
+     */
+    public long getEmptyReads() {
+        return mEmptyReads.get();
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public long getWriteCalls() {
+        return mWriteCalls.get();
+    }
+
+    /* Reads and writes that threw */
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    /**
+     * Bytes returned by each non-empty read.
+     */
+    public Histogram getReadSizes() {
+        return mReadSize;
+    }
+
+    /**
+     * Nanoseconds from a read returning to its data reaching the listener, for ports of a
+     * {@link SerialPortManager} with a callback executor.
+     */
+    public Histogram getCallbackDelays() {
+        return mCallbackDelay;
+    }
+
+    /**
+     * Nanoseconds from the first write after a {@link SerialPort#drain()} to the end of the next one,
+     * the time written bytes take to leave the UART.
+     */
+    public Histogram getDrainTimes() {
+        return mDrainTime;
+    }
+
+    /**
+     * Kernel line statistics accumulated since metrics were enabled: framing, parity, overrun and
+     * buffer-overrun counts (TIOCGICOUNT).
+     *
+     * @return null when the driver keeps no counters
+     * @throws IOException when the query fails
+     */
+    public LineCounters getLineCounters() throws IOException {
+        LineCounters baseline = mLineBaseline;
+        LineCounters now = mPort.getLineCounters();
+        return baseline == null || now == null ? now : now.minus(baseline);
+    }
+
+    /**
+     * Zero every counter and histogram, and take the line statistics from now on.
+     */
+    public void reset() {
+        mBytesRead.set(0);
+        mReadCalls.set(0);
+        mEmptyReads.set(0);
+        mBytesWritten.set(0);
+        mWriteCalls.set(0);
+        mErrors.set(0);
+        mReadSize.reset();
+        mCallbackDelay.reset();
+        mDrainTime.reset();
+        try {
+            mLineBaseline = mPort.getLineCounters();
+        } catch (IOException e) {
+            mLineBaseline = null;
+        }
+    }
+
+    void onRead(long n) {
+        mReadCalls.incrementAndGet();
+        if (n > 0) {
+            mBytesRead.addAndGet(n);
+            mReadSize.record(n);
+        } else {
+            mEmptyReads.incrementAndGet();
+        }
+    }
+
+    void onWrite(long n) {
+        mWriteCalls.incrementAndGet();
+        mBytesWritten.addAndGet(n);
+        if (n > 0 && mUndrainedSince.get() == 0) {
+            mUndrainedSince.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    void onDrained() {
+        long since = mUndrainedSince.getAndSet(0);
+        if (since != 0) {
+            mDrainTime.record(System.nanoTime() - since);
+        }
+    }
+
+    void onCallbackDelay(long nanos) {
+        mCallbackDelay.record(nanos);
+    }
+
+    void onError() {
+        mErrors.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "SerialPortMetrics{read=" + getBytesRead() + "B/" + getReadCalls() + " calls (" + getEmptyReads()
+                + " empty), written=" + getBytesWritten() + "B/" + getWriteCalls() + " calls, errors=" + getErrors()
+                + ", readSizes=" + mReadSize + ", drainTimes=" + mDrainTime + "}";
+    }
+}
@@ -0,0 +1,298 @@
+package android_serialport_api;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Reactive Streams {@link Publisher} of the data received by a {@link SerialPort}, as chunks or,
+ * with a {@link FrameDecoder}, as frames.
+ * <p>
+ * A reader thread reads the port only while the subscriber has outstanding demand. When demand
+ * drops to zero reading stops, and incoming bytes wait in the kernel buffer; once that is full the
+ * driver holds the line back with hardware flow control when enabled, or drops bytes otherwise.
+ * Nothing is queued in between, except the frames of the last read beyond the demand.
+ * <p>
+ * Each item is a new heap buffer the subscriber owns, positioned at 0 with the data up to its limit.
+ * The publisher is unicast: a second subscriber is refused with {@link IllegalStateException}
+ * until the first one is cancelled or terminated. {@link #stop()} completes the subscription.
+ * Signals are delivered on the reader thread.
+ * <p>
+ * The port should have a read timeout (see {@link SerialPort#setReadTimeout(int, int)}) so a
+ * cancel is noticed while the line is idle.
+ */
+public class SerialPublisher implements Publisher<ByteBuffer> {
+    private static final String TAG = "SerialPublisher";
+
+    private final ReadableByteChannel mChannel;
+    private final int mBufferSize;
+    private final FrameDecoder mDecoder;
+    private SerialSubscription mSubscription;
+
+    /**
+     * @param port       the port to read
+     * @param bufferSize largest chunk read at once
+     * @param decoder    splits chunks into frames, null to publish chunks as read
+     */
+    public SerialPublisher(final SerialPort port, int bufferSize, FrameDecoder decoder) {
+        this(new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return port.read(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, bufferSize, decoder);
+    }
+
+    /* A read returning 0 is a read timeout */
+    SerialPublisher(ReadableByteChannel channel, int bufferSize, FrameDecoder decoder) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        mChannel = channel;
+        mBufferSize = bufferSize;
+        mDecoder = decoder;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        SerialSubscription subscription;
+        synchronized (this) {
+            if (mSubscription != null && !mSubscription.isCancelled()) {
+                subscription = null;
+            } else {
+                subscription = new SerialSubscription(subscriber, mSubscription);
+                mSubscription = subscription;
+            }
+        }
+        if (subscription == null) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("SerialPublisher allows one subscriber at a time"));
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Complete the current subscription once the items already read are delivered. Nothing more is
+     * read from the port; items beyond the demand still wait for it, so a subscriber that never
+     * requests them is never completed, and has to cancel.
+     */
+    public void stop() {
+        SerialSubscription subscription;
+        synchronized (this) {
+            subscription = mSubscription;
+        }
+        if (subscription != null) {
+            subscription.stop();
+        }
+    }
+
+    /**
+     * Number of times the reader stopped reading for lack of demand, in the current subscription.
+     */
+    public synchronized long getDemandStalls() {
+        return mSubscription != null ? mSubscription.mStalls : 0;
+    }
+
+    private final class SerialSubscription implements Subscription, Runnable, FrameDecoder.FrameListener {
+        private Subscriber<? super ByteBuffer> mSubscriber;
+        /* The subscription before this one, its reader may still be in a read */
+        private SerialSubscription mPrevious;
+        private Thread mThread;
+        /* Items read beyond the demand, only used by the reader thread */
+        private final ArrayDeque<ByteBuffer> mPending = new ArrayDeque<ByteBuffer>();
+        private long mDemand;
+        private boolean mCancelled;
+        private boolean mStopped;
+        private Throwable mError;
+        private volatile long mStalls;
+
+        SerialSubscription(Subscriber<? super ByteBuffer> subscriber, SerialSubscription previous) {
+            mSubscriber = subscriber;
+            mPrevious = previous;
+        }
+
+        synchronized void start() {
+            if (mCancelled) {
+                mSubscriber = null;
+                mPrevious = null;
+                return;
+            }
+            mThread = new Thread(this, TAG);
+            mThread.start();
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (mCancelled) {
+                return;
+            }
+            if (n <= 0) {
+                /* 3.9: signalled by the reader thread, keeping signals serial */
+                if (mError == null) {
+                    mError = new IllegalArgumentException("3.9: request must be positive, was " + n);
+                }
+            } else {
+                mDemand += n;
+                if (mDemand < 0) {
+                    /* 3.17: effectively unbounded */
+                    mDemand = Long.MAX_VALUE;
+                }
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            mCancelled = true;
+            notifyAll();
+        }
+
+        synchronized void stop() {
+            mStopped = true;
+            notifyAll();
+        }
+
+        /* Cancelled, or terminated by the publisher */
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(mBufferSize);
+            Throwable failure = null;
+            boolean complete = false;
+            try {
+                /* one reader at a time */
+                SerialSubscription previous = mPrevious;
+                mPrevious = null;
+                if (previous != null) {
+                    previous.join();
+                }
+                for (; ; ) {
+                    synchronized (this) {
+                        if (awaitsDemand()) {
+                            mStalls++;
+                            while (awaitsDemand()) {
+                                wait();
+                            }
+                        }
+                        if (mCancelled) {
+                            break;
+                        }
+                        if (mError != null) {
+                            failure = mError;
+                            break;
+                        }
+                        /* demand is only 0 here when stopped with nothing left to deliver */
+                        if (mStopped && mPending.isEmpty()) {
+                            complete = true;
+                            break;
+                        }
+                    }
+                    if (!mPending.isEmpty()) {
+                        emit(mPending.poll());
+                        continue;
+                    }
+                    buffer.clear();
+                    if (mChannel.read(buffer) > 0) {
+                        buffer.flip();
+                        if (mDecoder != null) {
+                            mDecoder.decode(buffer, this);
+                        } else {
+                            mPending.add(copy(buffer, buffer.position(), buffer.remaining()));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                /* 2.13: a subscriber that throws is considered cancelled */
+                SerialLog.e(TAG, "subscriber failed", e);
+            }
+            Subscriber<? super ByteBuffer> subscriber;
+            synchronized (this) {
+                subscriber = mSubscriber;
+                /* 3.13: drop the subscriber reference */
+                mSubscriber = null;
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+            }
+            mPending.clear();
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else if (complete) {
+                subscriber.onComplete();
+            }
+        }
+
+        /* Called with the lock held: nothing to do until request(), also when stopped with items pending */
+        private boolean awaitsDemand() {
+            return mDemand == 0 && !mCancelled && mError == null && (!mStopped || !mPending.isEmpty());
+        }
+
+        private void emit(ByteBuffer item) {
+            Subscriber<? super ByteBuffer> subscriber;
+            synchronized (this) {
+                mDemand--;
+                subscriber = mSubscriber;
+            }
+            subscriber.onNext(item);
+        }
+
+        private void join() throws InterruptedException {
+            Thread thread;
+            synchronized (this) {
+                thread = mThread;
+            }
+            if (thread != null) {
+                thread.join();
+            }
+        }
+
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            mPending.add(ByteBuffer.wrap(Arrays.copyOfRange(buffer, offset, offset + length)));
+        }
+
+        private ByteBuffer copy(ByteBuffer source, int index, int length) {
+            byte[] data = new byte[length];
+            ByteBuffer view = source.duplicate();
+            view.position(index);
+            view.get(data);
+            return ByteBuffer.wrap(data);
+        }
+    }
+}
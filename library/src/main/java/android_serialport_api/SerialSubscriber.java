@@ -0,0 +1,193 @@
+package android_serialport_api;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reactive Streams {@link Subscriber} that writes every buffer it receives to a {@link SerialPort}.
+ * <p>
+ * Buffers are written in full, position to limit, on the thread signalling them; demand is
+ * requested a batch at a time and renewed as buffers are written, so a port slower than the
+ * upstream holds it back instead of queueing. On completion the output is drained, so
+ * {@link #await(long, TimeUnit)} returns once everything has left the UART. A write error cancels
+ * the upstream.
+ * <p>
+ * A subscriber can be subscribed once.
+ */
+public class SerialSubscriber implements Subscriber<ByteBuffer> {
+    private static final String TAG = "SerialSubscriber";
+
+    /* Drains the port once the upstream completed */
+    interface Sink extends WritableByteChannel {
+        void drain() throws IOException;
+    }
+
+    private final Sink mSink;
+    private final int mBatch;
+    private Subscription mSubscription;
+    /* Items left of the current demand before more is requested */
+    private int mUntilRequest;
+    private long mBytesWritten;
+    private boolean mDone;
+    private Throwable mError;
+
+    /**
+     * @param port  the port to write to
+     * @param batch items requested at a time, e.g. 16
+     */
+    public SerialSubscriber(final SerialPort port, int batch) {
+        this(new Sink() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                return port.write(src);
+            }
+
+            @Override
+            public void drain() throws IOException {
+                port.drain();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, batch);
+    }
+
+    SerialSubscriber(Sink sink, int batch) {
+        if (batch <= 0) {
+            throw new IllegalArgumentException("Invalid batch: " + batch);
+        }
+        mSink = sink;
+        mBatch = batch;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("subscription");
+        }
+        synchronized (this) {
+            if (mSubscription != null || mDone) {
+                /* 2.5: only one subscription */
+                subscription.cancel();
+                return;
+            }
+            mSubscription = subscription;
+            mUntilRequest = mBatch;
+        }
+        subscription.request(mBatch);
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        Subscription subscription;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            subscription = mSubscription;
+        }
+        try {
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                mSink.write(buffer);
+            }
+            synchronized (this) {
+                mBytesWritten += length;
+            }
+        } catch (IOException e) {
+            finish(e);
+            subscription.cancel();
+            return;
+        }
+        /* renew the demand once half of the batch is written */
+        int renew = 0;
+        synchronized (this) {
+            if (--mUntilRequest <= mBatch / 2) {
+                renew = mBatch - mUntilRequest;
+                mUntilRequest = mBatch;
+            }
+        }
+        if (renew > 0) {
+            subscription.request(renew);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (t == null) {
+            throw new NullPointerException("throwable");
+        }
+        finish(t);
+    }
+
+    @Override
+    public void onComplete() {
+        Throwable error = null;
+        try {
+            mSink.drain();
+        } catch (IOException e) {
+            error = e;
+        }
+        finish(error);
+    }
+
+    private synchronized void finish(Throwable error) {
+        if (mDone) {
+            return;
+        }
+        if (error != null) {
+            SerialLog.w(TAG, "write stream failed", error);
+        }
+        mDone = true;
+        mError = error;
+        /* 2.13 asks not to keep what is no longer needed */
+        mSubscription = null;
+        notifyAll();
+    }
+
+    /**
+     * Wait for the upstream to complete or fail.
+     *
+     * @return true once done, false on timeout
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left / 1000000L, (int) (left % 1000000L));
+        }
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * The upstream error or the write error, null if completed normally or still running.
+     */
+    public synchronized Throwable getError() {
+        return mError;
+    }
+
+    public synchronized long getBytesWritten() {
+        return mBytesWritten;
+    }
+}
@@ -0,0 +1,237 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer byte ring over a direct buffer.
+ * <p>
+ * The producer thread reads from the port straight into the ring with {@link #fill(SerialPort)},
+ * the consumer thread drains it with {@link #poll(byte[], int, int)} or {@link #poll(ByteBuffer)}.
+ * The two sides only publish their position with ordered writes ({@link AtomicLong#lazySet(long)})
+ * after touching the data, there is no lock and no wait/notify. This decouples servicing the UART
+ * from parsing: the ring absorbs parser stalls instead of the small kernel tty buffer.
+ * <p>
+ * If the consumer falls behind and the ring is full, {@link #fill(SerialPort)} still drains the
+ * port but drops what it read, counting it in {@link #getOverrunCount()} and {@link #getOverrunBytes()}.
+ * <pre>
+ * // producer thread
+ * while (running) ring.fill(port);
+ * // consumer thread
+ * while (running) { int n = ring.poll(frame, 0, frame.length); ... }
+ * </pre>
+ * Each side must be used by a single thread.
+ */
+public class SpscRingBuffer {
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMask;
+
+    /* Total bytes consumed, written by the consumer only */
+    private final AtomicLong mHead = new AtomicLong();
+    /* Total bytes produced, written by the producer only */
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Producer side state
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mDiscard;
+    private long mHeadCache;
+    private volatile long mOverrunCount;
+    private volatile long mOverrunBytes;
+
+    // Consumer side state
+    private final ByteBuffer mConsumerView;
+    private long mTailCache;
+
+    /**
+     * @param capacity ring size in bytes, rounded up to a power of two
+     */
+    public SpscRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mCapacity = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        mMask = mCapacity - 1;
+        mBuffer = ByteBuffer.allocateDirect(mCapacity);
+        mProducerView = mBuffer.duplicate();
+        mConsumerView = mBuffer.duplicate();
+        mDiscard = ByteBuffer.allocateDirect(Math.min(mCapacity, 4096));
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Number of bytes ready for the consumer. Exact from the consumer thread, a snapshot elsewhere.
+     */
+    public int available() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    // Producer side
+
+    /**
+     * Read once from port into the free space of the ring, then publish the new bytes.
+     * When the ring is full, the port is read anyway and the data dropped as an overrun.
+     *
+     * @return the number of bytes added to the ring, 0 on read timeout or overrun
+     * @throws IOException when reading the port fails
+     */
+    public int fill(SerialPort port) throws IOException {
+        long tail = mTail.get();
+        int free = freeSpace(tail, 1);
+        if (free == 0) {
+            mDiscard.clear();
+            int dropped = port.read(mDiscard);
+            if (dropped > 0) {
+                mOverrunCount++;
+                mOverrunBytes += dropped;
+            }
+            return 0;
+        }
+        int index = (int) tail & mMask;
+        int contiguous = Math.min(free, mCapacity - index);
+        mProducerView.limit(index + contiguous).position(index);
+        int n = port.read(mProducerView);
+        if (n > 0) {
+            mTail.lazySet(tail + n);
+        }
+        return n;
+    }
+
+    /**
+     * Copy as much of src as fits into the ring and publish it.
+     *
+     * @return the number of bytes copied, src position is advanced by that amount
+     */
+    public int offer(ByteBuffer src) {
+        long tail = mTail.get();
+        int length = Math.min(src.remaining(), freeSpace(tail, src.remaining()));
+        int copied = 0;
+        while (copied < length) {
+            int index = (int) (tail + copied) & mMask;
+            int step = Math.min(length - copied, mCapacity - index);
+            int limit = src.limit();
+            src.limit(src.position() + step);
+            mProducerView.limit(index + step).position(index);
+            mProducerView.put(src);
+            src.limit(limit);
+            copied += step;
+        }
+        if (copied > 0) {
+            mTail.lazySet(tail + copied);
+        }
+        return copied;
+    }
+
+    /**
+     * Copy as much of b[off, off + len) as fits into the ring and publish it.
+     *
+     * @return the number of bytes copied
+     */
+    public int offer(byte[] b, int off, int len) {
+        long tail = mTail.get();
+        int length = Math.min(len, freeSpace(tail, len));
+        int copied = 0;
+        while (copied < length) {
+            int index = (int) (tail + copied) & mMask;
+            int step = Math.min(length - copied, mCapacity - index);
+            mProducerView.limit(index + step).position(index);
+            mProducerView.put(b, off + copied, step);
+            copied += step;
+        }
+        if (copied > 0) {
+            mTail.lazySet(tail + copied);
+        }
+        return copied;
+    }
+
+    /**
+     * Free space seen by the producer, re-reading the consumer position only when the cached one
+     * does not leave room for wanted bytes.
+     */
+    private int freeSpace(long tail, int wanted) {
+        int free = (int) (mCapacity - (tail - mHeadCache));
+        if (free < wanted) {
+            mHeadCache = mHead.get();
+            free = (int) (mCapacity - (tail - mHeadCache));
+        }
+        return free;
+    }
+
+    /**
+     * Number of times {@link #fill(SerialPort)} had to drop data because the ring was full.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * Total number of bytes dropped by {@link #fill(SerialPort)} because the ring was full.
+     */
+    public long getOverrunBytes() {
+        return mOverrunBytes;
+    }
+
+    // Consumer side
+
+    /**
+     * Move up to len available bytes into b, without blocking.
+     *
+     * @return the number of bytes copied, 0 if the ring is empty
+     */
+    public int poll(byte[] b, int off, int len) {
+        long head = mHead.get();
+        int length = Math.min(len, readable(head, len));
+        int copied = 0;
+        while (copied < length) {
+            int index = (int) (head + copied) & mMask;
+            int step = Math.min(length - copied, mCapacity - index);
+            mConsumerView.limit(index + step).position(index);
+            mConsumerView.get(b, off + copied, step);
+            copied += step;
+        }
+        if (copied > 0) {
+            mHead.lazySet(head + copied);
+        }
+        return copied;
+    }
+
+    /**
+     * Move up to dst.remaining() available bytes into dst, without blocking.
+     *
+     * @return the number of bytes copied, dst position is advanced by that amount
+     */
+    public int poll(ByteBuffer dst) {
+        long head = mHead.get();
+        int length = Math.min(dst.remaining(), readable(head, dst.remaining()));
+        int copied = 0;
+        while (copied < length) {
+            int index = (int) (head + copied) & mMask;
+            int step = Math.min(length - copied, mCapacity - index);
+            mConsumerView.limit(index + step).position(index);
+            dst.put(mConsumerView);
+            copied += step;
+        }
+        if (copied > 0) {
+            mHead.lazySet(head + copied);
+        }
+        return copied;
+    }
+
+    /**
+     * Readable bytes seen by the consumer, re-reading the producer position only when the cached
+     * one does not cover wanted bytes.
+     */
+    private int readable(long head, int wanted) {
+        int readable = (int) (mTailCache - head);
+        if (readable < wanted) {
+            mTailCache = mTail.get();
+            readable = (int) (mTailCache - head);
+        }
+        return readable;
+    }
+}
@@ -0,0 +1,17 @@
+package android_serialport_api;
+
+/**
+ * A {@link SerialDataListener} that also receives the {@link ReceiveStamp} of each chunk.
+ * <p>
+ * {@link SerialIoEngine} and {@link SerialPortManager} call
+ * {@link #onDataReceived(SerialPort, byte[], int, ReceiveStamp)} instead of the three argument
+ * method for listeners of this type, and only take the stamps for them.
+ */
+public interface StampedDataListener extends SerialDataListener {
+
+    /**
+     * @param stamp when the chunk was read, only valid until this method returns
+     * @see SerialDataListener#onDataReceived(SerialPort, byte[], int)
+     */
+    void onDataReceived(SerialPort port, byte[] buffer, int size, ReceiveStamp stamp);
+}
@@ -0,0 +1,184 @@
+package android_serialport_api;
+
+/**
+ * Hashed timer wheel: one thread expires any number of timeouts, with O(1) schedule and cancel.
+ * <p>
+ * Time advances in ticks of a fixed duration, and a timeout fires on the first tick at or after its
+ * delay, so it is late by up to one tick. Timeouts are kept in intrusive lists, one per slot; a
+ * slot holds every timeout due on a tick congruent to it, those due in later rounds are skipped
+ * until their tick comes. Tasks run on the wheel thread and must return quickly.
+ */
+public class TimerWheel {
+    private static final String TAG = "TimerWheel";
+
+    public static final class Timeout {
+        private final Runnable mTask;
+        private final long mTick;
+        private Timeout mPrev;
+        private Timeout mNext;
+        private TimerWheel mWheel;
+
+        private Timeout(Runnable task, long tick) {
+            mTask = task;
+            mTick = tick;
+        }
+
+        /**
+         * @return false if the timeout already fired or was cancelled
+         */
+        public boolean cancel() {
+            TimerWheel wheel = mWheel;
+            if (wheel == null) {
+                return false;
+            }
+            synchronized (wheel) {
+                if (mWheel == null) {
+                    return false;
+                }
+                wheel.unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final long mTickNanos;
+    private final Timeout[] mSlots;
+    private final int mMask;
+    private final long mStart;
+    private final Thread mThread;
+    /* Last tick processed */
+    private long mTick;
+    private int mPending;
+    private volatile boolean mStopped;
+
+    /**
+     * @param tickMs tick duration, the timing resolution
+     * @param slots  number of slots, rounded up to a power of two; delays up to tickMs * slots
+     *               are expired without being skipped
+     */
+    public TimerWheel(long tickMs, int slots) {
+        if (tickMs <= 0 || slots <= 0 || slots > (1 << 20)) {
+            throw new IllegalArgumentException("Invalid tick " + tickMs + " or slots " + slots);
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        mTickNanos = tickMs * 1000000L;
+        mSlots = new Timeout[size];
+        mMask = size - 1;
+        mStart = System.nanoTime();
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Run task on the wheel thread once delayMs has elapsed, unless cancelled before.
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        long deadline = System.nanoTime() - mStart + Math.max(delayMs, 0) * 1000000L;
+        /* the first tick starting at or after the deadline */
+        long tick = (deadline + mTickNanos - 1) / mTickNanos;
+        synchronized (this) {
+            if (mStopped) {
+                throw new IllegalStateException("timer wheel stopped");
+            }
+            Timeout timeout = new Timeout(task, Math.max(tick, mTick + 1));
+            int slot = (int) (timeout.mTick & mMask);
+            timeout.mNext = mSlots[slot];
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrev = timeout;
+            }
+            mSlots[slot] = timeout;
+            timeout.mWheel = this;
+            mPending++;
+            return timeout;
+        }
+    }
+
+    /**
+     * Number of timeouts scheduled and neither fired nor cancelled.
+     */
+    public synchronized int getPending() {
+        return mPending;
+    }
+
+    /**
+     * Stop the wheel thread. Pending timeouts never fire.
+     */
+    public void stop() {
+        mStopped = true;
+        mThread.interrupt();
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else {
+            mSlots[(int) (timeout.mTick & mMask)] = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout.mPrev;
+        }
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mWheel = null;
+        mPending--;
+    }
+
+    private void loop() {
+        while (!mStopped) {
+            long now = (System.nanoTime() - mStart) / mTickNanos;
+            Timeout expired = null;
+            synchronized (this) {
+                /* catch up on the ticks missed, at most one round since they share slots */
+                long first = Math.max(mTick + 1, now - mMask);
+                for (long tick = first; tick <= now; tick++) {
+                    expired = collect(tick, expired);
+                }
+                if (now > mTick) {
+                    mTick = now;
+                }
+            }
+            while (expired != null) {
+                Timeout next = expired.mNext;
+                expired.mNext = null;
+                try {
+                    expired.mTask.run();
+                } catch (RuntimeException e) {
+                    SerialLog.e(TAG, "timeout task failed", e);
+                }
+                expired = next;
+            }
+            long sleep = mStart + (now + 1) * mTickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+                } catch (InterruptedException e) {
+                    /* stopped */
+                }
+            }
+        }
+    }
+
+    /* Unlink the timeouts of tick's slot that are due and push them on expired */
+    private Timeout collect(long tick, Timeout expired) {
+        Timeout timeout = mSlots[(int) (tick & mMask)];
+        while (timeout != null) {
+            Timeout next = timeout.mNext;
+            if (timeout.mTick <= tick) {
+                unlink(timeout);
+                timeout.mNext = expired;
+                expired = timeout;
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+}
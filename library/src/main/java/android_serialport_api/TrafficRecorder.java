@@ -0,0 +1,328 @@
+package android_serialport_api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the bytes crossing a {@link SerialPort} into a size-capped ring log file, see
+ * {@link SerialPort#setRecorder(TrafficRecorder)}.
+ * <p>
+ * The file is memory mapped: a record is a copy into the page cache with no system call, and
+ * survives the process being killed. Once the file is full the oldest records are overwritten.
+ * Opening an existing log appends to it, each open starting a new session.
+ * <p>
+ * File layout, little endian: a {@value #HEADER_SIZE} byte header (magic, version, data size,
+ * offsets of the next write and of the oldest record, live and total record counts), then the
+ * ring of records: payload length (int), direction (byte), nanoseconds since the session start
+ * (long), payload. A length of -1, or fewer than 4 bytes left, means the ring wraps to its start.
+ * A {@link #SESSION} record carries the wall clock time of the session start in milliseconds.
+ * <p>
+ * Recording is thread safe; reads and writes of the port are recorded as they return.
+ */
+public final class TrafficRecorder {
+    /* Start of a session: the payload is System.currentTimeMillis() as a long */
+    public static final int SESSION = 0;
+    /* Received by the port */
+    public static final int RX = 1;
+    /* Written by the port */
+    public static final int TX = 2;
+
+    public static final int HEADER_SIZE = 64;
+    private static final int MAGIC = 0x4c525053; // "SPRL"
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER = 13;
+    private static final int WRAP = -1;
+
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_HEAD = 16;
+    private static final int OFFSET_TAIL = 20;
+    private static final int OFFSET_LIVE = 24;
+    private static final int OFFSET_TOTAL = 32;
+
+    /**
+     * One recorded chunk.
+     */
+    public static final class Record {
+        private final int mDirection;
+        private final long mSessionStartMillis;
+        private final long mTimestampNanos;
+        private final byte[] mData;
+
+        Record(int direction, long sessionStartMillis, long timestampNanos, byte[] data) {
+            mDirection = direction;
+            mSessionStartMillis = sessionStartMillis;
+            mTimestampNanos = timestampNanos;
+            mData = data;
+        }
+
+        /**
+         * {@link #SESSION}, {@link #RX} or {@link #TX}.
+         */
+        public int getDirection() {
+            return mDirection;
+        }
+
+        /**
+         * Wall clock time the session of this record started, 0 when its session record was overwritten.
+         */
+        public long getSessionStartMillis() {
+            return mSessionStartMillis;
+        }
+
+        /**
+         * Monotonic time since the session start.
+         */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        @Override
+        public String toString() {
+            return (mDirection == RX ? "RX" : mDirection == TX ? "TX" : "SESSION") + " +"
+                    + mTimestampNanos / 1000 + "us " + mData.length + " bytes";
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mMap;
+    private final int mCapacity;
+    /* Records longer than this are split, so one record never evicts most of the ring */
+    private final int mMaxPayload;
+    private final long mSessionNanos;
+    private int mHead;
+    private int mTail;
+    private int mLive;
+    private long mTotal;
+    private boolean mClosed;
+
+    /**
+     * Open or create the log file.
+     *
+     * @param size total file size in bytes; an existing log of another size is started afresh
+     * @throws IOException when the file cannot be created or mapped
+     */
+    public TrafficRecorder(File file, int size) throws IOException {
+        if (size < HEADER_SIZE + 1024) {
+            throw new IllegalArgumentException("Invalid log size: " + size);
+        }
+        mFile = file;
+        mCapacity = size - HEADER_SIZE;
+        mMaxPayload = Math.max(256, mCapacity / 8);
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (mRandomAccessFile.length() != size) {
+                mRandomAccessFile.setLength(size);
+            }
+            mMap = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+        mMap.order(ByteOrder.LITTLE_ENDIAN);
+        if (mMap.getInt(0) == MAGIC && mMap.getInt(4) == VERSION && mMap.getInt(OFFSET_CAPACITY) == mCapacity
+                && validOffset(mMap.getInt(OFFSET_HEAD)) && validOffset(mMap.getInt(OFFSET_TAIL))) {
+            mHead = mMap.getInt(OFFSET_HEAD);
+            mTail = mMap.getInt(OFFSET_TAIL);
+            mLive = mMap.getInt(OFFSET_LIVE);
+            mTotal = mMap.getLong(OFFSET_TOTAL);
+        } else {
+            mMap.putInt(0, MAGIC);
+            mMap.putInt(4, VERSION);
+            mMap.putInt(OFFSET_CAPACITY, mCapacity);
+            mHead = mTail = mLive = 0;
+            mTotal = 0;
+            writeHeader();
+        }
+        mSessionNanos = System.nanoTime();
+        ByteBuffer start = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        start.putLong(0, System.currentTimeMillis());
+        record(SESSION, start, 0, 8);
+    }
+
+    private boolean validOffset(int offset) {
+        return offset >= 0 && offset < mCapacity;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public void record(int direction, byte[] data, int offset, int length) {
+        record(direction, data, null, offset, length);
+    }
+
+    /**
+     * Append data[index, index + length), whatever the position and limit of data.
+     */
+    public void record(int direction, ByteBuffer data, int index, int length) {
+        if (data.hasArray()) {
+            record(direction, data.array(), null, data.arrayOffset() + index, length);
+        } else {
+            record(direction, null, data, index, length);
+        }
+    }
+
+    /* From array, or from buffer when array is null */
+    private synchronized void record(int direction, byte[] array, ByteBuffer buffer, int index, int length) {
+        if (mClosed || length <= 0) {
+            return;
+        }
+        long timestamp = System.nanoTime() - mSessionNanos;
+        while (length > 0) {
+            int payload = Math.min(length, mMaxPayload);
+            append(direction, timestamp, array, buffer, index, payload);
+            index += payload;
+            length -= payload;
+        }
+        writeHeader();
+    }
+
+    private void append(int direction, long timestamp, byte[] array, ByteBuffer buffer, int index, int length) {
+        int size = RECORD_HEADER + length;
+        if (mCapacity - mHead < size) {
+            evict(mCapacity);
+            if (mCapacity - mHead >= 4) {
+                mMap.putInt(HEADER_SIZE + mHead, WRAP);
+            }
+            mHead = 0;
+        }
+        evict(mHead + size);
+        int at = HEADER_SIZE + mHead;
+        mMap.putInt(at, length);
+        mMap.put(at + 4, (byte) direction);
+        mMap.putLong(at + 5, timestamp);
+        mMap.position(at + RECORD_HEADER);
+        if (array != null) {
+            mMap.put(array, index, length);
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            source.limit(index + length).position(index);
+            mMap.put(source);
+        }
+        mHead += size;
+        mLive++;
+        mTotal++;
+    }
+
+    /* Drop the oldest records while they start in [mHead, end) */
+    private void evict(int end) {
+        while (mLive > 0 && mTail >= mHead && mTail < end) {
+            int length = mCapacity - mTail < 4 ? WRAP : mMap.getInt(HEADER_SIZE + mTail);
+            if (length == WRAP) {
+                mTail = 0;
+                continue;
+            }
+            mTail += RECORD_HEADER + length;
+            if (--mLive == 0) {
+                mTail = mHead;
+            }
+        }
+        if (mLive == 0) {
+            mTail = mHead;
+        }
+    }
+
+    private void writeHeader() {
+        mMap.putInt(OFFSET_HEAD, mHead);
+        mMap.putInt(OFFSET_TAIL, mTail);
+        mMap.putInt(OFFSET_LIVE, mLive);
+        mMap.putLong(OFFSET_TOTAL, mTotal);
+    }
+
+    /**
+     * Number of records ever written to the file, including the overwritten ones.
+     */
+    public synchronized long getTotalRecords() {
+        return mTotal;
+    }
+
+    /**
+     * The records still in the log, oldest first.
+     */
+    public synchronized List<Record> getRecords() {
+        return parse(mMap.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Write the log to storage. Not needed to survive a crash of the process, only of the system.
+     */
+    public synchronized void flush() {
+        mMap.force();
+    }
+
+    /**
+     * Stop recording and close the file. The mapping itself is released by the garbage collector.
+     */
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mMap.force();
+        mRandomAccessFile.close();
+    }
+
+    /**
+     * Read the records of a log file, e.g. one pulled from a device, oldest first.
+     *
+     * @throws IOException when the file cannot be read or is not a log
+     */
+    public static List<Record> read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer log = ByteBuffer.allocate((int) in.length()).order(ByteOrder.LITTLE_ENDIAN);
+            in.readFully(log.array());
+            if (log.capacity() < HEADER_SIZE || log.getInt(0) != MAGIC || log.getInt(4) != VERSION
+                    || log.getInt(OFFSET_CAPACITY) != log.capacity() - HEADER_SIZE) {
+                throw new IOException("Not a traffic log: " + file);
+            }
+            return parse(log);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<Record> parse(ByteBuffer log) {
+        int capacity = log.getInt(OFFSET_CAPACITY);
+        int offset = log.getInt(OFFSET_TAIL);
+        int live = log.getInt(OFFSET_LIVE);
+        List<Record> records = new ArrayList<Record>(live);
+        long sessionStart = 0;
+        while (records.size() < live) {
+            int length = capacity - offset < 4 ? WRAP : log.getInt(HEADER_SIZE + offset);
+            if (length == WRAP) {
+                offset = 0;
+                continue;
+            }
+            if (length < 0 || offset + RECORD_HEADER + length > capacity) {
+                /* torn by a concurrent write or damaged, keep what was read */
+                break;
+            }
+            int at = HEADER_SIZE + offset;
+            int direction = log.get(at + 4);
+            long timestamp = log.getLong(at + 5);
+            byte[] data = new byte[length];
+            ByteBuffer payload = log.duplicate();
+            payload.position(at + RECORD_HEADER);
+            payload.get(data);
+            if (direction == SESSION && length == 8) {
+                sessionStart = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+            }
+            records.add(new Record(direction, sessionStart, timestamp, data));
+            offset += RECORD_HEADER + length;
+        }
+        return records;
+    }
+}
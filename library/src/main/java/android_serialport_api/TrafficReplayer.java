@@ -0,0 +1,113 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays one direction of a {@link TrafficRecorder} log back into a stream, keeping the gaps
+ * between chunks, e.g. the received bytes of a field session into the master side of a pty so
+ * the application reads them again, or into a real port as a load source.
+ * <pre>
+ * TrafficReplayer replayer = new TrafficReplayer(TrafficRecorder.read(log), TrafficRecorder.RX);
+ * replayer.setSpeed(10); // ten times faster than recorded
+ * replayer.replay(ptyMaster);
+ * </pre>
+ * Each session of the log starts with its first chunk, right after the previous session ended;
+ * idle time before the first chunk and between sessions is not replayed.
+ */
+public class TrafficReplayer {
+
+    private final List<TrafficRecorder.Record> mRecords;
+    private double mSpeed = 1;
+    private volatile boolean mStopped;
+
+    /**
+     * @param records   as returned by {@link TrafficRecorder#read(java.io.File)}
+     * @param direction {@link TrafficRecorder#RX} to play the device side, {@link TrafficRecorder#TX} the application side
+     */
+    public TrafficReplayer(List<TrafficRecorder.Record> records, int direction) {
+        mRecords = new ArrayList<TrafficRecorder.Record>();
+        for (TrafficRecorder.Record record : records) {
+            if (record.getDirection() == direction || record.getDirection() == TrafficRecorder.SESSION) {
+                mRecords.add(record);
+            }
+        }
+    }
+
+    /**
+     * Playback speed relative to the recording, 1 by default; 0 writes everything back to back.
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        mSpeed = speed;
+    }
+
+    /**
+     * Total number of bytes that {@link #replay(OutputStream)} writes.
+     */
+    public long getLength() {
+        long length = 0;
+        for (TrafficRecorder.Record record : mRecords) {
+            if (record.getDirection() != TrafficRecorder.SESSION) {
+                length += record.getData().length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write the records to out on the calling thread, each one when its time comes.
+     *
+     * @return the number of bytes written, less than {@link #getLength()} when stopped
+     * @throws IOException when out fails
+     */
+    public long replay(OutputStream out) throws IOException {
+        mStopped = false;
+        long written = 0;
+        long start = System.nanoTime();
+        /* replay time of the first chunk of the current session, and its recorded time */
+        long sessionOffset = 0;
+        long sessionBase = -1;
+        long last = 0;
+        for (TrafficRecorder.Record record : mRecords) {
+            if (mStopped) {
+                break;
+            }
+            if (record.getDirection() == TrafficRecorder.SESSION) {
+                sessionOffset = last;
+                sessionBase = -1;
+                continue;
+            }
+            if (sessionBase < 0) {
+                sessionBase = record.getTimestampNanos();
+            }
+            long elapsed = record.getTimestampNanos() - sessionBase;
+            long due = sessionOffset + (mSpeed == 0 ? 0 : (long) (elapsed / mSpeed));
+            last = Math.max(last, due);
+            waitUntil(start + due);
+            out.write(record.getData());
+            written += record.getData().length;
+        }
+        out.flush();
+        return written;
+    }
+
+    /**
+     * Make a replay in progress on another thread return early.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    private void waitUntil(long deadline) {
+        long left;
+        while (!mStopped && (left = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+        }
+    }
+}
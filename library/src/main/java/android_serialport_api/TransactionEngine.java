@@ -0,0 +1,410 @@
+package android_serialport_api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Request/response transactions over a {@link SerialPort}, several of them in flight at once.
+ * <p>
+ * Requests are written as they are submitted, up to the in-flight limit; responses are cut into
+ * frames by a {@link FrameDecoder} and each frame is given to the oldest in-flight transaction
+ * that the {@link Correlator} and the request's {@link Matcher} accept. Deadlines are expired by a
+ * shared {@link TimerWheel}, not a thread per request.
+ * <pre>
+ * TransactionEngine engine = new TransactionEngine(port, decoder, TransactionEngine.IN_ORDER, 1, wheel);
+ * ioEngine.register(port, engine);
+ * byte[] response = engine.submit(request, 200).get();
+ * </pre>
+ * The engine receives through {@link SerialDataListener}: register it with a {@link SerialIoEngine}
+ * or call {@link #onDataReceived} from the thread reading the port. Use an in-flight limit of 1
+ * for stop-and-wait protocols such as Modbus RTU, where the device only answers one request at a time.
+ */
+public class TransactionEngine implements SerialDataListener, FrameDecoder.FrameListener {
+    private static final String TAG = "TransactionEngine";
+
+    /**
+     * Pairs responses with requests by a key, e.g. a sequence number or a Modbus unit id and function.
+     */
+    public interface Correlator {
+        /**
+         * @return the key of request, null to match any response
+         */
+        Object requestKey(byte[] request);
+
+        /**
+         * @return the key of the response frame, null to offer it to any transaction
+         */
+        Object responseKey(byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * Responses are matched in order: each frame goes to the oldest transaction in flight.
+     */
+    public static final Correlator IN_ORDER = new Correlator() {
+        @Override
+        public Object requestKey(byte[] request) {
+            return null;
+        }
+
+        @Override
+        public Object responseKey(byte[] buffer, int offset, int length) {
+            return null;
+        }
+    };
+
+    /**
+     * Accepts or rejects a response frame for one request, e.g. by checking the function code.
+     */
+    public interface Matcher {
+        boolean matches(byte[] request, byte[] buffer, int offset, int length);
+    }
+
+    public interface Listener {
+        /**
+         * Called once the transaction got its response, expired or failed; on the receiving
+         * thread, the timer wheel thread or the submitting thread. Must return quickly.
+         */
+        void onComplete(Transaction transaction);
+    }
+
+    /**
+     * Result of a transaction: the response frame.
+     */
+    public static final class Transaction implements Future<byte[]> {
+        private final TransactionEngine mEngine;
+        private final byte[] mRequest;
+        private final Object mKey;
+        private final Matcher mMatcher;
+        private final Listener mListener;
+        private final long mSubmitNanos;
+        private TimerWheel.Timeout mTimeout;
+        private boolean mDone;
+        private boolean mCancelled;
+        private Exception mError;
+        private byte[] mResponse;
+        private long mCompleteNanos;
+
+        Transaction(TransactionEngine engine, byte[] request, Object key, Matcher matcher, Listener listener) {
+            mEngine = engine;
+            mRequest = request;
+            mKey = key;
+            mMatcher = matcher;
+            mListener = listener;
+            mSubmitNanos = System.nanoTime();
+        }
+
+        public byte[] getRequest() {
+            return mRequest;
+        }
+
+        /**
+         * Time from submit to completion, -1 while pending.
+         */
+        public synchronized long getLatencyNanos() {
+            return mDone ? mCompleteNanos - mSubmitNanos : -1;
+        }
+
+        /**
+         * Give up waiting for the response; a response arriving later counts as unmatched.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!mEngine.remove(this)) {
+                return false;
+            }
+            return complete(null, null, true);
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * @throws ExecutionException with a {@link TimeoutException} cause when no response came
+         *                            before the deadline, or the {@link IOException} of a failed write
+         */
+        @Override
+        public synchronized byte[] get() throws InterruptedException, ExecutionException {
+            while (!mDone) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!mDone) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(left / 1000000L, (int) (left % 1000000L));
+            }
+            return result();
+        }
+
+        private byte[] result() throws ExecutionException {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResponse;
+        }
+
+        /* Called once, after the transaction left the in-flight list */
+        boolean complete(byte[] response, Exception error, boolean cancelled) {
+            TimerWheel.Timeout timeout;
+            synchronized (this) {
+                if (mDone) {
+                    return false;
+                }
+                mDone = true;
+                mCancelled = cancelled;
+                mError = error;
+                mResponse = response;
+                mCompleteNanos = System.nanoTime();
+                timeout = mTimeout;
+                notifyAll();
+            }
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (mListener != null) {
+                try {
+                    mListener.onComplete(this);
+                } catch (RuntimeException e) {
+                    SerialLog.e(TAG, "listener failed", e);
+                }
+            }
+            return true;
+        }
+
+        synchronized void setTimeout(TimerWheel.Timeout timeout) {
+            if (mDone) {
+                timeout.cancel();
+            } else {
+                mTimeout = timeout;
+            }
+        }
+    }
+
+    private final OutputStream mOutput;
+    private final FrameDecoder mDecoder;
+    private final Correlator mCorrelator;
+    private final int mMaxInFlight;
+    private final TimerWheel mTimer;
+    private final Object mWriteLock = new Object();
+    /* In submission order, at most mMaxInFlight long */
+    private final List<Transaction> mInFlight;
+    private boolean mClosed;
+    private long mCompleted;
+    private long mTimedOut;
+    private long mFailed;
+    private long mUnmatchedFrames;
+
+    /**
+     * @param port        the port requests are written to
+     * @param decoder     splits received bytes into response frames, used from the receiving thread only
+     * @param correlator  pairs responses with requests, {@link #IN_ORDER} when the protocol has no ids
+     * @param maxInFlight transactions awaiting a response at once, 1 for stop-and-wait
+     * @param timer       expires deadlines, may be shared by several engines
+     */
+    public TransactionEngine(SerialPort port, FrameDecoder decoder, Correlator correlator, int maxInFlight,
+                             TimerWheel timer) {
+        this(port.getOutputStream(), decoder, correlator, maxInFlight, timer);
+    }
+
+    TransactionEngine(OutputStream output, FrameDecoder decoder, Correlator correlator, int maxInFlight,
+                      TimerWheel timer) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid max in flight: " + maxInFlight);
+        }
+        mOutput = output;
+        mDecoder = decoder;
+        mCorrelator = correlator;
+        mMaxInFlight = maxInFlight;
+        mTimer = timer;
+        mInFlight = new ArrayList<Transaction>(maxInFlight);
+    }
+
+    public Transaction submit(byte[] request, long timeoutMs) throws InterruptedException {
+        return submit(request, null, timeoutMs, null);
+    }
+
+    /**
+     * Write request once a slot is free and return its pending transaction. A failed write
+     * completes the transaction with the IOException.
+     *
+     * @param matcher   checks the response frames offered by the correlator, null to take the first
+     * @param timeoutMs time allowed for the response, counted from the write
+     * @param listener  notified on completion, may be null
+     * @throws InterruptedException  when interrupted while waiting for a slot
+     * @throws IllegalStateException when the engine is closed
+     */
+    public Transaction submit(byte[] request, Matcher matcher, long timeoutMs, Listener listener)
+            throws InterruptedException {
+        final Transaction transaction = new Transaction(this, request, mCorrelator.requestKey(request),
+                matcher, listener);
+        /* requests enter the in-flight list in the order they are written */
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                while (!mClosed && mInFlight.size() >= mMaxInFlight) {
+                    wait();
+                }
+                if (mClosed) {
+                    throw new IllegalStateException("engine closed");
+                }
+                /* in flight before the write, the response may be received before write() returns */
+                mInFlight.add(transaction);
+            }
+            try {
+                mOutput.write(request);
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (!mInFlight.remove(transaction)) {
+                        return transaction;
+                    }
+                    mFailed++;
+                    notifyAll();
+                }
+                transaction.complete(null, e, false);
+                return transaction;
+            }
+        }
+        transaction.setTimeout(mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(transaction);
+            }
+        }, timeoutMs));
+        return transaction;
+    }
+
+    @Override
+    public void onDataReceived(SerialPort port, byte[] buffer, int size) {
+        mDecoder.decode(buffer, 0, size, this);
+    }
+
+    @Override
+    public void onError(SerialPort port, IOException e) {
+        failAll(e);
+    }
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        Object key = mCorrelator.responseKey(buffer, offset, length);
+        Transaction match = null;
+        synchronized (this) {
+            for (int i = 0, n = mInFlight.size(); i < n; i++) {
+                Transaction transaction = mInFlight.get(i);
+                if ((key == null || transaction.mKey == null || key.equals(transaction.mKey))
+                        && (transaction.mMatcher == null
+                        || transaction.mMatcher.matches(transaction.mRequest, buffer, offset, length))) {
+                    match = transaction;
+                    mInFlight.remove(i);
+                    mCompleted++;
+                    notifyAll();
+                    break;
+                }
+            }
+            if (match == null) {
+                mUnmatchedFrames++;
+            }
+        }
+        if (match != null) {
+            match.complete(Arrays.copyOfRange(buffer, offset, offset + length), null, false);
+        }
+    }
+
+    /**
+     * Fail every transaction in flight and refuse new ones. The port and the timer are left running.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        failAll(new IOException("engine closed"));
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight.size();
+    }
+
+    /**
+     * Number of transactions completed with a response.
+     */
+    public synchronized long getCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * Number of transactions expired without a response.
+     */
+    public synchronized long getTimedOut() {
+        return mTimedOut;
+    }
+
+    /**
+     * Number of transactions failed by a write or port error.
+     */
+    public synchronized long getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Number of frames that no transaction in flight accepted, e.g. late responses.
+     */
+    public synchronized long getUnmatchedFrames() {
+        return mUnmatchedFrames;
+    }
+
+    private void expire(Transaction transaction) {
+        synchronized (this) {
+            if (!mInFlight.remove(transaction)) {
+                return;
+            }
+            mTimedOut++;
+            notifyAll();
+        }
+        transaction.complete(null, new TimeoutException("no response"), false);
+    }
+
+    private void failAll(IOException e) {
+        Transaction[] failed;
+        synchronized (this) {
+            failed = mInFlight.toArray(new Transaction[mInFlight.size()]);
+            mInFlight.clear();
+            mFailed += failed.length;
+            notifyAll();
+        }
+        for (Transaction transaction : failed) {
+            transaction.complete(null, e, false);
+        }
+    }
+
+    synchronized boolean remove(Transaction transaction) {
+        if (!mInFlight.remove(transaction)) {
+            return false;
+        }
+        notifyAll();
+        return true;
+    }
+}
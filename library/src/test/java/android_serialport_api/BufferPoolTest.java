@@ -0,0 +1,63 @@
+package android_serialport_api;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquireAndRelease_recyclesBuffers() throws Exception {
+        BufferPool pool = new BufferPool(2, 64);
+        PooledBuffer a = pool.acquire();
+        PooledBuffer b = pool.acquire();
+        assertNull(pool.tryAcquire());
+        assertEquals(0, pool.available());
+
+        a.buffer().put((byte) 1);
+        a.release();
+        PooledBuffer c = pool.tryAcquire();
+        assertSame(a, c);
+        assertEquals(0, c.buffer().position());
+        assertEquals(64, c.buffer().remaining());
+        assertTrue(c.buffer().isDirect());
+        b.release();
+        c.release();
+        assertEquals(2, pool.available());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twiceFails() throws Exception {
+        PooledBuffer buffer = new BufferPool(1, 16).acquire();
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        BufferPool pool = new BufferPool(4, 256);
+        cycle(pool, 100000);
+        long before = threads.getThreadAllocatedBytes(id);
+        cycle(pool, 1000000);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // A single PooledBuffer-sized allocation per cycle would be tens of megabytes
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private static void cycle(BufferPool pool, int times) {
+        for (int i = 0; i < times; i++) {
+            PooledBuffer buffer = pool.tryAcquire();
+            buffer.buffer().put((byte) i);
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CoalescingOutputStreamTest {
+
+    /* Keeps what is written, and queues the System.nanoTime() of each write */
+    private static class RecordingChannel implements WritableByteChannel {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        final BlockingQueue<Long> mWrites = new ArrayBlockingQueue<Long>(1024);
+
+        @Override
+        public synchronized int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] copy = new byte[n];
+            src.get(copy);
+            mBytes.write(copy, 0, n);
+            mWrites.add(System.nanoTime());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /* Accepts nothing for the first mRefusals writes, then at most mLimit bytes before failing */
+    private static class StallingChannel extends RecordingChannel {
+        int mRefusals;
+        int mLimit = Integer.MAX_VALUE;
+        int mCalls;
+
+        @Override
+        public synchronized int write(ByteBuffer src) {
+            mCalls++;
+            if (mRefusals > 0) {
+                mRefusals--;
+                return 0;
+            }
+            if (mLimit == 0) {
+                throw new IllegalStateException("port gone");
+            }
+            int n = Math.min(src.remaining(), mLimit);
+            mLimit -= n;
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            src.position(src.position() + n);
+            return super.write(part);
+        }
+    }
+
+    @Test
+    public void subMillisecondDelay_flushesBeforeOneMillisecond() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        CoalescingOutputStream out = new CoalescingOutputStream(channel, 64, 200);
+        long[] delays = new long[21];
+        for (int i = 0; i < delays.length; i++) {
+            long start = System.nanoTime();
+            out.write(i);
+            Long written = channel.mWrites.poll(1, TimeUnit.SECONDS);
+            assertNotNull("not flushed by the time limit", written);
+            delays[i] = written - start;
+        }
+        out.close();
+        Arrays.sort(delays);
+        /* a wait rounded to whole milliseconds never flushes before 1 ms */
+        long median = delays[delays.length / 2];
+        assertTrue("median delay " + median / 1000 + " us", median < TimeUnit.MICROSECONDS.toNanos(900));
+        assertTrue(delays[0] >= TimeUnit.MICROSECONDS.toNanos(200));
+    }
+
+    @Test
+    public void fullBuffer_isWrittenInOrder() throws IOException {
+        RecordingChannel channel = new RecordingChannel();
+        CoalescingOutputStream out = new CoalescingOutputStream(channel, 4, 0);
+        out.write(new byte[]{1, 2, 3});
+        out.write(new byte[]{4, 5});
+        out.write(new byte[]{6, 7, 8, 9, 10});
+        assertEquals(3, out.getFlushCount());
+        out.close();
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, channel.mBytes.toByteArray());
+        assertEquals(10, out.getBytesWritten());
+    }
+
+    @Test
+    public void zeroWrites_areRetriedWithoutCounting() throws IOException {
+        StallingChannel channel = new StallingChannel();
+        channel.mRefusals = 5;
+        CoalescingOutputStream out = new CoalescingOutputStream(channel, 16, 0);
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        assertEquals(6, channel.mCalls);
+        assertEquals(1, out.getFlushCount());
+        assertEquals(3, out.getBytesWritten());
+        assertArrayEquals(new byte[]{1, 2, 3}, channel.mBytes.toByteArray());
+    }
+
+    @Test
+    public void failedFlush_keepsTheUnsentBytes() throws IOException {
+        StallingChannel channel = new StallingChannel();
+        channel.mLimit = 2;
+        CoalescingOutputStream out = new CoalescingOutputStream(channel, 16, 0);
+        out.write(new byte[]{1, 2, 3, 4, 5});
+        try {
+            out.flush();
+            fail("flush succeeded");
+        } catch (IllegalStateException expected) {
+        }
+        assertArrayEquals(new byte[]{1, 2}, channel.mBytes.toByteArray());
+        /* the rest is still pending, ahead of what is written next */
+        out.write(6);
+        channel.mLimit = Integer.MAX_VALUE;
+        out.flush();
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, channel.mBytes.toByteArray());
+        assertEquals(6, out.getBytesWritten());
+        out.close();
+    }
+}
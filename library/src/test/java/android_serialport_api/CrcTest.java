@@ -0,0 +1,154 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class CrcTest {
+
+    private static final byte[] CHECK = "123456789".getBytes();
+
+    private static final Crc.Algorithm[] ALGORITHMS = {
+            Crc.CRC16_MODBUS, Crc.CRC16_CCITT_FALSE, Crc.CRC16_XMODEM, Crc.CRC16_KERMIT, Crc.CRC32,
+            new Crc.Algorithm("CRC-8", 8, 0x07, 0, false, 0),
+            new Crc.Algorithm("CRC-8/MAXIM", 8, 0x31, 0, true, 0),
+    };
+
+    @Test
+    public void checkValues() {
+        assertEquals(0x4b37, Crc.CRC16_MODBUS.compute(CHECK, 0, CHECK.length));
+        assertEquals(0x29b1, Crc.CRC16_CCITT_FALSE.compute(CHECK, 0, CHECK.length));
+        assertEquals(0x31c3, Crc.CRC16_XMODEM.compute(CHECK, 0, CHECK.length));
+        assertEquals(0x2189, Crc.CRC16_KERMIT.compute(CHECK, 0, CHECK.length));
+        assertEquals(0xcbf43926, Crc.CRC32.compute(CHECK, 0, CHECK.length));
+        assertEquals(0xf4, ALGORITHMS[5].compute(CHECK, 0, CHECK.length));
+        assertEquals(0xa1, ALGORITHMS[6].compute(CHECK, 0, CHECK.length));
+    }
+
+    @Test
+    public void slicing_matchesBitwiseReference() {
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        for (Crc.Algorithm algorithm : ALGORITHMS) {
+            for (int length : new int[]{0, 1, 7, 8, 9, 63, 64, 1000}) {
+                assertEquals(algorithm + " " + length, bitwise(algorithm, data, length),
+                        algorithm.compute(data, 0, length));
+            }
+        }
+    }
+
+    @Test
+    public void crc32_matchesZip() {
+        byte[] data = new byte[4096];
+        new Random(2).nextBytes(data);
+        CRC32 zip = new CRC32();
+        zip.update(data);
+        assertEquals((int) zip.getValue(), Crc.CRC32.compute(data, 0, data.length));
+    }
+
+    @Test
+    public void update_isIncremental() {
+        byte[] data = new byte[100];
+        new Random(3).nextBytes(data);
+        for (Crc.Algorithm algorithm : ALGORITHMS) {
+            int expected = algorithm.compute(data, 0, data.length);
+            for (int split = 0; split <= data.length; split += 7) {
+                Crc crc = new Crc(algorithm);
+                crc.update(data, 0, split);
+                crc.update(data, split, data.length - split);
+                assertEquals(algorithm + " split " + split, expected, crc.getValue());
+            }
+            Crc crc = new Crc(algorithm);
+            for (byte b : data) {
+                crc.update(b);
+            }
+            assertEquals(expected, crc.getValue());
+            crc.reset();
+            crc.update(data);
+            assertEquals(expected, crc.getValue());
+        }
+    }
+
+    @Test
+    public void update_byteBuffers() {
+        byte[] data = new byte[300];
+        new Random(4).nextBytes(data);
+        for (Crc.Algorithm algorithm : ALGORITHMS) {
+            int expected = algorithm.compute(data, 10, 280);
+            ByteBuffer heap = ByteBuffer.wrap(data, 10, 280);
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).position(10).limit(290);
+            assertEquals(expected, algorithm.compute(direct));
+            assertEquals(10, direct.position());
+
+            Crc crc = new Crc(algorithm);
+            crc.update(heap);
+            assertEquals(expected, crc.getValue());
+            assertEquals(290, heap.position());
+            crc.reset();
+            crc.update(direct);
+            assertEquals(expected, crc.getValue());
+            assertFalse(direct.hasRemaining());
+        }
+    }
+
+    @Test
+    public void frameFilter_passesMatchingFramesOnly() {
+        byte[] frame = {0x01, 0x03, 0x00, 0x00, 0x00, 0x0a, 0, 0};
+        int crc = Crc.CRC16_MODBUS.compute(frame, 0, 6);
+        frame[6] = (byte) crc;
+        frame[7] = (byte) (crc >> 8);
+        final List<Integer> accepted = new ArrayList<Integer>();
+        final List<Integer> rejected = new ArrayList<Integer>();
+        CrcFrameFilter filter = new CrcFrameFilter(Crc.CRC16_MODBUS, 0, false, new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(byte[] buffer, int offset, int length) {
+                accepted.add(length);
+            }
+        });
+        filter.setRejectListener(new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(byte[] buffer, int offset, int length) {
+                rejected.add(length);
+            }
+        });
+
+        filter.onFrame(frame, 0, frame.length);
+        frame[3] ^= 1;
+        filter.onFrame(frame, 0, frame.length);
+        filter.onFrame(frame, 0, 1);
+
+        assertEquals(1, accepted.size());
+        assertEquals(2, rejected.size());
+        assertEquals(1, filter.getAcceptedFrames());
+        assertEquals(2, filter.getRejectedFrames());
+    }
+
+    /* One bit at a time, straight from the Rocksoft model */
+    private static int bitwise(Crc.Algorithm algorithm, byte[] data, int length) {
+        int width = algorithm.getWidth();
+        long mask = (1L << width) - 1;
+        long crc = algorithm.getInit();
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xff;
+            if (algorithm.isReflected()) {
+                b = Integer.reverse(b) >>> 24;
+            }
+            crc ^= (long) b << (width - 8);
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & (1L << (width - 1))) != 0 ? (crc << 1) ^ algorithm.getPoly() : crc << 1;
+                crc &= mask;
+            }
+        }
+        if (algorithm.isReflected()) {
+            crc = Long.reverse(crc) >>> (64 - width);
+        }
+        return (int) ((crc ^ algorithm.getXorOut()) & mask);
+    }
+}
@@ -0,0 +1,114 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static class Collector implements FrameDecoder.FrameListener {
+        final List<String> frames = new ArrayList<String>();
+
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            frames.add(new String(buffer, offset, length));
+        }
+    }
+
+    /**
+     * Feed input to the decoder in pieces of every size from 1 to input.length.
+     */
+    private static void assertFragmented(FrameDecoder decoder, String input, String... expected) {
+        byte[] bytes = input.getBytes();
+        for (int piece = 1; piece <= bytes.length; piece++) {
+            Collector collector = new Collector();
+            decoder.reset();
+            for (int offset = 0; offset < bytes.length; offset += piece) {
+                decoder.decode(bytes, offset, Math.min(piece, bytes.length - offset), collector);
+            }
+            assertEquals("piece " + piece, Arrays.asList(expected), collector.frames);
+        }
+    }
+
+    @Test
+    public void delimiter_splitsOnMultiByteDelimiter() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("\r\n".getBytes(), 16, true);
+        assertFragmented(decoder, "AT\r\nOK\r\n\r\nERR\r\r\n", "AT", "OK", "", "ERR\r");
+    }
+
+    @Test
+    public void delimiter_matchesOverlappingPrefix() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("aab".getBytes(), 16, false);
+        assertFragmented(decoder, "xaaabyaab", "xaaab", "yaab");
+    }
+
+    @Test
+    public void delimiter_discardsOversizedFrame() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("\n".getBytes(), 4, true);
+        Collector collector = new Collector();
+        byte[] input = "toolong\nok\n".getBytes();
+        decoder.decode(input, 0, input.length, collector);
+        assertEquals(Arrays.asList("ok"), collector.frames);
+        assertEquals(8, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void fixedLength() {
+        assertFragmented(new FixedLengthFrameDecoder(3), "abcdefghi", "abc", "def", "ghi");
+    }
+
+    @Test
+    public void lengthField_payloadLengthPlusTrailer() {
+        // [0x7e][len][payload][2 byte trailer]
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 1, true, 2, 32);
+        assertFragmented(decoder, "~\u0003abcXY~\u0000XY~\u0001zXY", "~\u0003abcXY", "~\u0000XY", "~\u0001zXY");
+    }
+
+    @Test
+    public void lengthField_littleEndianTwoBytes() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 2, false, 0, 32);
+        assertFragmented(decoder, "\u0002\u0000ab\u0001\u0000c", "\u0002\u0000ab", "\u0001\u0000c");
+    }
+
+    @Test
+    public void lengthField_skipsOversizedFrame() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 1, true, 0, 4);
+        assertFragmented(decoder, "\u0005abcde\u0002ok", "\u0002ok");
+    }
+
+    @Test
+    public void gap_usesModbusTiming() {
+        // 3.5 characters of 11 bits at 9600 baud
+        assertEquals(4010416, GapFrameDecoder.modbusGapNanos(9600));
+        assertEquals(1750000, GapFrameDecoder.modbusGapNanos(115200));
+    }
+
+    @Test
+    public void gap_splitsOnSilence() {
+        GapFrameDecoder decoder = new GapFrameDecoder(1000, 8);
+        Collector collector = new Collector();
+        byte[] input = "abcdefgh".getBytes();
+        decoder.decode(input, 0, 2, 0, collector);
+        decoder.decode(input, 2, 2, 500, collector);
+        assertFalse(decoder.checkTimeout(1400, collector));
+        decoder.decode(input, 4, 1, 2000, collector);
+        assertEquals(Arrays.asList("abcd"), collector.frames);
+        assertTrue(decoder.checkTimeout(3000, collector));
+        assertEquals(Arrays.asList("abcd", "e"), collector.frames);
+    }
+
+    @Test
+    public void decode_directBuffer() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put("ab;cd;".getBytes()).flip();
+        Collector collector = new Collector();
+        new DelimiterFrameDecoder(";".getBytes(), 8, true).decode(direct, collector);
+        assertEquals(Arrays.asList("ab", "cd"), collector.frames);
+        assertFalse(direct.hasRemaining());
+    }
+}
@@ -0,0 +1,88 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void record_countsPowerOfTwoBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(1000);
+        histogram.record(-5);
+
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(2, histogram.getBucketCount(2));
+        assertEquals(1, histogram.getBucketCount(10));
+        assertEquals(6, histogram.getCount());
+        assertEquals(1006, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    public void bucketBounds_coverEveryValue() {
+        assertEquals(0, Histogram.getBucketUpperBound(0));
+        for (int i = 1; i < Histogram.BUCKETS; i++) {
+            assertEquals(Histogram.getBucketUpperBound(i - 1) + 1, Histogram.getBucketLowerBound(i));
+            assertEquals(i, Histogram.bucketOf(Histogram.getBucketLowerBound(i)));
+            assertEquals(i, Histogram.bucketOf(Histogram.getBucketUpperBound(i)));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.getBucketUpperBound(Histogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentile_isBucketUpperBoundCappedByMax() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10);
+        }
+        histogram.record(5000);
+
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(15, histogram.getPercentile(99));
+        assertEquals(5000, histogram.getPercentile(100));
+        assertEquals(5000, histogram.getMax());
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getBucketCount(Histogram.bucketOf(42)));
+    }
+
+    @Test
+    public void record_isSafeFromManyThreads() throws Exception {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t * 1000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(base + i % 1000);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(3999, histogram.getMax());
+    }
+}
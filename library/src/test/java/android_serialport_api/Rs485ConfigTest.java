@@ -0,0 +1,37 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Rs485ConfigTest {
+
+    @Test
+    public void defaults_raiseRtsWithoutDelays() {
+        Rs485Config config = new Rs485Config();
+        assertTrue(config.isRtsOnSend());
+        assertEquals(0, config.getDelayBeforeSendMs());
+        assertEquals(0, config.getDelayAfterSendMs());
+        assertFalse(config.isReceiveDuringTransmit());
+    }
+
+    @Test
+    public void copy_isIndependent() {
+        Rs485Config config = new Rs485Config();
+        config.setRtsOnSend(false);
+        config.setDelayBeforeSendMs(2);
+        config.setDelayAfterSendMs(3);
+        config.setReceiveDuringTransmit(true);
+        Rs485Config copy = new Rs485Config(config);
+        config.setDelayAfterSendMs(9);
+        assertFalse(copy.isRtsOnSend());
+        assertEquals(2, copy.getDelayBeforeSendMs());
+        assertEquals(3, copy.getDelayAfterSendMs());
+        assertTrue(copy.isReceiveDuringTransmit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDelay_isRejected() {
+        new Rs485Config().setDelayAfterSendMs(-1);
+    }
+}
@@ -0,0 +1,68 @@
+package android_serialport_api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SerialPortFinderTest {
+
+    private File mRoot;
+    private File mDev;
+    private File mDrivers;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("finder", "");
+        assertTrue(mRoot.delete());
+        mDev = new File(mRoot, "dev");
+        assertTrue(mDev.mkdirs());
+        mDrivers = new File(mRoot, "drivers");
+        FileWriter writer = new FileWriter(mDrivers);
+        writer.write("/dev/tty             /dev/tty        5       0 system:/dev/tty\n"
+                + "serial               /dev/ttyS       4 64-111 serial\n"
+                + "usbserial            /dev/ttyUSB   188 0-511 serial\n"
+                + "acm                  /dev/ttyACM   166 0-255 serial\n"
+                + "pty_slave            /dev/pts      136 0-1048575 pty:slave\n");
+        writer.close();
+        for (String name : new String[]{"ttyS0", "ttyS1", "ttyUSB0", "tty", "null", "ttyACM3"}) {
+            assertTrue(new File(mDev, name).createNewFile());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDev.listFiles()) {
+            file.delete();
+        }
+        mDev.delete();
+        mDrivers.delete();
+        mRoot.delete();
+    }
+
+    @Test
+    public void getAllDevices_matchesNodesToDrivers() {
+        SerialPortFinder finder = new SerialPortFinder(mDev, mDrivers);
+        String[] devices = finder.getAllDevices();
+        Arrays.sort(devices);
+        assertArrayEquals(new String[]{"ttyACM3 (acm)", "ttyS0 (serial)", "ttyS1 (serial)", "ttyUSB0 (usbserial)"}, devices);
+    }
+
+    @Test
+    public void invalidate_rescans() throws IOException {
+        SerialPortFinder finder = new SerialPortFinder(mDev, mDrivers);
+        assertEquals(4, finder.getAllDevicesPath().length);
+
+        assertTrue(new File(mDev, "ttyUSB1").createNewFile());
+        // cached until invalidated
+        assertEquals(4, finder.getAllDevicesPath().length);
+        finder.invalidate();
+        assertEquals(5, finder.getAllDevicesPath().length);
+    }
+}
@@ -0,0 +1,471 @@
+package android_serialport_api;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks of the Reactive Streams rules that apply to {@link SerialPublisher} and
+ * {@link SerialSubscriber}, in the spirit of the reactive-streams TCK, named after the rule.
+ */
+public class SerialPublisherTest {
+
+    /* Hands out the queued chunks one per read, a read with nothing queued times out after 1 ms */
+    private static class FakeChannel implements java.nio.channels.ReadableByteChannel {
+        final ConcurrentLinkedQueue<byte[]> mChunks = new ConcurrentLinkedQueue<byte[]>();
+        final AtomicInteger mReads = new AtomicInteger();
+        volatile IOException mFailure;
+
+        void feed(int count, int size) {
+            for (int i = 0; i < count; i++) {
+                byte[] chunk = new byte[size];
+                chunk[0] = (byte) mChunks.size();
+                mChunks.add(chunk);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            mReads.incrementAndGet();
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            byte[] chunk = mChunks.poll();
+            if (chunk == null) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 0;
+            }
+            dst.put(chunk);
+            return chunk.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Recorder implements Subscriber<ByteBuffer> {
+        final List<ByteBuffer> mItems = new ArrayList<ByteBuffer>();
+        final CountDownLatch mTerminated = new CountDownLatch(1);
+        final AtomicInteger mSignalsInProgress = new AtomicInteger();
+        volatile Subscription mSubscription;
+        volatile Throwable mError;
+        volatile boolean mCompleted;
+        volatile boolean mOverlapped;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            if (mSignalsInProgress.incrementAndGet() != 1) {
+                mOverlapped = true;
+            }
+            synchronized (mItems) {
+                mItems.add(item);
+                mItems.notifyAll();
+            }
+            mSignalsInProgress.decrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mError = t;
+            mTerminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted = true;
+            mTerminated.countDown();
+        }
+
+        int count() {
+            synchronized (mItems) {
+                return mItems.size();
+            }
+        }
+
+        void awaitItems(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+            synchronized (mItems) {
+                while (mItems.size() < count && System.currentTimeMillis() < deadline) {
+                    mItems.wait(50);
+                }
+            }
+            assertEquals(count, count());
+        }
+    }
+
+    @Test
+    public void rule1_1_emitsNoMoreThanRequested() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.feed(10, 4);
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(3);
+        recorder.awaitItems(3);
+        Thread.sleep(30);
+        assertEquals(3, recorder.count());
+        recorder.mSubscription.request(7);
+        recorder.awaitItems(10);
+        assertFalse(recorder.mOverlapped);
+        recorder.mSubscription.cancel();
+    }
+
+    @Test
+    public void zeroDemand_stopsReading() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        Thread.sleep(30);
+        assertEquals(0, channel.mReads.get());
+        assertEquals(1, publisher.getDemandStalls());
+
+        channel.feed(2, 4);
+        recorder.mSubscription.request(2);
+        recorder.awaitItems(2);
+        Thread.sleep(20);
+        int reads = channel.mReads.get();
+        Thread.sleep(30);
+        assertEquals(reads, channel.mReads.get());
+        recorder.mSubscription.cancel();
+    }
+
+    @Test
+    public void decoder_publishesFrames() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        /* 3 frames in one read, the third only wanted later */
+        channel.mChunks.add(new byte[]{1, 2, 3, 4, 5, 6});
+        SerialPublisher publisher = new SerialPublisher(channel, 64, new FixedLengthFrameDecoder(2));
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(2);
+        recorder.awaitItems(2);
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2}), recorder.mItems.get(0));
+        assertEquals(ByteBuffer.wrap(new byte[]{3, 4}), recorder.mItems.get(1));
+        int reads = channel.mReads.get();
+        recorder.mSubscription.request(1);
+        recorder.awaitItems(3);
+        assertEquals(ByteBuffer.wrap(new byte[]{5, 6}), recorder.mItems.get(2));
+        assertEquals(reads, channel.mReads.get());
+        recorder.mSubscription.cancel();
+    }
+
+    @Test
+    public void rule1_4_readErrorIsSignalled() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.mFailure = new IOException("gone");
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(1);
+        assertTrue(recorder.mTerminated.await(2, TimeUnit.SECONDS));
+        assertSame(channel.mFailure, recorder.mError);
+    }
+
+    @Test
+    public void stop_completesAfterPendingItems() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.mChunks.add(new byte[]{1, 2, 3, 4});
+        SerialPublisher publisher = new SerialPublisher(channel, 64, new FixedLengthFrameDecoder(2));
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        recorder.awaitItems(2);
+        publisher.stop();
+        assertTrue(recorder.mTerminated.await(2, TimeUnit.SECONDS));
+        assertTrue(recorder.mCompleted);
+        assertNull(recorder.mError);
+    }
+
+    @Test
+    public void stop_waitsForDemandForItemsAlreadyRead() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.mChunks.add(new byte[]{1, 2, 3, 4, 5, 6});
+        SerialPublisher publisher = new SerialPublisher(channel, 64, new FixedLengthFrameDecoder(2));
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(1);
+        recorder.awaitItems(1);
+        publisher.stop();
+        /* two frames of the read are still pending */
+        assertFalse(recorder.mTerminated.await(50, TimeUnit.MILLISECONDS));
+        channel.feed(1, 2);
+        recorder.mSubscription.request(5);
+        assertTrue(recorder.mTerminated.await(2, TimeUnit.SECONDS));
+        assertTrue(recorder.mCompleted);
+        /* delivered, and nothing read after the stop */
+        assertEquals(3, recorder.count());
+        assertEquals(1, channel.mChunks.size());
+    }
+
+    @Test
+    public void rule1_9_nullSubscriberIsRejected() {
+        SerialPublisher publisher = new SerialPublisher(new FakeChannel(), 64, null);
+        try {
+            publisher.subscribe(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void secondSubscriber_isRejectedUntilTheFirstCancels() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder first = new Recorder();
+        publisher.subscribe(first);
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+        assertNotNull(second.mSubscription);
+        assertTrue(second.mError instanceof IllegalStateException);
+
+        first.mSubscription.cancel();
+        Recorder third = new Recorder();
+        publisher.subscribe(third);
+        assertNull(third.mError);
+        channel.feed(1, 4);
+        third.mSubscription.request(1);
+        third.awaitItems(1);
+        assertEquals(0, first.count());
+        third.mSubscription.cancel();
+    }
+
+    @Test
+    public void rule3_9_nonPositiveRequestSignalsError() throws Exception {
+        SerialPublisher publisher = new SerialPublisher(new FakeChannel(), 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(0);
+        assertTrue(recorder.mTerminated.await(2, TimeUnit.SECONDS));
+        assertTrue(recorder.mError instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void rule3_17_demandOverflowIsUnbounded() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.feed(5, 4);
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        recorder.awaitItems(5);
+        assertNull(recorder.mError);
+        recorder.mSubscription.cancel();
+    }
+
+    @Test
+    public void rule3_13_cancelDropsTheSubscriber() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        recorder.mSubscription.cancel();
+        /* 3.7: cancel is idempotent, requests after it are no-ops */
+        recorder.mSubscription.cancel();
+        recorder.mSubscription.request(1);
+        Thread.sleep(30);
+        int reads = channel.mReads.get();
+        channel.feed(3, 4);
+        Thread.sleep(30);
+        assertEquals(reads, channel.mReads.get());
+        assertEquals(0, recorder.count());
+        assertEquals(1, recorder.mTerminated.getCount());
+    }
+
+    @Test
+    public void rule2_13_throwingSubscriberIsCancelled() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.feed(3, 4);
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        final AtomicInteger calls = new AtomicInteger();
+        final Subscription[] subscription = new Subscription[1];
+        publisher.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("bad subscriber");
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                calls.incrementAndGet();
+            }
+
+            @Override
+            public void onComplete() {
+                calls.incrementAndGet();
+            }
+        });
+        subscription[0].request(3);
+        Thread.sleep(50);
+        assertEquals(1, calls.get());
+        /* the publisher is free for a new subscriber */
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        assertNull(recorder.mError);
+        recorder.mSubscription.cancel();
+    }
+
+    /* Writes to a byte array, one byte per write call */
+    private static class SlowSink implements SerialSubscriber.Sink {
+        final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        volatile boolean mDrained;
+        volatile IOException mFailure;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            mOut.write(src.get());
+            return 1;
+        }
+
+        @Override
+        public void drain() {
+            mDrained = true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /* Counts the demand and the cancels it receives */
+    private static class CountingSubscription implements Subscription {
+        long mRequested;
+        int mCancels;
+
+        @Override
+        public void request(long n) {
+            mRequested += n;
+        }
+
+        @Override
+        public void cancel() {
+            mCancels++;
+        }
+    }
+
+    @Test
+    public void subscriber_writesAndRenewsDemandInBatches() throws Exception {
+        SlowSink sink = new SlowSink();
+        SerialSubscriber subscriber = new SerialSubscriber(sink, 4);
+        CountingSubscription subscription = new CountingSubscription();
+        subscriber.onSubscribe(subscription);
+        assertEquals(4, subscription.mRequested);
+        subscriber.onNext(ByteBuffer.wrap(new byte[]{1, 2}));
+        assertEquals(4, subscription.mRequested);
+        subscriber.onNext(ByteBuffer.wrap(new byte[]{3}));
+        assertEquals(6, subscription.mRequested);
+        subscriber.onComplete();
+        assertTrue(subscriber.await(1, TimeUnit.SECONDS));
+        assertTrue(sink.mDrained);
+        assertNull(subscriber.getError());
+        assertEquals(3, subscriber.getBytesWritten());
+        assertArrayEquals(new byte[]{1, 2, 3}, sink.mOut.toByteArray());
+    }
+
+    @Test
+    public void subscriber_rule2_5_cancelsASecondSubscription() {
+        SerialSubscriber subscriber = new SerialSubscriber(new SlowSink(), 4);
+        CountingSubscription first = new CountingSubscription();
+        CountingSubscription second = new CountingSubscription();
+        subscriber.onSubscribe(first);
+        subscriber.onSubscribe(second);
+        assertEquals(0, first.mCancels);
+        assertEquals(1, second.mCancels);
+        assertEquals(0, second.mRequested);
+    }
+
+    @Test
+    public void subscriber_rule2_13_nullSignalsAreRejected() {
+        SerialSubscriber subscriber = new SerialSubscriber(new SlowSink(), 4);
+        try {
+            subscriber.onSubscribe(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        subscriber.onSubscribe(new CountingSubscription());
+        try {
+            subscriber.onNext(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        try {
+            subscriber.onError(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void subscriber_writeErrorCancelsUpstream() throws Exception {
+        SlowSink sink = new SlowSink();
+        sink.mFailure = new IOException("unplugged");
+        SerialSubscriber subscriber = new SerialSubscriber(sink, 4);
+        CountingSubscription subscription = new CountingSubscription();
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(ByteBuffer.wrap(new byte[]{1}));
+        assertEquals(1, subscription.mCancels);
+        assertTrue(subscriber.isDone());
+        assertSame(sink.mFailure, subscriber.getError());
+    }
+
+    @Test
+    public void publisherToSubscriber_copiesEverything() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.feed(100, 8);
+        SerialPublisher publisher = new SerialPublisher(channel, 64, null);
+        SlowSink sink = new SlowSink();
+        SerialSubscriber subscriber = new SerialSubscriber(sink, 16);
+        publisher.subscribe(subscriber);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (subscriber.getBytesWritten() < 800 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        publisher.stop();
+        assertTrue(subscriber.await(2, TimeUnit.SECONDS));
+        assertNull(subscriber.getError());
+        assertEquals(800, sink.mOut.size());
+    }
+}
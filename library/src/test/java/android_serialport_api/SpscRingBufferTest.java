@@ -0,0 +1,74 @@
+package android_serialport_api;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void capacity_roundedUpToPowerOfTwo() {
+        assertEquals(16, new SpscRingBuffer(16).capacity());
+        assertEquals(32, new SpscRingBuffer(17).capacity());
+    }
+
+    @Test
+    public void offerAndPoll_wrapAround() {
+        SpscRingBuffer ring = new SpscRingBuffer(8);
+        byte[] out = new byte[8];
+        assertEquals(6, ring.offer(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertEquals(4, ring.poll(out, 0, 4));
+        // 2 bytes left, 6 free, crossing the end of the backing buffer
+        assertEquals(6, ring.offer(ByteBuffer.wrap(new byte[]{7, 8, 9, 10, 11, 12})));
+        assertEquals(0, ring.offer(new byte[]{13}, 0, 1));
+        assertEquals(8, ring.available());
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        assertEquals(8, ring.poll(dst));
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, dst.array());
+        assertEquals(0, ring.poll(out, 0, 8));
+    }
+
+    @Test
+    public void concurrentProducerAndSlowConsumer_preservesOrder() throws Exception {
+        final SpscRingBuffer ring = new SpscRingBuffer(1024);
+        final int total = 4 * 1024 * 1024;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[61];
+                int sent = 0;
+                while (sent < total) {
+                    int length = Math.min(chunk.length, total - sent);
+                    for (int i = 0; i < length; i++) {
+                        chunk[i] = (byte) (sent + i);
+                    }
+                    int offset = 0;
+                    while (offset < length) {
+                        offset += ring.offer(chunk, offset, length - offset);
+                    }
+                    sent += length;
+                }
+            }
+        });
+        producer.start();
+
+        byte[] in = new byte[37];
+        int received = 0;
+        while (received < total) {
+            int n = ring.poll(in, 0, in.length);
+            for (int i = 0; i < n; i++) {
+                assertEquals((byte) (received + i), in[i]);
+            }
+            received += n;
+            if ((received & 0xffff) < n) {
+                // Stall the consumer now and then so the producer hits a full ring
+                Thread.sleep(1);
+            }
+        }
+        producer.join();
+        assertEquals(0, ring.available());
+    }
+}
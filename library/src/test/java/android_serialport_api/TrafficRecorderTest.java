@@ -0,0 +1,141 @@
+package android_serialport_api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrafficRecorderTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("traffic", ".log");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void record_roundTripsThroughTheFile() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(mFile, 4096);
+        recorder.record(TrafficRecorder.TX, new byte[]{1, 2, 3}, 1, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put(new byte[]{9, 8, 7, 6});
+        recorder.record(TrafficRecorder.RX, direct, 1, 3);
+        recorder.close();
+
+        List<TrafficRecorder.Record> records = TrafficRecorder.read(mFile);
+        assertEquals(3, records.size());
+        assertEquals(TrafficRecorder.SESSION, records.get(0).getDirection());
+        assertTrue(records.get(0).getSessionStartMillis() > 0);
+        assertEquals(TrafficRecorder.TX, records.get(1).getDirection());
+        assertArrayEquals(new byte[]{2, 3}, records.get(1).getData());
+        assertEquals(TrafficRecorder.RX, records.get(2).getDirection());
+        assertArrayEquals(new byte[]{8, 7, 6}, records.get(2).getData());
+        assertTrue(records.get(2).getTimestampNanos() >= records.get(1).getTimestampNanos());
+        assertEquals(4096, mFile.length());
+    }
+
+    @Test
+    public void ring_keepsTheNewestRecords() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(mFile, 2048);
+        byte[] chunk = new byte[37];
+        for (int i = 0; i < 1000; i++) {
+            chunk[0] = (byte) i;
+            chunk[36] = (byte) i;
+            recorder.record(TrafficRecorder.RX, chunk, 0, chunk.length);
+        }
+        List<TrafficRecorder.Record> records = recorder.getRecords();
+        assertEquals(1001, recorder.getTotalRecords());
+        assertTrue(records.size() > 30);
+        /* consecutive, ending with the last one */
+        int last = 999;
+        for (int i = records.size() - 1; i >= 0; i--, last--) {
+            assertEquals((byte) last, records.get(i).getData()[0]);
+            assertEquals((byte) last, records.get(i).getData()[36]);
+        }
+        recorder.close();
+        assertEquals(records.size(), TrafficRecorder.read(mFile).size());
+    }
+
+    @Test
+    public void largeChunks_areSplit() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(mFile, 4096);
+        byte[] chunk = new byte[1000];
+        chunk[999] = 42;
+        recorder.record(TrafficRecorder.TX, chunk, 0, chunk.length);
+        List<TrafficRecorder.Record> records = recorder.getRecords();
+        int total = 0;
+        for (TrafficRecorder.Record record : records.subList(1, records.size())) {
+            total += record.getData().length;
+        }
+        assertTrue(records.size() > 2);
+        assertEquals(1000, total);
+        byte[] tail = records.get(records.size() - 1).getData();
+        assertEquals(42, tail[tail.length - 1]);
+        recorder.close();
+    }
+
+    @Test
+    public void reopen_appendsANewSession() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(mFile, 4096);
+        recorder.record(TrafficRecorder.RX, new byte[]{1}, 0, 1);
+        recorder.close();
+        recorder = new TrafficRecorder(mFile, 4096);
+        recorder.record(TrafficRecorder.RX, new byte[]{2}, 0, 1);
+        List<TrafficRecorder.Record> records = recorder.getRecords();
+        recorder.close();
+        assertEquals(4, records.size());
+        assertEquals(TrafficRecorder.SESSION, records.get(2).getDirection());
+        assertEquals(2, records.get(3).getData()[0]);
+
+        /* another size starts afresh */
+        recorder = new TrafficRecorder(mFile, 8192);
+        assertEquals(1, recorder.getRecords().size());
+        recorder.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        java.io.FileOutputStream out = new java.io.FileOutputStream(mFile);
+        out.write(new byte[200]);
+        out.close();
+        TrafficRecorder.read(mFile);
+    }
+
+    @Test
+    public void replayer_keepsTheGaps() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(mFile, 4096);
+        recorder.record(TrafficRecorder.RX, new byte[]{1, 2}, 0, 2);
+        recorder.record(TrafficRecorder.TX, new byte[]{9}, 0, 1);
+        Thread.sleep(50);
+        recorder.record(TrafficRecorder.RX, new byte[]{3}, 0, 1);
+        recorder.close();
+
+        TrafficReplayer replayer = new TrafficReplayer(TrafficRecorder.read(mFile), TrafficRecorder.RX);
+        assertEquals(3, replayer.getLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        assertEquals(3, replayer.replay(out));
+        long elapsed = System.nanoTime() - start;
+        assertArrayEquals(new byte[]{1, 2, 3}, out.toByteArray());
+        assertTrue("replayed in " + elapsed, elapsed >= 49000000L);
+
+        replayer.setSpeed(0);
+        start = System.nanoTime();
+        replayer.replay(new ByteArrayOutputStream());
+        assertTrue(System.nanoTime() - start < 40000000L);
+    }
+}
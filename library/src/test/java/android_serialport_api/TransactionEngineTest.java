@@ -0,0 +1,203 @@
+package android_serialport_api;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TransactionEngineTest {
+
+    /* First byte of each 2-byte frame is the sequence number */
+    private static final TransactionEngine.Correlator BY_SEQUENCE = new TransactionEngine.Correlator() {
+        @Override
+        public Object requestKey(byte[] request) {
+            return request[0];
+        }
+
+        @Override
+        public Object responseKey(byte[] buffer, int offset, int length) {
+            return buffer[offset];
+        }
+    };
+
+    private final TimerWheel mWheel = new TimerWheel(1, 64);
+
+    @After
+    public void tearDown() {
+        mWheel.stop();
+    }
+
+    @Test
+    public void inOrder_matchesOldestFirst() throws Exception {
+        TransactionEngine engine = new TransactionEngine(new ByteArrayOutputStream(),
+                new FixedLengthFrameDecoder(2), TransactionEngine.IN_ORDER, 4, mWheel);
+        TransactionEngine.Transaction a = engine.submit(new byte[]{1, 0}, 1000);
+        TransactionEngine.Transaction b = engine.submit(new byte[]{2, 0}, 1000);
+        assertEquals(2, engine.getInFlight());
+
+        /* split across chunks */
+        engine.onDataReceived(null, new byte[]{10, 11, 20}, 3);
+        assertArrayEquals(new byte[]{10, 11}, a.get(1, TimeUnit.SECONDS));
+        assertFalse(b.isDone());
+        engine.onDataReceived(null, new byte[]{21}, 1);
+        assertArrayEquals(new byte[]{20, 21}, b.get(1, TimeUnit.SECONDS));
+        assertEquals(2, engine.getCompleted());
+        assertEquals(0, engine.getInFlight());
+        assertEquals(0, mWheel.getPending());
+    }
+
+    @Test
+    public void correlator_matchesOutOfOrder() throws Exception {
+        TransactionEngine engine = new TransactionEngine(new ByteArrayOutputStream(),
+                new FixedLengthFrameDecoder(2), BY_SEQUENCE, 8, mWheel);
+        List<TransactionEngine.Transaction> transactions = new ArrayList<TransactionEngine.Transaction>();
+        for (byte seq = 0; seq < 8; seq++) {
+            transactions.add(engine.submit(new byte[]{seq, 0}, 1000));
+        }
+        for (byte seq = 7; seq >= 0; seq--) {
+            engine.onDataReceived(null, new byte[]{seq, (byte) (seq * 3)}, 2);
+        }
+        engine.onDataReceived(null, new byte[]{9, 9}, 2);
+        for (byte seq = 0; seq < 8; seq++) {
+            assertEquals(seq * 3, transactions.get(seq).get()[1]);
+        }
+        assertEquals(1, engine.getUnmatchedFrames());
+    }
+
+    @Test
+    public void matcher_skipsRejectedFrames() throws Exception {
+        TransactionEngine engine = new TransactionEngine(new ByteArrayOutputStream(),
+                new FixedLengthFrameDecoder(2), TransactionEngine.IN_ORDER, 1, mWheel);
+        TransactionEngine.Transaction t = engine.submit(new byte[]{3, 0}, new TransactionEngine.Matcher() {
+            @Override
+            public boolean matches(byte[] request, byte[] buffer, int offset, int length) {
+                return buffer[offset] == request[0];
+            }
+        }, 1000, null);
+        engine.onDataReceived(null, new byte[]{4, 0, 3, 1}, 4);
+        assertArrayEquals(new byte[]{3, 1}, t.get(1, TimeUnit.SECONDS));
+        assertEquals(1, engine.getUnmatchedFrames());
+    }
+
+    @Test
+    public void deadline_expiresAndFreesTheSlot() throws Exception {
+        TransactionEngine engine = new TransactionEngine(new ByteArrayOutputStream(),
+                new FixedLengthFrameDecoder(2), TransactionEngine.IN_ORDER, 1, mWheel);
+        final CountDownLatch completed = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TransactionEngine.Transaction t = engine.submit(new byte[]{1, 0}, null, 20,
+                new TransactionEngine.Listener() {
+                    @Override
+                    public void onComplete(TransactionEngine.Transaction transaction) {
+                        completed.countDown();
+                    }
+                });
+        /* blocks until the first one expires */
+        TransactionEngine.Transaction next = engine.submit(new byte[]{2, 0}, 1000);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(19));
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+        try {
+            t.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(1, engine.getTimedOut());
+
+        /* a late response goes to the next request, which is all IN_ORDER can do */
+        engine.onDataReceived(null, new byte[]{7, 7}, 2);
+        assertArrayEquals(new byte[]{7, 7}, next.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void writeFailure_failsTheTransaction() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("gone");
+            }
+        };
+        TransactionEngine engine = new TransactionEngine(broken, new FixedLengthFrameDecoder(2),
+                TransactionEngine.IN_ORDER, 1, mWheel);
+        TransactionEngine.Transaction t = engine.submit(new byte[]{1, 0}, 1000);
+        try {
+            t.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("gone", e.getCause().getMessage());
+        }
+        assertEquals(0, engine.getInFlight());
+        assertEquals(1, engine.getFailed());
+    }
+
+    @Test
+    public void close_failsInFlightAndCancelRemoves() throws Exception {
+        TransactionEngine engine = new TransactionEngine(new ByteArrayOutputStream(),
+                new FixedLengthFrameDecoder(2), TransactionEngine.IN_ORDER, 2, mWheel);
+        TransactionEngine.Transaction a = engine.submit(new byte[]{1, 0}, 1000);
+        TransactionEngine.Transaction b = engine.submit(new byte[]{2, 0}, 1000);
+        assertTrue(a.cancel(false));
+        assertTrue(a.isCancelled());
+        engine.close();
+        try {
+            b.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            engine.submit(new byte[]{3, 0}, 1000);
+            fail();
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+        assertEquals(0, mWheel.getPending());
+    }
+
+    @Test
+    public void timerWheel_firesInOrderAndCancels() throws Exception {
+        final List<Integer> fired = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(3);
+        final AtomicInteger late = new AtomicInteger();
+        TimerWheel.Timeout cancelled = null;
+        /* 100 ms is more than a round of 64 ticks */
+        for (final int delay : new int[]{100, 5, 30, 60}) {
+            final long start = System.nanoTime();
+            TimerWheel.Timeout timeout = mWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        late.incrementAndGet();
+                    }
+                    synchronized (fired) {
+                        fired.add(delay);
+                    }
+                    done.countDown();
+                }
+            }, delay);
+            if (delay == 60) {
+                cancelled = timeout;
+            }
+        }
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        synchronized (fired) {
+            assertEquals("[5, 30, 100]", fired.toString());
+        }
+        assertEquals("fired early", 0, late.get());
+        assertEquals(0, mWheel.getPending());
+    }
+}
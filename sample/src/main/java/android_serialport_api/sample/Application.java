@@ -48,8 +48,8 @@ public class Application extends android.app.Application {
                 throw new InvalidParameterException();
             }
 
-            /* Open the serial port */
-            mSerialPort = new SerialPort(new File(path), baudrate, parity, databits, stopbits);
+            /* Open the serial port, read() sleeps up to 100ms instead of spinning on an idle line */
+            mSerialPort = new SerialPort(new File(path), baudrate, parity, databits, stopbits, 0, 0, 100);
         }
         return mSerialPort;
     }